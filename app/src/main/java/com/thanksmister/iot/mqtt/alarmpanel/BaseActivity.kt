@@ -36,6 +36,7 @@ import com.google.android.things.update.UpdateManagerStatus
 import com.google.android.things.update.UpdatePolicy.POLICY_APPLY_AND_REBOOT
 import com.thanksmister.iot.mqtt.alarmpanel.managers.ConnectionLiveData
 import com.thanksmister.iot.mqtt.alarmpanel.network.DarkSkyOptions
+import com.thanksmister.iot.mqtt.alarmpanel.network.ImageCache
 import com.thanksmister.iot.mqtt.alarmpanel.network.ImageOptions
 import com.thanksmister.iot.mqtt.alarmpanel.persistence.DarkSkyDao
 import com.thanksmister.iot.mqtt.alarmpanel.ui.Configuration
@@ -55,6 +56,7 @@ abstract class BaseActivity : DaggerAppCompatActivity() {
     @Inject lateinit var preferences: DPreference
     @Inject lateinit var dialogUtils: DialogUtils
     @Inject lateinit var darkSkyDataSource: DarkSkyDao
+    @Inject lateinit var imageCache: ImageCache
 
     private var inactivityHandler: Handler = Handler()
     private var hasNetwork = AtomicBoolean(true)
@@ -245,7 +247,7 @@ abstract class BaseActivity : DaggerAppCompatActivity() {
                     View.OnClickListener {
                         resetInactivityTimer()
                         setScreenBrightness()
-                    }, darkSkyDataSource, hasWeather)
+                    }, darkSkyDataSource, hasWeather, imageCache)
         } else if (manuallySet) {
             Timber.d("showBlackScreenSaver")
             dialogUtils.showBlackScreenSaver(this@BaseActivity,
@@ -19,8 +19,10 @@
 package com.thanksmister.iot.mqtt.alarmpanel
 
 import com.crashlytics.android.Crashlytics
+import androidx.work.WorkManager
 import com.facebook.stetho.Stetho
 import com.thanksmister.iot.mqtt.alarmpanel.di.DaggerApplicationComponent
+import com.thanksmister.iot.mqtt.alarmpanel.tasks.MessageRetentionWorker
 import com.thanksmister.iot.mqtt.alarmpanel.utils.CrashlyticsTree
 import dagger.android.AndroidInjector
 import dagger.android.DaggerApplication
@@ -46,5 +48,7 @@ class BaseApplication : DaggerApplication() {
             Fabric.with(this, Crashlytics())
             Timber.plant(CrashlyticsTree())
         }
+
+        MessageRetentionWorker.schedule(WorkManager.getInstance())
     }
 }
\ No newline at end of file
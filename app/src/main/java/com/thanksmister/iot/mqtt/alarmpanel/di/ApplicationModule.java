@@ -22,16 +22,23 @@ import android.content.Context;
 
 
 import com.thanksmister.iot.mqtt.alarmpanel.BaseApplication;
+import com.thanksmister.iot.mqtt.alarmpanel.network.HttpClientFactory;
+import com.thanksmister.iot.mqtt.alarmpanel.network.ImageCache;
+import com.thanksmister.iot.mqtt.alarmpanel.network.UploadQueue;
+import com.thanksmister.iot.mqtt.alarmpanel.network.weather.MQTTWeatherProvider;
 import com.thanksmister.iot.mqtt.alarmpanel.persistence.DarkSkyDao;
 import com.thanksmister.iot.mqtt.alarmpanel.persistence.DarkSkyDatabase;
 import com.thanksmister.iot.mqtt.alarmpanel.persistence.MessageDao;
 import com.thanksmister.iot.mqtt.alarmpanel.persistence.MessageDatabase;
+import com.thanksmister.iot.mqtt.alarmpanel.persistence.WeatherRepository;
+import com.thanksmister.iot.mqtt.alarmpanel.ui.Configuration;
 
 import javax.inject.Singleton;
 
 import dagger.Binds;
 import dagger.Module;
 import dagger.Provides;
+import okhttp3.OkHttpClient;
 
 @Module
 abstract class ApplicationModule {
@@ -68,4 +75,35 @@ abstract class ApplicationModule {
     static DarkSkyDao provideDarkSkyDao(DarkSkyDatabase database) {
         return database.darkSkyDao();
     }
-}
\ No newline at end of file
+
+    @Singleton
+    @Provides
+    static MQTTWeatherProvider provideMQTTWeatherProvider() {
+        return new MQTTWeatherProvider();
+    }
+
+    @Singleton
+    @Provides
+    static WeatherRepository provideWeatherRepository(DarkSkyDao dataSource, OkHttpClient httpClient,
+                                                      MQTTWeatherProvider mqttProvider) {
+        return new WeatherRepository(dataSource, httpClient, mqttProvider);
+    }
+
+    @Singleton
+    @Provides
+    static OkHttpClient provideOkHttpClient(Application app) {
+        return HttpClientFactory.create(app);
+    }
+
+    @Singleton
+    @Provides
+    static UploadQueue provideUploadQueue(Application app, Configuration configuration, OkHttpClient httpClient) {
+        return new UploadQueue(app, configuration, httpClient);
+    }
+
+    @Singleton
+    @Provides
+    static ImageCache provideImageCache(Application app, OkHttpClient httpClient) {
+        return new ImageCache(app, httpClient);
+    }
+}
@@ -1,6 +1,7 @@
 package com.thanksmister.iot.mqtt.alarmpanel.network
 
 import android.text.TextUtils
+import com.thanksmister.iot.mqtt.alarmpanel.network.weather.DarkSkyProvider
 
 import dpreference.DPreference
 
@@ -42,10 +43,25 @@ class DarkSkyOptions private constructor(
     var weatherUnits: String? = null
         private set
 
+    /**
+     * Where the weather comes from, [SOURCE_SERVER] or [SOURCE_MQTT].
+     */
+    var weatherSource: String = SOURCE_SERVER
+        private set
+
+    /**
+     * Base url of the Dark Sky compatible forecast server.
+     */
+    var serverUrl: String = DarkSkyProvider.BASE_URL
+        private set
+
     val isValid: Boolean
-        get() = !TextUtils.isEmpty(latitude) &&
+        get() = if (weatherSource == SOURCE_MQTT) {
+            !TextUtils.isEmpty(weatherUnits)
+        } else !TextUtils.isEmpty(latitude) &&
                 !TextUtils.isEmpty(longitude) &&
                 !TextUtils.isEmpty(weatherUnits) &&
+                !TextUtils.isEmpty(serverUrl) &&
                 !TextUtils.isEmpty(key)
 
     var darkSkyKey: String?
@@ -55,6 +71,16 @@ class DarkSkyOptions private constructor(
             setOptionsUpdated(true)
         }
 
+    fun setWeatherSource(value: String) {
+        this.sharedPreferences.setPrefString(PREF_WEATHER_SOURCE, value)
+        setOptionsUpdated(true)
+    }
+
+    fun setServerUrl(value: String) {
+        this.sharedPreferences.setPrefString(PREF_WEATHER_SERVER, value)
+        setOptionsUpdated(true)
+    }
+
     fun setLon(longitude: String) {
         this.sharedPreferences.setPrefString(PREF_WEATHER_LON, longitude)
     }
@@ -69,7 +95,7 @@ class DarkSkyOptions private constructor(
 
     fun setIsCelsius(isCelsius: Boolean) {
         this.isCelsius = isCelsius
-        sharedPreferences.setPrefString(PREF_WEATHER_UNITS, if (isCelsius) DarkSkyRequest.UNITS_SI else DarkSkyRequest.UNITS_US)
+        sharedPreferences.setPrefString(PREF_WEATHER_UNITS, if (isCelsius) UNITS_SI else UNITS_US)
         setOptionsUpdated(true)
     }
 
@@ -91,6 +117,14 @@ class DarkSkyOptions private constructor(
         val PREF_DARK_SKY_KEY = "pref_dark_sky_key"
         val PREF_WEATHER_LAT = "pref_weather_lat"
         val PREF_WEATHER_LON = "pref_weather_lon"
+        val PREF_WEATHER_SOURCE = "pref_weather_source_value"
+        val PREF_WEATHER_SERVER = "pref_weather_server_url"
+
+        const val SOURCE_SERVER = "server"
+        const val SOURCE_MQTT = "mqtt"
+
+        const val UNITS_SI = "si"
+        const val UNITS_US = "us"
 
         private val WEATHER_OPTIONS_UPDATED = "pref_weather_options_updated"
 
@@ -103,8 +137,10 @@ class DarkSkyOptions private constructor(
                 options.key = sharedPreferences.getPrefString(PREF_DARK_SKY_KEY, null)
                 options.latitude = sharedPreferences.getPrefString(PREF_WEATHER_LAT, null)
                 options.longitude = sharedPreferences.getPrefString(PREF_WEATHER_LON, null)
-                options.isCelsius = sharedPreferences.getPrefString(PREF_WEATHER_UNITS, DarkSkyRequest.UNITS_US) == DarkSkyRequest.UNITS_SI
-                options.weatherUnits = sharedPreferences.getPrefString(PREF_WEATHER_UNITS, DarkSkyRequest.UNITS_US)
+                options.isCelsius = sharedPreferences.getPrefString(PREF_WEATHER_UNITS, UNITS_US) == UNITS_SI
+                options.weatherUnits = sharedPreferences.getPrefString(PREF_WEATHER_UNITS, UNITS_US)
+                options.weatherSource = sharedPreferences.getPrefString(PREF_WEATHER_SOURCE, SOURCE_SERVER)
+                options.serverUrl = sharedPreferences.getPrefString(PREF_WEATHER_SERVER, DarkSkyProvider.BASE_URL)
                 return options
             } catch (e: Exception) {
                 throw IllegalArgumentException("While processing weather options", e)
@@ -1,54 +0,0 @@
-/*
- * <!--
- *   ~ Copyright (c) 2017. ThanksMister LLC
- *   ~
- *   ~ Licensed under the Apache License, Version 2.0 (the "License");
- *   ~ you may not use this file except in compliance with the License. 
- *   ~ You may obtain a copy of the License at
- *   ~
- *   ~ http://www.apache.org/licenses/LICENSE-2.0
- *   ~
- *   ~ Unless required by applicable law or agreed to in writing, software distributed 
- *   ~ under the License is distributed on an "AS IS" BASIS, 
- *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
- *   ~ See the License for the specific language governing permissions and 
- *   ~ limitations under the License.
- *   -->
- */
-
-package com.thanksmister.iot.mqtt.alarmpanel.network
-
-import com.thanksmister.iot.mqtt.alarmpanel.network.model.DarkSkyResponse
-import io.reactivex.Observable
-
-import retrofit2.Call
-import retrofit2.http.GET
-import retrofit2.http.Path
-import retrofit2.http.Query
-
-interface DarkSkyRequest {
-
-    @GET("/forecast/{apikey}/{lat},{lon}")
-    fun getHourlyForecast(@Path("apikey") apiKey: String,
-                          @Path("lat") lat: String,
-                          @Path("lon") lon: String,
-                          @Query("exclude") exclude: String,
-                          @Query("units") units: String,
-                          @Query("lang") language: String): Call<DarkSkyResponse>
-
-    @GET("/forecast/{apikey}/{lat},{lon}")
-    fun getExtendedForecast(@Path("apikey") apiKey: String,
-                            @Path("lat") lat: String,
-                            @Path("lon") lon: String,
-                            @Query("exclude") exclude: String,
-                            @Query("extended") extended: String,
-                            @Query("units") units: String,
-                            @Query("lang") language: String): Observable<DarkSkyResponse>
-
-    companion object {
-
-        val UNITS_SI = "si"
-        val UNITS_US = "us"
-        val UNITS_AUTO = "auto"
-    }
-}
\ No newline at end of file
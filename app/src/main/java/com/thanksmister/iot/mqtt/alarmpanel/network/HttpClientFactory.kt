@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2018 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.mqtt.alarmpanel.network
+
+import android.content.Context
+import com.facebook.stetho.okhttp3.StethoInterceptor
+import com.thanksmister.iot.mqtt.alarmpanel.BuildConfig
+import okhttp3.Cache
+import okhttp3.OkHttpClient
+import okhttp3.logging.HttpLoggingInterceptor
+import java.io.File
+import java.util.concurrent.TimeUnit
+
+/**
+ * Builds the one [OkHttpClient] shared by all the APIs, so they share a connection pool
+ * and a disk cache. The cache honors Cache-Control and revalidates with ETags, logging
+ * and Stetho are only added to debug builds and never log bodies.
+ */
+object HttpClientFactory {
+
+    private const val CACHE_DIRECTORY = "http"
+    private const val CACHE_SIZE: Long = 10 * 1024 * 1024
+    private const val CONNECT_TIMEOUT: Long = 15
+    private const val READ_TIMEOUT: Long = 30
+    private const val WRITE_TIMEOUT: Long = 60 // image uploads on a slow uplink
+
+    @JvmStatic
+    fun create(context: Context): OkHttpClient {
+        val builder = OkHttpClient.Builder()
+                .cache(Cache(File(context.cacheDir, CACHE_DIRECTORY), CACHE_SIZE))
+                .connectTimeout(CONNECT_TIMEOUT, TimeUnit.SECONDS)
+                .readTimeout(READ_TIMEOUT, TimeUnit.SECONDS)
+                .writeTimeout(WRITE_TIMEOUT, TimeUnit.SECONDS)
+        if (BuildConfig.DEBUG) {
+            val logging = HttpLoggingInterceptor()
+            logging.level = HttpLoggingInterceptor.Level.HEADERS
+            builder.addInterceptor(logging)
+            builder.addNetworkInterceptor(StethoInterceptor())
+        }
+        return builder.build()
+    }
+}
@@ -18,20 +18,16 @@
 
 package com.thanksmister.iot.mqtt.alarmpanel.network
 
-import com.facebook.stetho.okhttp3.StethoInterceptor
 import com.google.gson.GsonBuilder
 import com.thanksmister.iot.mqtt.alarmpanel.network.adapters.DataTypeAdapterFactory
 import com.thanksmister.iot.mqtt.alarmpanel.network.model.ImageResponse
 
-import java.util.concurrent.TimeUnit
-
 import okhttp3.OkHttpClient
-import okhttp3.logging.HttpLoggingInterceptor
 import retrofit2.Call
 import retrofit2.Retrofit
 import retrofit2.converter.gson.GsonConverterFactory
 
-class ImageApi {
+class ImageApi(httpClient: OkHttpClient) {
 
     private val service: ImageRequest
 
@@ -39,16 +35,6 @@ class ImageApi {
 
         val base_url = "https://api.imgur.com/"
 
-        val logging = HttpLoggingInterceptor()
-        logging.level = HttpLoggingInterceptor.Level.BODY
-
-        val httpClient = OkHttpClient.Builder()
-                .addInterceptor(logging)
-                .connectTimeout(10000, TimeUnit.SECONDS)
-                .readTimeout(10000, TimeUnit.SECONDS)
-                .addNetworkInterceptor(StethoInterceptor())
-                .build()
-
         val gson = GsonBuilder()
                 .registerTypeAdapterFactory(DataTypeAdapterFactory())
                 .create()
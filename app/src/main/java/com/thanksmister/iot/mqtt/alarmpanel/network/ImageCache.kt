@@ -0,0 +1,437 @@
+/*
+ * Copyright (c) 2018 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.mqtt.alarmpanel.network
+
+import android.content.Context
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.util.AtomicFile
+import android.util.LruCache
+import com.google.gson.Gson
+import com.google.gson.reflect.TypeToken
+import com.thanksmister.iot.mqtt.alarmpanel.utils.BitmapPool
+import okhttp3.CacheControl
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import timber.log.Timber
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.security.MessageDigest
+import java.util.*
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+
+/**
+ * Keeps the photo screen saver supplied with images. The Imgur tag list is kept on disk and
+ * only fetched again once it is a few hours old, and images are downloaded into a disk cache
+ * with a byte budget that drops the least recently shown first. The next few images are
+ * downloaded and decoded at the size of the view ahead of time on a background thread, so
+ * a rotation only has to take a ready bitmap. When the network is down images already on
+ * disk are shown instead. Decoding samples and scales the image down to the view, uses
+ * RGB_565 for JPEGs as they have no alpha, and reuses the memory of images no longer shown.
+ */
+class ImageCache(context: Context, private val httpClient: OkHttpClient) {
+
+    private class Tags(val tag: String, val fetchedAt: Long, val links: ArrayList<String>)
+
+    private val context = context.applicationContext
+    private val directory = File(this.context.cacheDir, DIRECTORY_NAME)
+    private val file = AtomicFile(File(this.context.filesDir, FILE_NAME))
+    private val executor = ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, LinkedBlockingQueue<Runnable>())
+    private val random = Random()
+    private val ready = ArrayDeque<String>()
+    private val pool = BitmapPool(POOL_BUDGET)
+    private val memory = object : LruCache<String, Bitmap>(MEMORY_BUDGET) {
+        override fun sizeOf(key: String, value: Bitmap): Int {
+            return value.allocationByteCount
+        }
+
+        override fun entryRemoved(evicted: Boolean, key: String, oldValue: Bitmap, newValue: Bitmap?) {
+            if (evicted) {
+                pool.put(oldValue)
+            }
+        }
+    }
+
+    private var imageApi: ImageApi? = null
+    private var tags: Tags? = null
+    private var lastTagAttempt: Long = 0
+    private var options: ImageOptions? = null
+    private var width = 0
+    private var height = 0
+    private var crop = false
+    private var filling = false
+
+    init {
+        executor.allowCoreThreadTimeOut(true)
+    }
+
+    /**
+     * Start prefetching images for a view of the given size, called when the screen saver
+     * is shown.
+     */
+    @Synchronized
+    fun start(options: ImageOptions, width: Int, height: Int) {
+        if (this.options?.getTag() != options.getTag() || this.width != width || this.height != height
+                || crop != options.imageFitScreen) {
+            ready.clear()
+        }
+        this.options = options
+        this.width = width
+        this.height = height
+        this.crop = options.imageFitScreen
+        fill()
+    }
+
+    /**
+     * Returns the next prefetched image or null if none is ready yet, never blocks. The
+     * caller owns the image until it hands it back with [release].
+     */
+    @Synchronized
+    fun next(): Bitmap? {
+        var bitmap: Bitmap? = null
+        while (bitmap == null && ready.isNotEmpty()) {
+            bitmap = memory.remove(ready.poll())
+        }
+        fill()
+        return bitmap
+    }
+
+    /**
+     * Hand back an image from [next] that is no longer displayed, its memory is reused for
+     * decoding so it must not be drawn again.
+     */
+    @Synchronized
+    fun release(bitmap: Bitmap) {
+        if (options != null) {
+            pool.put(bitmap)
+        }
+    }
+
+    /**
+     * Stop prefetching and let go of the decoded images, the disk cache is kept for the next
+     * time the screen saver is shown.
+     */
+    @Synchronized
+    fun stop() {
+        options = null
+        ready.clear()
+        memory.evictAll()
+        pool.clear()
+    }
+
+    private fun fill() {
+        if (!filling && options != null && ready.size < PREFETCH_COUNT) {
+            filling = true
+            executor.execute { prefetch() }
+        }
+    }
+
+    private fun prefetch() {
+        var failures = 0
+        try {
+            while (failures < MAX_FAILURES) {
+                val options: ImageOptions
+                val width: Int
+                val height: Int
+                val crop: Boolean
+                synchronized(this) {
+                    if (this.options == null || ready.size >= PREFETCH_COUNT) {
+                        return
+                    }
+                    options = this.options!!
+                    width = this.width
+                    height = this.height
+                    crop = this.crop
+                }
+                val image = getImageFile(getLinks(options))
+                if (image == null) {
+                    failures++
+                    continue
+                }
+                val key = image.name + "@" + width + "x" + height + (if (crop) "c" else "f")
+                val bitmap = memory.get(key) ?: decode(image, width, height, crop)
+                if (bitmap == null) {
+                    failures++
+                    continue
+                }
+                synchronized(this) {
+                    // keep going for the new settings if they changed meanwhile
+                    if (this.options === options && this.width == width && this.height == height) {
+                        memory.put(key, bitmap)
+                        ready.add(key)
+                    } else {
+                        pool.put(bitmap)
+                    }
+                }
+            }
+        } finally {
+            synchronized(this) {
+                filling = false
+            }
+        }
+    }
+
+    /**
+     * Links for the current tag, the list is fetched again once it is older than
+     * [TAG_REFRESH] and the stored one is used while it can't be fetched.
+     */
+    private fun getLinks(options: ImageOptions): List<String> {
+        var tags = this.tags ?: load()
+        val now = System.currentTimeMillis()
+        val stale = tags == null || tags.tag != options.getTag() || now - tags.fetchedAt > TAG_REFRESH
+        if (stale && now - lastTagAttempt > TAG_RETRY) {
+            lastTagAttempt = now
+            val fetched = fetchLinks(options)
+            if (fetched != null) {
+                tags = fetched
+                save(fetched)
+            }
+        }
+        this.tags = tags
+        return if (tags != null && tags.tag == options.getTag()) tags.links else emptyList()
+    }
+
+    private fun fetchLinks(options: ImageOptions): Tags? {
+        try {
+            if (imageApi == null) {
+                imageApi = ImageApi(httpClient)
+            }
+            val response = imageApi!!.getImagesByTag(options.imageClientId, options.getTag()).execute()
+            val items = response.body()?.items
+            if (!response.isSuccessful || items == null) {
+                Timber.e("Unable to fetch images for tag: " + response.code())
+                return null
+            }
+            val links = ArrayList<String>()
+            for (item in items) {
+                if (item.images == null) continue
+                for (image in item.images) {
+                    if (image.link != null && image.animated != true && image.type?.startsWith("image/") == true
+                            && (image.size ?: 0) < MAX_IMAGE_SIZE) {
+                        links.add(image.link)
+                    }
+                }
+            }
+            Timber.d("Image links fetched: " + links.size)
+            return Tags(options.getTag(), System.currentTimeMillis(), links)
+        } catch (e: Exception) {
+            Timber.e("Unable to fetch images for tag: " + e.message)
+            return null
+        }
+    }
+
+    /**
+     * A random image from the links on disk, downloaded first if needed. When it can't be
+     * downloaded one already on disk is used instead.
+     */
+    private fun getImageFile(links: List<String>): File? {
+        if (links.isNotEmpty()) {
+            val link = links[random.nextInt(links.size)]
+            val image = File(directory, hash(link))
+            if (image.exists() || download(link, image)) {
+                image.setLastModified(System.currentTimeMillis())
+                return image
+            }
+        }
+        val cached = directory.listFiles { _, name -> !name.endsWith(TEMP_SUFFIX) }
+        if (cached == null || cached.isEmpty()) {
+            return null
+        }
+        return cached[random.nextInt(cached.size)]
+    }
+
+    private fun download(link: String, image: File): Boolean {
+        if (!directory.exists() && !directory.mkdirs()) {
+            return false
+        }
+        // the images have their own cache, keep them out of the http cache
+        val request = Request.Builder()
+                .url(link)
+                .cacheControl(CacheControl.Builder().noStore().build())
+                .build()
+        val temp = File(directory, image.name + TEMP_SUFFIX)
+        try {
+            val response = httpClient.newCall(request).execute()
+            val body = response.body()
+            try {
+                if (!response.isSuccessful) {
+                    Timber.e("Unable to download image: " + response.code())
+                    return false
+                }
+                val output = FileOutputStream(temp)
+                try {
+                    body.byteStream().copyTo(output)
+                } finally {
+                    output.close()
+                }
+            } finally {
+                body.close()
+            }
+            if (!temp.renameTo(image)) {
+                temp.delete()
+                return false
+            }
+            trim()
+            return true
+        } catch (e: IOException) {
+            Timber.e("Unable to download image: " + e.message)
+            temp.delete()
+            return false
+        }
+    }
+
+    // drop the least recently shown images until the cache is under budget
+    private fun trim() {
+        val files = directory.listFiles() ?: return
+        var total: Long = 0
+        for (image in files) {
+            total += image.length()
+        }
+        for (image in files.sortedBy { it.lastModified() }) {
+            if (total <= DISK_BUDGET) break
+            total -= image.length()
+            image.delete()
+        }
+    }
+
+    private fun decode(image: File, width: Int, height: Int, crop: Boolean): Bitmap? {
+        try {
+            val bounds = BitmapFactory.Options()
+            bounds.inJustDecodeBounds = true
+            BitmapFactory.decodeFile(image.path, bounds)
+            if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+                // not an image we can show
+                image.delete()
+                return null
+            }
+            val decode = BitmapFactory.Options()
+            decode.inSampleSize = getSampleSize(bounds.outWidth, bounds.outHeight, width, height, crop)
+            val sampledWidth = bounds.outWidth / decode.inSampleSize
+            val sampledHeight = bounds.outHeight / decode.inSampleSize
+            val scale = getScale(sampledWidth, sampledHeight, width, height, crop)
+            if (scale < 1f) {
+                // the decoder scales the rest of the way to the view size
+                decode.inScaled = true
+                decode.inDensity = sampledWidth
+                decode.inTargetDensity = Math.round(sampledWidth * scale)
+            }
+            val alpha = bounds.outMimeType != "image/jpeg"
+            decode.inPreferredConfig = if (alpha) Bitmap.Config.ARGB_8888 else Bitmap.Config.RGB_565
+            decode.inMutable = true
+            // a pixel of margin for rounding in the decoder
+            val byteCount = (Math.ceil((sampledWidth * scale).toDouble()).toInt() + 1) *
+                    (Math.ceil((sampledHeight * scale).toDouble()).toInt() + 1) * (if (alpha) 4 else 2)
+            decode.inBitmap = pool.get(byteCount)
+            try {
+                return BitmapFactory.decodeFile(image.path, decode)
+            } catch (e: IllegalArgumentException) {
+                // the pooled bitmap couldn't be reused
+                decode.inBitmap = null
+                return BitmapFactory.decodeFile(image.path, decode)
+            }
+        } catch (e: OutOfMemoryError) {
+            Timber.e("Unable to decode image: " + e.message)
+            return null
+        }
+    }
+
+    private fun load(): Tags? {
+        try {
+            val json = String(file.readFully(), Charsets.UTF_8)
+            return Gson().fromJson(json, object : TypeToken<Tags>() {}.type)
+        } catch (e: IOException) {
+            // nothing fetched yet
+        } catch (e: Exception) {
+            Timber.e("Unable to read image tags: " + e.message)
+            file.delete()
+        }
+        return null
+    }
+
+    private fun save(tags: Tags) {
+        var stream: FileOutputStream? = null
+        try {
+            stream = file.startWrite()
+            stream.write(Gson().toJson(tags).toByteArray(Charsets.UTF_8))
+            file.finishWrite(stream)
+        } catch (e: IOException) {
+            Timber.e("Unable to write image tags: " + e.message)
+            if (stream != null) {
+                file.failWrite(stream)
+            }
+        }
+    }
+
+    private fun hash(link: String): String {
+        val digest = MessageDigest.getInstance("SHA-1")
+        val builder = StringBuilder()
+        for (b in digest.digest(link.toByteArray(Charsets.UTF_8))) {
+            builder.append(String.format("%02x", b))
+        }
+        return builder.toString()
+    }
+
+    companion object {
+        const val DIRECTORY_NAME = "screensaver"
+        const val FILE_NAME = "screensaver_tags.json"
+        const val TEMP_SUFFIX = ".tmp"
+        const val PREFETCH_COUNT = 2 // decoded images kept ready ahead of the one shown
+        const val MAX_FAILURES = 5
+        const val TAG_REFRESH: Long = 6 * 60 * 60 * 1000
+        const val TAG_RETRY: Long = 5 * 60 * 1000
+        const val DISK_BUDGET: Long = 50 * 1024 * 1024
+        const val MAX_IMAGE_SIZE = 8 * 1024 * 1024
+        val MEMORY_BUDGET = (Runtime.getRuntime().maxMemory() / 8).toInt()
+        val POOL_BUDGET = (Runtime.getRuntime().maxMemory() / 16).toInt()
+
+        /**
+         * Largest power of two that keeps the decoded image at least as large as it is shown,
+         * filling the view when cropped or fitting inside it otherwise.
+         */
+        @JvmStatic
+        fun getSampleSize(imageWidth: Int, imageHeight: Int, width: Int, height: Int, crop: Boolean): Int {
+            var sampleSize = 1
+            if (width <= 0 || height <= 0) {
+                return sampleSize
+            }
+            while (true) {
+                val sampledWidth = imageWidth / (sampleSize * 2)
+                val sampledHeight = imageHeight / (sampleSize * 2)
+                val large = if (crop) sampledWidth >= width && sampledHeight >= height else sampledWidth >= width || sampledHeight >= height
+                if (!large) break
+                sampleSize *= 2
+            }
+            return sampleSize
+        }
+
+        /**
+         * Scale that brings the image to the size it is shown at, never more than 1.
+         */
+        @JvmStatic
+        fun getScale(imageWidth: Int, imageHeight: Int, width: Int, height: Int, crop: Boolean): Float {
+            if (width <= 0 || height <= 0 || imageWidth <= 0 || imageHeight <= 0) {
+                return 1f
+            }
+            val scaleX = width.toFloat() / imageWidth
+            val scaleY = height.toFloat() / imageHeight
+            return Math.min(1f, if (crop) Math.max(scaleX, scaleY) else Math.min(scaleX, scaleY))
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2018 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.mqtt.alarmpanel.network
+
+import android.content.Context
+import android.util.AtomicFile
+import com.google.gson.Gson
+import com.google.gson.reflect.TypeToken
+import com.thanksmister.iot.mqtt.alarmpanel.utils.AlarmUtils
+import timber.log.Timber
+import java.io.File
+import java.io.IOException
+import java.util.*
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+
+/**
+ * Disk backed queue of outgoing commands. Commands stay on disk until the broker
+ * acknowledges them, so they survive Wi-Fi drops and process restarts. A new alarm
+ * command replaces any older alarm command still waiting for the same topic, only
+ * the latest arm/disarm request is meaningful once the connection comes back. The queue
+ * is written to disk on a background thread so queueing a command doesn't block the caller.
+ */
+class MQTTCommandQueue(context: Context) {
+
+    class Command(val topic: String, val payload: String, val qos: Int, val createdAt: Long)
+
+    private val file = AtomicFile(File(context.filesDir, FILE_NAME))
+    private val commands = ArrayList<Command>()
+    private val executor = ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, LinkedBlockingQueue<Runnable>())
+
+    init {
+        executor.allowCoreThreadTimeOut(true)
+        load()
+    }
+
+    @Synchronized
+    fun enqueue(topic: String, payload: String, qos: Int) {
+        if (AlarmUtils.hasSupportedCommands(payload)) {
+            val iterator = commands.iterator()
+            while (iterator.hasNext()) {
+                val command = iterator.next()
+                if (command.topic == topic && AlarmUtils.hasSupportedCommands(command.payload)) {
+                    Timber.d("Command ${command.payload} superseded by $payload")
+                    iterator.remove()
+                }
+            }
+        }
+        while (commands.size >= MAX_COMMANDS) {
+            Timber.w("Command queue full, dropping: " + commands[0].payload)
+            commands.removeAt(0)
+        }
+        commands.add(Command(topic, payload, qos, System.currentTimeMillis()))
+        save()
+    }
+
+    /**
+     * The oldest command that hasn't expired, expired commands are discarded.
+     */
+    @Synchronized
+    fun peek(): Command? {
+        val expiredBefore = System.currentTimeMillis() - MAX_COMMAND_AGE
+        var changed = false
+        while (commands.isNotEmpty() && commands[0].createdAt < expiredBefore) {
+            Timber.w("Command expired: " + commands[0].payload)
+            commands.removeAt(0)
+            changed = true
+        }
+        if (changed) {
+            save()
+        }
+        return if (commands.isEmpty()) null else commands[0]
+    }
+
+    @Synchronized
+    fun remove(command: Command) {
+        if (commands.remove(command)) {
+            save()
+        }
+    }
+
+    @Synchronized
+    fun size(): Int {
+        return commands.size
+    }
+
+    private fun load() {
+        try {
+            val json = String(file.readFully(), Charsets.UTF_8)
+            val saved: List<Command>? = Gson().fromJson(json, object : TypeToken<List<Command>>() {}.type)
+            if (saved != null) {
+                commands.addAll(saved)
+            }
+            Timber.d("Loaded queued commands: " + commands.size)
+        } catch (e: IOException) {
+            // nothing queued yet
+        } catch (e: Exception) {
+            Timber.e("Unable to read command queue: " + e.message)
+            file.delete()
+        }
+    }
+
+    // called with the lock held, writes happen in order on the executor
+    private fun save() {
+        val snapshot = ArrayList(commands)
+        executor.execute { write(snapshot) }
+    }
+
+    private fun write(snapshot: List<Command>) {
+        var stream: java.io.FileOutputStream? = null
+        try {
+            stream = file.startWrite()
+            stream.write(Gson().toJson(snapshot).toByteArray(Charsets.UTF_8))
+            file.finishWrite(stream)
+        } catch (e: IOException) {
+            Timber.e("Unable to write command queue: " + e.message)
+            if (stream != null) {
+                file.failWrite(stream)
+            }
+        }
+    }
+
+    companion object {
+        const val FILE_NAME = "mqtt_commands.json"
+        const val MAX_COMMANDS = 20
+        const val MAX_COMMAND_AGE: Long = 5 * 60 * 1000 // stale commands are not replayed
+    }
+}
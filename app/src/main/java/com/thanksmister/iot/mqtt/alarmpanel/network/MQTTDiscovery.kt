@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2018 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.mqtt.alarmpanel.network
+
+import android.content.Context
+import android.text.TextUtils
+import android.util.AtomicFile
+import com.google.gson.Gson
+import com.google.gson.reflect.TypeToken
+import com.thanksmister.iot.mqtt.alarmpanel.ui.Configuration
+import com.thanksmister.iot.mqtt.alarmpanel.ui.modules.MotionSensor
+import com.thanksmister.iot.mqtt.alarmpanel.utils.AlarmUtils
+import org.json.JSONObject
+import timber.log.Timber
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.security.MessageDigest
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+
+/**
+ * Announces the panel to Home Assistant with retained MQTT discovery configs for the alarm
+ * control panel, the sensor zones and camera motion. A hash of every config sent is kept
+ * on disk per broker, so a reconnect only sends the configs that changed since they were
+ * last sent instead of republishing them all. A hash is only recorded once the broker
+ * acknowledges the config, so one that never got out is sent again on the next connect.
+ * Configs for entities that went away are cleared with an empty retained message. The
+ * work is done on a background thread.
+ */
+class MQTTDiscovery(context: Context, private val mqttOptions: MQTTOptions, private val configuration: Configuration) {
+
+    private class Cache(var broker: String, val hashes: HashMap<String, String>)
+
+    private val file = AtomicFile(File(context.applicationContext.filesDir, FILE_NAME))
+    private val executor = ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, LinkedBlockingQueue<Runnable>())
+
+    // only used on the executor
+    private var cache: Cache? = null
+
+    init {
+        executor.allowCoreThreadTimeOut(true)
+    }
+
+    /**
+     * Publish the configs that changed, called each time the connection is made.
+     */
+    fun announce(publisher: MQTTPublisher) {
+        if (!mqttOptions.getDiscovery()) {
+            return
+        }
+        executor.execute { send(publisher) }
+    }
+
+    private fun send(publisher: MQTTPublisher) {
+        val cache = getCache()
+        val broker = mqttOptions.brokerUrl
+        if (cache.broker != broker) {
+            // a different broker doesn't have our retained configs
+            cache.broker = broker
+            cache.hashes.clear()
+            save(cache)
+        }
+        val configs = buildConfigs()
+        var queued = 0
+        for ((topic, payload) in configs) {
+            val hash = hash(payload)
+            if (cache.hashes[topic] == hash) continue
+            if (publisher.publish(topic, payload, DISCOVERY_QOS, true, getListener(broker, topic, hash))) {
+                queued++
+            }
+        }
+        val removed = cache.hashes.keys.filter { !configs.containsKey(it) }
+        for (topic in removed) {
+            if (publisher.publish(topic, "", DISCOVERY_QOS, true, getListener(broker, topic, null))) {
+                queued++
+            }
+        }
+        Timber.d("Discovery configs queued: $queued of ${configs.size}")
+    }
+
+    /**
+     * Records the hash of a delivered config, or forgets the topic once its clear is
+     * delivered when the hash is null.
+     */
+    private fun getListener(broker: String, topic: String, hash: String?): MQTTPublisher.DeliveryListener {
+        return object : MQTTPublisher.DeliveryListener {
+            override fun onDelivered() {
+                executor.execute {
+                    val cache = getCache()
+                    if (cache.broker == broker) {
+                        if (hash != null) {
+                            cache.hashes[topic] = hash
+                        } else {
+                            cache.hashes.remove(topic)
+                        }
+                        save(cache)
+                    }
+                }
+            }
+        }
+    }
+
+    private fun getCache(): Cache {
+        if (cache == null) {
+            cache = load()
+        }
+        return cache!!
+    }
+
+    private fun buildConfigs(): Map<String, String> {
+        val configs = LinkedHashMap<String, String>()
+        val nodeId = getNodeId()
+
+        val alarm = JSONObject()
+        alarm.put("name", ALARM_NAME)
+        alarm.put("unique_id", nodeId + "_alarm")
+        alarm.put("state_topic", mqttOptions.getStateTopic())
+        alarm.put("command_topic", mqttOptions.getCommandTopic())
+        alarm.put("payload_arm_home", AlarmUtils.COMMAND_ARM_HOME)
+        alarm.put("payload_arm_away", AlarmUtils.COMMAND_ARM_AWAY)
+        alarm.put("payload_disarm", AlarmUtils.COMMAND_DISARM)
+        alarm.put("qos", mqttOptions.getCommandQos())
+        configs[getConfigTopic("alarm_control_panel", nodeId)] = alarm.toString()
+
+        val sensorTopic = mqttOptions.getSensorPublishTopic()
+        if (!TextUtils.isEmpty(sensorTopic)) {
+            for (zone in configuration.getSensorInputMap().values.distinct()) {
+                val objectId = nodeId + "_" + sanitize(zone)
+                configs[getConfigTopic("binary_sensor", objectId)] =
+                        binarySensor(ALARM_NAME + " " + zone, objectId, sensorTopic + "/" + zone, zone)
+            }
+        }
+
+        val motionTopic = mqttOptions.getMotionTopic()
+        if (configuration.cameraMotion && !TextUtils.isEmpty(motionTopic)) {
+            val objectId = nodeId + "_camera_motion"
+            configs[getConfigTopic("binary_sensor", objectId)] =
+                    binarySensor(ALARM_NAME + " camera motion", objectId, motionTopic, MotionSensor.ZONE_MOTION)
+        }
+        return configs
+    }
+
+    private fun binarySensor(name: String, uniqueId: String, stateTopic: String, zone: String): String {
+        val sensor = JSONObject()
+        sensor.put("name", name)
+        sensor.put("unique_id", uniqueId)
+        sensor.put("state_topic", stateTopic)
+        sensor.put("payload_on", MotionSensor.MOTION_ON)
+        sensor.put("payload_off", MotionSensor.MOTION_OFF)
+        sensor.put("device_class", if (DEVICE_CLASSES.contains(zone)) zone else MotionSensor.ZONE_MOTION)
+        return sensor.toString()
+    }
+
+    private fun getConfigTopic(component: String, objectId: String): String {
+        return DISCOVERY_PREFIX + "/" + component + "/" + objectId + "/config"
+    }
+
+    private fun getNodeId(): String {
+        return sanitize(mqttOptions.getClientId())
+    }
+
+    // discovery topics only allow letters, numbers, underscores and hyphens
+    private fun sanitize(value: String): String {
+        return value.replace(Regex("[^a-zA-Z0-9_-]"), "_")
+    }
+
+    private fun hash(payload: String): String {
+        val digest = MessageDigest.getInstance("SHA-1")
+        val builder = StringBuilder()
+        for (b in digest.digest(payload.toByteArray(Charsets.UTF_8))) {
+            builder.append(String.format("%02x", b))
+        }
+        return builder.toString()
+    }
+
+    private fun load(): Cache {
+        try {
+            val json = String(file.readFully(), Charsets.UTF_8)
+            val cache: Cache? = Gson().fromJson(json, object : TypeToken<Cache>() {}.type)
+            if (cache != null) {
+                return cache
+            }
+        } catch (e: IOException) {
+            // nothing announced yet
+        } catch (e: Exception) {
+            Timber.e("Unable to read discovery cache: " + e.message)
+            file.delete()
+        }
+        return Cache("", HashMap())
+    }
+
+    private fun save(cache: Cache) {
+        var stream: FileOutputStream? = null
+        try {
+            stream = file.startWrite()
+            stream.write(Gson().toJson(cache).toByteArray(Charsets.UTF_8))
+            file.finishWrite(stream)
+        } catch (e: IOException) {
+            Timber.e("Unable to write discovery cache: " + e.message)
+            if (stream != null) {
+                file.failWrite(stream)
+            }
+        }
+    }
+
+    companion object {
+        const val FILE_NAME = "discovery.json"
+        const val DISCOVERY_PREFIX = "homeassistant"
+        const val DISCOVERY_QOS = 1
+        const val ALARM_NAME = "Alarm Panel"
+        val DEVICE_CLASSES = listOf("door", "window", "garage_door", "motion", "occupancy", "opening", "smoke", "moisture", "vibration")
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2018 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.mqtt.alarmpanel.network
+
+import android.os.Handler
+import android.os.Looper
+import android.os.SystemClock
+import com.thanksmister.iot.mqtt.alarmpanel.utils.AlarmUtils.Companion.ALARM_TYPE
+import com.thanksmister.iot.mqtt.alarmpanel.utils.ComponentUtils.IMAGE_CAPTURE_TYPE
+import com.thanksmister.iot.mqtt.alarmpanel.utils.ComponentUtils.NOTIFICATION_TYPE
+import com.thanksmister.iot.mqtt.alarmpanel.utils.ComponentUtils.SENSOR_TYPE
+import timber.log.Timber
+import java.util.*
+
+/**
+ * Hands messages from the MQTT threads to the main thread through a bounded ring buffer.
+ * The main looper is posted to once per drain rather than once per message, and each
+ * drain delivers a limited number of messages so a burst of retained messages after a
+ * reconnect is spread over several frames instead of blocking the keypad.
+ *
+ * What happens to a message when the buffer is full, or when an older message for the
+ * same topic is still waiting, depends on the [Policy] for its type.
+ */
+class MQTTDispatcher(looper: Looper, private val consumer: Consumer) {
+
+    interface Consumer {
+        fun onMessage(id: String, topic: String, type: String, payload: String)
+    }
+
+    enum class Policy {
+        // keep every message, the oldest waiting message is dropped when full
+        DROP_OLDEST,
+        // keep what is already waiting, the new message is dropped when full
+        DROP_NEWEST,
+        // only the latest message per topic is kept, and a payload equal to the
+        // last one delivered for that topic is not delivered again
+        COALESCE
+    }
+
+    class Metrics(val depth: Int, val maxDepth: Int, val delivered: Long, val dropped: Long,
+                  val coalesced: Long, val lastLag: Long, val maxLag: Long)
+
+    private class Entry(val id: String, val topic: String, val type: String, var payload: String, val enqueuedAt: Long) {
+        val key: String = type + ":" + topic
+    }
+
+    private val handler = Handler(looper)
+    private val policies = HashMap<String, Policy>()
+    private val ring = arrayOfNulls<Entry>(CAPACITY)
+    private var head = 0
+    private var count = 0
+    private val pending = HashMap<String, Entry>()
+    private val lastDelivered = HashMap<String, String>()
+    private var drainPosted = false
+
+    private var maxDepth = 0
+    private var delivered: Long = 0
+    private var dropped: Long = 0
+    private var coalesced: Long = 0
+    private var lastLag: Long = 0
+    private var maxLag: Long = 0
+
+    private val drainRunnable = Runnable { drain() }
+
+    init {
+        policies[ALARM_TYPE] = Policy.COALESCE
+        policies[SENSOR_TYPE] = Policy.COALESCE
+        policies[NOTIFICATION_TYPE] = Policy.DROP_OLDEST
+        policies[IMAGE_CAPTURE_TYPE] = Policy.DROP_NEWEST
+    }
+
+    @Synchronized
+    fun setPolicy(type: String, policy: Policy) {
+        policies[type] = policy
+    }
+
+    /**
+     * Queue a message for delivery on the looper thread, safe to call from any thread.
+     */
+    @Synchronized
+    fun dispatch(id: String, topic: String, type: String, payload: String) {
+        val policy = policies[type] ?: Policy.DROP_OLDEST
+        if (policy == Policy.COALESCE) {
+            val waiting = pending[type + ":" + topic]
+            if (waiting != null) {
+                waiting.payload = payload
+                coalesced++
+                return
+            }
+        }
+        if (count == CAPACITY) {
+            if (policy == Policy.DROP_NEWEST) {
+                dropped++
+                Timber.w("Dispatch queue full, dropping $type message on $topic")
+                return
+            }
+            val oldest = poll()
+            dropped++
+            Timber.w("Dispatch queue full, dropping ${oldest?.type} message on ${oldest?.topic}")
+        }
+        val entry = Entry(id, topic, type, payload, SystemClock.elapsedRealtime())
+        ring[(head + count) % CAPACITY] = entry
+        count++
+        if (policy == Policy.COALESCE) {
+            pending[entry.key] = entry
+        }
+        maxDepth = Math.max(maxDepth, count)
+        if (!drainPosted) {
+            drainPosted = true
+            handler.post(drainRunnable)
+        }
+    }
+
+    @Synchronized
+    fun getMetrics(): Metrics {
+        return Metrics(count, maxDepth, delivered, dropped, coalesced, lastLag, maxLag)
+    }
+
+    /**
+     * Drop anything still waiting, used when the connection is torn down.
+     */
+    @Synchronized
+    fun clear() {
+        handler.removeCallbacks(drainRunnable)
+        drainPosted = false
+        while (count > 0) {
+            poll()
+        }
+        lastDelivered.clear()
+    }
+
+    /**
+     * Forget the last delivered payloads, used once connected so the retained states the
+     * broker sends on subscribe reach the consumer even if they haven't changed.
+     */
+    @Synchronized
+    fun resetDelivered() {
+        lastDelivered.clear()
+    }
+
+    private fun drain() {
+        val batch = ArrayList<Entry>(MAX_DRAIN)
+        synchronized(this) {
+            while (count > 0 && batch.size < MAX_DRAIN) {
+                val entry = poll()!!
+                if (policies[entry.type] == Policy.COALESCE) {
+                    if (lastDelivered[entry.key] == entry.payload) {
+                        coalesced++
+                        continue
+                    }
+                    lastDelivered[entry.key] = entry.payload
+                }
+                batch.add(entry)
+            }
+            val now = SystemClock.elapsedRealtime()
+            for (entry in batch) {
+                lastLag = now - entry.enqueuedAt
+                maxLag = Math.max(maxLag, lastLag)
+            }
+            delivered += batch.size
+            drainPosted = count > 0
+            if (drainPosted) {
+                // yield to the looper so input and drawing can run between batches
+                handler.post(drainRunnable)
+            }
+            if (lastLag > LAG_WARNING) {
+                Timber.w("Dispatch lag: $lastLag ms depth: $count dropped: $dropped coalesced: $coalesced")
+            }
+        }
+        for (entry in batch) {
+            consumer.onMessage(entry.id, entry.topic, entry.type, entry.payload)
+        }
+    }
+
+    private fun poll(): Entry? {
+        if (count == 0) return null
+        val entry = ring[head]
+        ring[head] = null
+        head = (head + 1) % CAPACITY
+        count--
+        if (entry != null && pending[entry.key] === entry) {
+            pending.remove(entry.key)
+        }
+        return entry
+    }
+
+    companion object {
+        const val CAPACITY = 64
+        const val MAX_DRAIN = 8 // messages delivered per looper message
+        const val LAG_WARNING: Long = 1000
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2018 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.thanksmister.iot.mqtt.alarmpanel.network
+
+import com.thanksmister.iot.mqtt.alarmpanel.utils.AlarmUtils
+import com.thanksmister.iot.mqtt.alarmpanel.utils.AlarmUtils.Companion.ALARM_TYPE
+
+/**
+ * Classifies message payloads once the [MQTTTopicRouter] has matched the topic. Alarm
+ * states are matched on the raw payload bytes and handed on as the interned [AlarmUtils]
+ * constants, only the other message types are decoded to strings.
+ */
+class MQTTMessageIngest {
+
+    private val states: Array<String> = AlarmUtils.supportedStates.toTypedArray()
+    private val stateBytes: Array<ByteArray> = Array(states.size) { states[it].toByteArray(Charsets.UTF_8) }
+
+    /**
+     * Get the payload to hand on for a message of the given type.
+     * @return the payload or null if the message is not one we keep.
+     */
+    fun decode(type: String, bytes: ByteArray): String? {
+        return if (type == ALARM_TYPE) {
+            matchState(bytes)
+        } else {
+            String(bytes, Charsets.UTF_8)
+        }
+    }
+
+    /**
+     * Match the payload bytes against the supported alarm states without decoding.
+     * @return the interned state constant or null if the payload is not a supported state.
+     */
+    private fun matchState(bytes: ByteArray): String? {
+        for (i in stateBytes.indices) {
+            if (stateBytes[i].contentEquals(bytes)) {
+                return states[i]
+            }
+        }
+        return null
+    }
+}
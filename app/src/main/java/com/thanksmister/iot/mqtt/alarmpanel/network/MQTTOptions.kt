@@ -69,9 +69,26 @@ constructor(private val sharedPreferences: DPreference) {
         topics.add(sharedPreferences.getPrefString(PREF_STATE_TOPIC, ALARM_STATE_TOPIC))
         topics.add(sharedPreferences.getPrefString(PREF_NOTIFICATION_TOPIC, NOTIFICATION_STATE_TOPIC))
         topics.add(sharedPreferences.getPrefString(PREF_CAPTURE_TOPIC, IMAGE_CAPTURE_STATE_TOPIC))
+        topics.addAll(getSensorTopics())
+        if (!TextUtils.isEmpty(getWeatherTopic())) {
+            topics.add(getWeatherTopic())
+        }
         return topics.toArray(arrayOf<String>())
     }
 
+    /**
+     * Sensor topic filters, stored as a comma separated list and may use the `+` and `#` wildcards.
+     */
+    fun getSensorTopics(): List<String> {
+        return getSensorTopicsValue().split(",")
+                .map { it.trim() }
+                .filter { it.isNotEmpty() }
+    }
+
+    fun getSensorTopicsValue(): String {
+        return sharedPreferences.getPrefString(PREF_SENSOR_TOPICS, "")
+    }
+
     fun getNotificationTopic(): String? {
         return sharedPreferences.getPrefString(PREF_NOTIFICATION_TOPIC, NOTIFICATION_STATE_TOPIC)
     }
@@ -80,6 +97,34 @@ constructor(private val sharedPreferences: DPreference) {
         return sharedPreferences.getPrefString(PREF_CAPTURE_TOPIC, IMAGE_CAPTURE_STATE_TOPIC)
     }
 
+    /**
+     * QoS levels for the subscribed topics, in the same order as [getStateTopics].
+     */
+    fun getStateTopicsQos(): IntArray {
+        val sensorTopics = getSensorTopics()
+        val weatherTopics = if (TextUtils.isEmpty(getWeatherTopic())) 0 else 1
+        val qos = IntArray(3 + sensorTopics.size + weatherTopics) { getStateQos() }
+        qos[1] = getNotificationQos()
+        qos[2] = getCaptureQos()
+        return qos
+    }
+
+    fun getStateQos(): Int {
+        return sharedPreferences.getPrefInt(PREF_STATE_QOS, DEFAULT_STATE_QOS)
+    }
+
+    fun getNotificationQos(): Int {
+        return sharedPreferences.getPrefInt(PREF_NOTIFICATION_QOS, DEFAULT_NOTIFICATION_QOS)
+    }
+
+    fun getCaptureQos(): Int {
+        return sharedPreferences.getPrefInt(PREF_CAPTURE_QOS, DEFAULT_CAPTURE_QOS)
+    }
+
+    fun getCommandQos(): Int {
+        return sharedPreferences.getPrefInt(PREF_COMMAND_QOS, DEFAULT_COMMAND_QOS)
+    }
+
     fun getUsername(): String {
         return sharedPreferences.getPrefString(PREF_USERNAME, "")
     }
@@ -96,6 +141,10 @@ constructor(private val sharedPreferences: DPreference) {
         return sharedPreferences.getPrefBoolean(PREF_TLS_CONNECTION, false)
     }
 
+    fun getDiscovery(): Boolean {
+        return sharedPreferences.getPrefBoolean(PREF_DISCOVERY, false)
+    }
+
     fun setUsername(value: String) {
         this.sharedPreferences.setPrefString(PREF_USERNAME, value)
         setOptionsUpdated(true)
@@ -126,6 +175,27 @@ constructor(private val sharedPreferences: DPreference) {
         setOptionsUpdated(true)
     }
 
+    /**
+     * Topic Home Assistant publishes the weather to, not subscribed if empty.
+     */
+    fun getWeatherTopic(): String {
+        return sharedPreferences.getPrefString(PREF_WEATHER_TOPIC, "")
+    }
+
+    /**
+     * Topic camera motion is published to, nothing is published if empty.
+     */
+    fun getMotionTopic(): String {
+        return sharedPreferences.getPrefString(PREF_MOTION_TOPIC, "")
+    }
+
+    /**
+     * Base topic sensor zones are published under as <topic>/<zone>, nothing is published if empty.
+     */
+    fun getSensorPublishTopic(): String {
+        return sharedPreferences.getPrefString(PREF_SENSOR_PUBLISH_TOPIC, "")
+    }
+
     fun setAlarmTopic(value: String) {
         this.sharedPreferences.setPrefString(PREF_STATE_TOPIC, value)
         setOptionsUpdated(true)
@@ -141,11 +211,55 @@ constructor(private val sharedPreferences: DPreference) {
         setOptionsUpdated(true)
     }
 
+    fun setSensorTopics(value: String) {
+        this.sharedPreferences.setPrefString(PREF_SENSOR_TOPICS, value)
+        setOptionsUpdated(true)
+    }
+
+    fun setWeatherTopic(value: String) {
+        this.sharedPreferences.setPrefString(PREF_WEATHER_TOPIC, value)
+        setOptionsUpdated(true)
+    }
+
+    fun setMotionTopic(value: String) {
+        // only published to, so the connection doesn't need to be updated
+        this.sharedPreferences.setPrefString(PREF_MOTION_TOPIC, value)
+    }
+
+    fun setSensorPublishTopic(value: String) {
+        this.sharedPreferences.setPrefString(PREF_SENSOR_PUBLISH_TOPIC, value)
+    }
+
     fun setTlsConnection(value: Boolean) {
         this.sharedPreferences.setPrefBoolean(PREF_TLS_CONNECTION, value)
         setOptionsUpdated(true)
     }
 
+    fun setDiscovery(value: Boolean) {
+        this.sharedPreferences.setPrefBoolean(PREF_DISCOVERY, value)
+        setOptionsUpdated(true)
+    }
+
+    fun setStateQos(value: Int) {
+        this.sharedPreferences.setPrefInt(PREF_STATE_QOS, value)
+        setOptionsUpdated(true)
+    }
+
+    fun setNotificationQos(value: Int) {
+        this.sharedPreferences.setPrefInt(PREF_NOTIFICATION_QOS, value)
+        setOptionsUpdated(true)
+    }
+
+    fun setCaptureQos(value: Int) {
+        this.sharedPreferences.setPrefInt(PREF_CAPTURE_QOS, value)
+        setOptionsUpdated(true)
+    }
+
+    fun setCommandQos(value: Int) {
+        this.sharedPreferences.setPrefInt(PREF_COMMAND_QOS, value)
+        setOptionsUpdated(true)
+    }
+
     fun setOptionsUpdated(value: Boolean) {
         this.sharedPreferences.setPrefBoolean(MQTT_OPTIONS_UPDATED, value)
     }
@@ -160,6 +274,11 @@ constructor(private val sharedPreferences: DPreference) {
         sharedPreferences.removePreference(PREF_STATE_TOPIC)
         sharedPreferences.removePreference(PREF_NOTIFICATION_TOPIC)
         sharedPreferences.removePreference(PREF_CAPTURE_TOPIC)
+        sharedPreferences.removePreference(PREF_SENSOR_TOPICS)
+        sharedPreferences.removePreference(PREF_MOTION_TOPIC)
+        sharedPreferences.removePreference(PREF_WEATHER_TOPIC)
+        sharedPreferences.removePreference(PREF_SENSOR_PUBLISH_TOPIC)
+        sharedPreferences.removePreference(PREF_DISCOVERY)
         sharedPreferences.removePreference(PREF_USERNAME)
         sharedPreferences.removePreference(PREF_COMMAND_TOPIC)
         sharedPreferences.removePreference(PREF_TLS_CONNECTION)
@@ -168,6 +287,10 @@ constructor(private val sharedPreferences: DPreference) {
         sharedPreferences.removePreference(PREF_CLIENT_ID)
         sharedPreferences.removePreference(PREF_PASSWORD)
         sharedPreferences.removePreference(PREF_BROKER)
+        sharedPreferences.removePreference(PREF_STATE_QOS)
+        sharedPreferences.removePreference(PREF_NOTIFICATION_QOS)
+        sharedPreferences.removePreference(PREF_CAPTURE_QOS)
+        sharedPreferences.removePreference(PREF_COMMAND_QOS)
         sharedPreferences.removePreference(MQTT_OPTIONS_UPDATED)
     }
 
@@ -178,6 +301,11 @@ constructor(private val sharedPreferences: DPreference) {
         const val PREF_STATE_TOPIC = "pref_alarm_topic"
         const val PREF_NOTIFICATION_TOPIC = "pref_notification_topic"
         const val PREF_CAPTURE_TOPIC = "pref_capture_topic"
+        const val PREF_SENSOR_TOPICS = "pref_sensor_topics"
+        const val PREF_MOTION_TOPIC = "pref_motion_topic"
+        const val PREF_WEATHER_TOPIC = "pref_weather_topic"
+        const val PREF_SENSOR_PUBLISH_TOPIC = "pref_sensor_publish_topic"
+        const val PREF_DISCOVERY = "pref_discovery"
         const val PREF_USERNAME = "pref_username"
         const val PREF_COMMAND_TOPIC = "pref_command_topic"
         const val PREF_TLS_CONNECTION = "pref_tls_connection"
@@ -185,6 +313,15 @@ constructor(private val sharedPreferences: DPreference) {
         const val PREF_PORT = "pref_port"
         const val PREF_CLIENT_ID = "pref_client_id"
         const val PREF_BROKER = "pref_broker"
+        const val PREF_STATE_QOS = "pref_state_qos"
+        const val PREF_NOTIFICATION_QOS = "pref_notification_qos"
+        const val PREF_CAPTURE_QOS = "pref_capture_qos"
+        const val PREF_COMMAND_QOS = "pref_command_qos"
         const val MQTT_OPTIONS_UPDATED = "pref_mqtt_options_updated"
+        // state is retained by the broker and commands must be acknowledged, notifications stay cheap
+        const val DEFAULT_STATE_QOS = 1
+        const val DEFAULT_NOTIFICATION_QOS = 0
+        const val DEFAULT_CAPTURE_QOS = 0
+        const val DEFAULT_COMMAND_QOS = 1
     }
 }
\ No newline at end of file
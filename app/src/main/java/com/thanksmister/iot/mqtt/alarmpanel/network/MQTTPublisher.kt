@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2018 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.mqtt.alarmpanel.network
+
+import android.os.SystemClock
+import timber.log.Timber
+import java.util.*
+import java.util.concurrent.ScheduledThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+
+/**
+ * Publishes state from local peripherals over the existing MQTT connection. Messages are
+ * collected and sent in batches a few times a second, a newer value for a topic replaces
+ * one still waiting so a fast changing value is only sent at the batch rate. Only
+ * [MAX_INFLIGHT] messages are left unacknowledged at a time, which keeps part of the
+ * client's inflight window free for alarm commands, and more are sent as the broker
+ * acknowledges them. When too many topics are waiting new messages are refused so the
+ * caller knows to back off. Messages wait while disconnected and are sent once the
+ * connection is back, unless they get too old first.
+ */
+class MQTTPublisher(private val sender: Sender) {
+
+    interface Sender {
+        /**
+         * Hand the message to the client, returns one of the SEND_ results. The callback
+         * is only called for [SEND_OK], once the broker acknowledges the message or it fails.
+         */
+        fun send(topic: String, payload: String, qos: Int, retain: Boolean, callback: DeliveryCallback): Int
+    }
+
+    interface DeliveryCallback {
+        fun onComplete(delivered: Boolean)
+    }
+
+    interface DeliveryListener {
+        // called once the broker acknowledges the message, on a client thread
+        fun onDelivered()
+    }
+
+    class Metrics(val pending: Int, val published: Long, val coalesced: Long, val rejected: Long,
+                  val failed: Long, val expired: Long, val publishRate: Float, val inflight: Int)
+
+    private class Message(val topic: String, var payload: String, var qos: Int, var retain: Boolean, var createdAt: Long,
+                          var listener: DeliveryListener?)
+
+    private val pending = LinkedHashMap<String, Message>()
+    private val inflight = HashSet<Message>()
+    private val executor = ScheduledThreadPoolExecutor(1)
+    private var flushScheduled = false
+
+    private var published: Long = 0
+    private var coalesced: Long = 0
+    private var rejected: Long = 0
+    private var failed: Long = 0
+    private var expired: Long = 0
+    private var rateWindowStart: Long = 0
+    private var rateWindowCount = 0
+    private var publishRate = 0f
+
+    init {
+        executor.setKeepAliveTime(30, TimeUnit.SECONDS)
+        executor.allowCoreThreadTimeOut(true)
+    }
+
+    /**
+     * Queue a message for the next batch, returns false if it was refused because too
+     * many topics are already waiting. The listener is only told if this value is the one
+     * delivered, not when a newer value for the topic replaces it first.
+     */
+    @Synchronized
+    fun publish(topic: String, payload: String, qos: Int, retain: Boolean, listener: DeliveryListener? = null): Boolean {
+        val waiting = pending[topic]
+        if (waiting != null) {
+            waiting.payload = payload
+            waiting.qos = Math.max(waiting.qos, qos)
+            waiting.retain = retain
+            waiting.createdAt = SystemClock.elapsedRealtime()
+            waiting.listener = listener
+            coalesced++
+            return true
+        }
+        if (pending.size >= MAX_PENDING) {
+            rejected++
+            Timber.w("Publish queue full, refusing message for $topic")
+            return false
+        }
+        pending[topic] = Message(topic, payload, qos, retain, SystemClock.elapsedRealtime(), listener)
+        scheduleFlush(FLUSH_INTERVAL)
+        return true
+    }
+
+    /**
+     * Send what is waiting without waiting for the next batch, called once connected.
+     * Messages sent over an earlier connection no longer hold up the window, an ack
+     * arriving for one later is still counted.
+     */
+    @Synchronized
+    fun flushNow() {
+        inflight.clear()
+        if (pending.isNotEmpty()) {
+            flushScheduled = true
+            executor.execute { flush() }
+        }
+    }
+
+    @Synchronized
+    fun getMetrics(): Metrics {
+        return Metrics(pending.size, published, coalesced, rejected, failed, expired, publishRate, inflight.size)
+    }
+
+    @Synchronized
+    fun clear() {
+        pending.clear()
+        inflight.clear()
+    }
+
+    private fun scheduleFlush(delay: Long) {
+        if (!flushScheduled) {
+            flushScheduled = true
+            executor.schedule({ flush() }, delay, TimeUnit.MILLISECONDS)
+        }
+    }
+
+    private fun flush() {
+        val batch = ArrayList<Message>()
+        synchronized(this) {
+            flushScheduled = false
+            val now = SystemClock.elapsedRealtime()
+            val room = Math.min(MAX_BATCH, MAX_INFLIGHT - inflight.size)
+            val iterator = pending.values.iterator()
+            while (iterator.hasNext()) {
+                val message = iterator.next()
+                if (now - message.createdAt > MAX_AGE) {
+                    iterator.remove()
+                    expired++
+                } else if (batch.size < room) {
+                    iterator.remove()
+                    batch.add(message)
+                    inflight.add(message)
+                }
+            }
+        }
+        var retryDelay: Long = 0
+        for (message in batch) {
+            if (retryDelay > 0) {
+                synchronized(this) {
+                    inflight.remove(message)
+                }
+                requeue(message)
+                continue
+            }
+            val result = sender.send(message.topic, message.payload, message.qos, message.retain, getCallback(message))
+            if (result == SEND_OK) {
+                continue
+            }
+            synchronized(this) {
+                inflight.remove(message)
+            }
+            when (result) {
+                SEND_BAD_TOPIC -> {
+                    // sending it again won't help, drop it without holding up the rest
+                    Timber.e("Dropping message for invalid topic ${message.topic}")
+                    synchronized(this) {
+                        failed++
+                    }
+                }
+                SEND_INFLIGHT_FULL -> {
+                    // the client window is taken, more are sent as acks come in
+                    requeue(message)
+                    retryDelay = FLUSH_INTERVAL
+                }
+                else -> {
+                    requeue(message)
+                    retryDelay = RETRY_INTERVAL
+                }
+            }
+        }
+        synchronized(this) {
+            // with the window full the next ack schedules the flush
+            if (pending.isNotEmpty() && inflight.size < MAX_INFLIGHT) {
+                scheduleFlush(if (retryDelay > 0) retryDelay else FLUSH_INTERVAL)
+            }
+        }
+    }
+
+    private fun getCallback(message: Message): DeliveryCallback {
+        // the message can be requeued and updated, keep what was actually sent
+        val listener = message.listener
+        return object : DeliveryCallback {
+            override fun onComplete(delivered: Boolean) {
+                if (delivered) {
+                    listener?.onDelivered()
+                }
+                synchronized(this@MQTTPublisher) {
+                    val tracked = inflight.remove(message)
+                    if (delivered) {
+                        published++
+                        updateRate(1)
+                    } else {
+                        failed++
+                        if (tracked) {
+                            requeue(message)
+                        }
+                    }
+                    if (pending.isNotEmpty()) {
+                        scheduleFlush(if (delivered) FLUSH_INTERVAL else RETRY_INTERVAL)
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Put an unsent message back unless a newer value arrived for its topic meanwhile.
+     */
+    @Synchronized
+    private fun requeue(message: Message) {
+        if (!pending.containsKey(message.topic)) {
+            pending[message.topic] = message
+        }
+    }
+
+    private fun updateRate(sent: Int) {
+        val now = SystemClock.elapsedRealtime()
+        if (rateWindowStart == 0L) {
+            rateWindowStart = now
+        }
+        rateWindowCount += sent
+        if (now - rateWindowStart >= RATE_WINDOW) {
+            publishRate = rateWindowCount * 1000f / (now - rateWindowStart)
+            rateWindowStart = now
+            rateWindowCount = 0
+        }
+    }
+
+    companion object {
+        const val FLUSH_INTERVAL: Long = 250
+        const val RETRY_INTERVAL: Long = 5000
+        const val MAX_BATCH = 20 // messages sent per flush
+        const val MAX_INFLIGHT = 6 // unacknowledged messages, the client allows 10 and commands need room
+        const val MAX_PENDING = 100 // topics waiting before messages are refused
+        const val MAX_AGE: Long = 60 * 1000 // state older than this isn't worth sending
+        const val RATE_WINDOW: Long = 10 * 1000
+
+        const val SEND_OK = 0
+        const val SEND_NOT_CONNECTED = 1
+        const val SEND_INFLIGHT_FULL = 2
+        const val SEND_BAD_TOPIC = 3
+    }
+}
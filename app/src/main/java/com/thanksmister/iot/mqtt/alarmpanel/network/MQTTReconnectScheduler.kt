@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2018 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.mqtt.alarmpanel.network
+
+import timber.log.Timber
+import java.util.*
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+
+/**
+ * Schedules broker connection attempts with exponential backoff and full jitter, so
+ * a fleet of panels doesn't reconnect in lock step after a broker restart. Only one
+ * attempt is ever scheduled or in flight, the caller reports the outcome back with
+ * [onConnected] or [onConnectFailed].
+ */
+class MQTTReconnectScheduler(private val connector: Runnable) {
+
+    private val executor = Executors.newSingleThreadScheduledExecutor()
+    private val random = Random()
+    private var pendingAttempt: ScheduledFuture<*>? = null
+    private var inFlight = false
+    private var closed = false
+    private var disconnectedTime: Long = 0
+
+    // the number of attempts made since the last successful connect
+    var attempts: Int = 0
+        private set
+
+    // time from losing the connection to being connected again
+    var lastConnectLatency: Long = 0
+        private set
+
+    /**
+     * Schedule the next attempt using the backoff for the current attempt count.
+     */
+    @Synchronized
+    fun schedule() {
+        scheduleAttempt(getBackoffDelay(attempts))
+    }
+
+    /**
+     * Reset the backoff and attempt shortly, used when we know the network is back.
+     */
+    @Synchronized
+    fun reconnectNow() {
+        attempts = 0
+        pendingAttempt?.cancel(false)
+        pendingAttempt = null
+        scheduleAttempt(random.nextInt(MIN_DELAY.toInt()).toLong())
+    }
+
+    @Synchronized
+    fun onConnected() {
+        inFlight = false
+        if (disconnectedTime > 0) {
+            lastConnectLatency = System.currentTimeMillis() - disconnectedTime
+        }
+        Timber.i("Connected after $attempts attempts in $lastConnectLatency ms")
+        attempts = 0
+        disconnectedTime = 0
+    }
+
+    @Synchronized
+    fun onConnectFailed() {
+        inFlight = false
+        schedule()
+    }
+
+    /**
+     * The attempt was dropped without trying, e.g. the client has gone away, so clear
+     * the in-flight state without scheduling another one.
+     */
+    @Synchronized
+    fun onAttemptSkipped() {
+        inFlight = false
+    }
+
+    @Synchronized
+    fun close() {
+        closed = true
+        pendingAttempt?.cancel(false)
+        pendingAttempt = null
+        executor.shutdownNow()
+    }
+
+    private fun scheduleAttempt(delay: Long) {
+        if (closed || inFlight || (pendingAttempt != null && !pendingAttempt!!.isDone)) {
+            return
+        }
+        if (disconnectedTime == 0L) {
+            disconnectedTime = System.currentTimeMillis()
+        }
+        Timber.d("Reconnect attempt ${attempts + 1} in $delay ms")
+        pendingAttempt = executor.schedule({ attempt() }, delay, TimeUnit.MILLISECONDS)
+    }
+
+    private fun attempt() {
+        synchronized(this) {
+            if (closed) return
+            inFlight = true
+            attempts++
+        }
+        try {
+            connector.run()
+        } catch (e: Exception) {
+            Timber.e("Reconnect attempt failed: " + e.message)
+            onConnectFailed()
+        }
+    }
+
+    @Synchronized
+    fun isInFlight(): Boolean {
+        return inFlight
+    }
+
+    private fun getBackoffDelay(attempt: Int): Long {
+        val ceiling = Math.min(MAX_DELAY, BASE_DELAY shl Math.min(attempt, MAX_SHIFT))
+        return MIN_DELAY + (random.nextDouble() * (ceiling - MIN_DELAY)).toLong()
+    }
+
+    companion object {
+        const val MIN_DELAY: Long = 1000
+        const val BASE_DELAY: Long = 2000
+        const val MAX_DELAY: Long = 5 * 60 * 1000
+        const val MAX_SHIFT = 10
+    }
+}
@@ -1,8 +1,9 @@
 package com.thanksmister.iot.mqtt.alarmpanel.network
 
 
-import android.R.id.message
 import android.content.Context
+import android.os.Handler
+import android.os.Looper
 import android.text.TextUtils
 import com.thanksmister.iot.mqtt.alarmpanel.R
 import com.thanksmister.iot.mqtt.alarmpanel.utils.MqttUtils
@@ -14,6 +15,7 @@ import java.io.IOException
 import java.security.GeneralSecurityException
 import java.security.NoSuchAlgorithmException
 import java.security.spec.InvalidKeySpecException
+import java.util.*
 import java.util.concurrent.atomic.AtomicBoolean
 
 class MQTTService(private var context: Context, options: MQTTOptions,
@@ -21,7 +23,17 @@ class MQTTService(private var context: Context, options: MQTTOptions,
 
     private var mqttClient: MqttAndroidClient? = null
     private var mqttOptions: MQTTOptions? = null
+    private var mqttRouter: MQTTTopicRouter? = null
     private val mReady = AtomicBoolean(false)
+    private val commandQueue = MQTTCommandQueue(context)
+    private val replaying = AtomicBoolean(false)
+    private var connectOptions: MqttConnectOptions? = null
+    private var reconnectScheduler: MQTTReconnectScheduler? = null
+    private val retryHandler = Handler(Looper.getMainLooper())
+    private val retryRunnable = Runnable { replayCommands() }
+    private val random = Random()
+    private var commandFailures = 0
+    private var hasConnected = false
 
     init {
         initialize(options)
@@ -41,9 +53,10 @@ class MQTTService(private var context: Context, options: MQTTOptions,
     }
 
     interface MqttManagerListener {
-        fun subscriptionMessage(id: String, topic: String, payload: String)
+        fun subscriptionMessage(id: String, topic: String, type: String, payload: String)
         fun handleMqttException(errorMessage: String)
         fun handleMqttDisconnected()
+        fun handleMqttConnected()
     }
 
     override fun isReady(): Boolean {
@@ -53,6 +66,10 @@ class MQTTService(private var context: Context, options: MQTTOptions,
     @Throws(MqttException::class)
     override fun close() {
         Timber.d("close")
+        reconnectScheduler?.close()
+        reconnectScheduler = null
+        retryHandler.removeCallbacks(retryRunnable)
+        commandFailures = 0
         if (mqttClient != null) {
             // TODO IllegalArgumentException: Invalid ClientHandle and no dialog showing sound stuck
             mqttClient?.setCallback(null)
@@ -62,45 +79,99 @@ class MQTTService(private var context: Context, options: MQTTOptions,
             mqttClient = null
             listener = null
             mqttOptions = null
+            mqttRouter?.close()
+            mqttRouter = null
+            connectOptions = null
         }
         mReady.set(false)
+        replaying.set(false)
     }
 
+    /**
+     * Commands always go through the [MQTTCommandQueue], they are sent in order once
+     * connected and only removed from the queue when the broker acknowledges them.
+     */
     override fun publish(payload: String) {
-        try {
-            if (isReady) {
-                if (mqttClient != null && !mqttClient!!.isConnected) {
-                    // if for some reason the mqtt client has disconnected, we should try to connect
-                    // it again.
-                    try {
-                        initializeMqttClient()
-                    } catch (e: MqttException) {
-                        if (listener != null) {
-                            listener!!.handleMqttException("Could not initialize MQTT: " + e.message)
-                        }
-                    } catch (e: IOException) {
-                        if (listener != null) {
-                            listener!!.handleMqttException("Could not initialize MQTT: " + e.message)
-                        }
-                    } catch (e: GeneralSecurityException) {
-                        if (listener != null) {
-                            listener!!.handleMqttException("Could not initialize MQTT: " + e.message)
-                        }
-                    }
+        val topic = mqttOptions?.getCommandTopic() ?: return
+        Timber.d("Publishing: " + payload)
+        Timber.d("Command Topic: " + topic)
+        commandQueue.enqueue(topic, payload, mqttOptions?.getCommandQos() ?: MQTT_QOS)
+        if (isReady) {
+            if (mqttClient != null && !mqttClient!!.isConnected) {
+                // queued commands are replayed once the scheduled reconnect completes
+                reconnectScheduler?.schedule()
+            } else {
+                replayCommands()
+            }
+        }
+    }
 
+    /**
+     * Hand a message straight to the client, used by the [MQTTPublisher] which does its own
+     * queueing. Unlike commands these are not persisted. Returns one of the
+     * MQTTPublisher SEND_ results, the callback is told when the broker acknowledges it.
+     */
+    override fun publish(topic: String, payload: String, qos: Int, retain: Boolean,
+                         callback: MQTTPublisher.DeliveryCallback): Int {
+        val client = mqttClient
+        if (!isReady || client == null || !client.isConnected) {
+            return MQTTPublisher.SEND_NOT_CONNECTED
+        }
+        try {
+            client.publish(topic, payload.toByteArray(), qos, retain, null, object : IMqttActionListener {
+                override fun onSuccess(asyncActionToken: IMqttToken) {
+                    callback.onComplete(true)
                 }
-                Timber.d("Publishing: " + payload)
-                Timber.d("Command Topic: " + mqttOptions?.getCommandTopic())
-                val mqttMessage = MqttMessage()
-                mqttMessage.payload = payload.toByteArray()
-                sendMessage(mqttOptions?.getCommandTopic(), mqttMessage)
-            }
+                override fun onFailure(asyncActionToken: IMqttToken, exception: Throwable?) {
+                    Timber.e("Message to $topic not delivered: " + exception?.message)
+                    callback.onComplete(false)
+                }
+            })
+            return MQTTPublisher.SEND_OK
         } catch (e: MqttException) {
-            if (listener != null) {
-                listener!!.handleMqttException("Exception while subscribing: " + e.message)
+            if (e.reasonCode == MqttException.REASON_CODE_MAX_INFLIGHT.toInt()) {
+                return MQTTPublisher.SEND_INFLIGHT_FULL
             }
+            Timber.e("Unable to publish to $topic: " + e.message)
+            return MQTTPublisher.SEND_NOT_CONNECTED
+        } catch (e: IllegalArgumentException) {
+            Timber.e("Invalid topic $topic: " + e.message)
+            return MQTTPublisher.SEND_BAD_TOPIC
         }
+    }
+
+    /**
+     * Reconnect soon without waiting out the current backoff, for example when the
+     * network comes back. Does nothing if we are already connected.
+     */
+    override fun reconnect() {
+        if (isReady && mqttClient != null && !mqttClient!!.isConnected) {
+            reconnectScheduler?.reconnectNow()
+        }
+    }
+
+    /**
+     * Send the queued commands one at a time, the next command is only sent after the
+     * previous one is acknowledged so a reconnect doesn't flood the broker.
+     */
+    private fun replayCommands() {
+        if (replaying.compareAndSet(false, true)) {
+            Timber.d("Replaying queued commands: " + commandQueue.size())
+            sendNextCommand()
+        }
+    }
 
+    private fun sendNextCommand() {
+        val command = commandQueue.peek()
+        if (command == null || !isReady || mqttClient == null || !mqttClient!!.isConnected) {
+            replaying.set(false)
+            return
+        }
+        val mqttMessage = MqttMessage()
+        mqttMessage.payload = command.payload.toByteArray()
+        mqttMessage.qos = command.qos
+        mqttMessage.isRetained = SHOULD_RETAIN
+        sendMessage(command, mqttMessage)
     }
 
     /**
@@ -111,6 +182,7 @@ class MQTTService(private var context: Context, options: MQTTOptions,
         Timber.d("initialize")
         try {
             mqttOptions = options
+            mqttRouter = MQTTTopicRouter(options, listener)
             Timber.i("Service Configuration:")
             Timber.i("Client ID: " + mqttOptions!!.getClientId())
             Timber.i("Username: " + mqttOptions!!.getUsername())
@@ -150,47 +222,37 @@ class MQTTService(private var context: Context, options: MQTTOptions,
         Timber.d("initializeMqttClient")
         try {
             mqttClient = MqttAndroidClient(context, mqttOptions?.brokerUrl, mqttOptions!!.getClientId())
+            mqttClient!!.setCallback(object : MqttCallbackExtended {
+                override fun connectComplete(reconnect: Boolean, serverURI: String?) {
+                    Timber.d("connectComplete reconnect: $reconnect")
+                }
+                override fun connectionLost(cause: Throwable?) {
+                    Timber.w("connectionLost: " + cause?.message)
+                    replaying.set(false)
+                    reconnectScheduler?.schedule()
+                }
+                override fun messageArrived(topic: String?, message: MqttMessage?) {
+                    // messages are delivered to the subscription listeners
+                }
+                override fun deliveryComplete(token: IMqttDeliveryToken?) {
+                }
+            })
             val options = MqttConnectOptions()
             if (!TextUtils.isEmpty(mqttOptions!!.getUsername()) && !TextUtils.isEmpty(mqttOptions!!.getPassword())) {
                 options.userName = mqttOptions!!.getUsername()
                 options.password = mqttOptions!!.getPassword().toCharArray()
             }
 
-            options.isAutomaticReconnect = true
+            // reconnects are driven by the MQTTReconnectScheduler so they back off with jitter
+            options.isAutomaticReconnect = false
             options.isCleanSession = false
+            options.maxInflight = MAX_INFLIGHT
+            connectOptions = options
 
-            try {
-                mqttClient!!.connect(options, null, object : IMqttActionListener {
-                    override fun onSuccess(asyncActionToken: IMqttToken) {
-                        val disconnectedBufferOptions = DisconnectedBufferOptions()
-                        disconnectedBufferOptions.isBufferEnabled = true
-                        disconnectedBufferOptions.bufferSize = 100
-                        disconnectedBufferOptions.isPersistBuffer = false
-                        disconnectedBufferOptions.isDeleteOldestMessages = false
-                        if (mqttClient != null) {
-                            mqttClient!!.setBufferOpts(disconnectedBufferOptions)
-                        }
-                        if (mqttOptions != null) {
-                            subscribeToTopics(mqttOptions!!.getStateTopics())
-                        }
-                    }
-
-                    override fun onFailure(asyncActionToken: IMqttToken, exception: Throwable) {
-                        if (listener != null && mqttOptions != null) {
-                            Timber.e("Failed to connect to: " + mqttOptions!!.brokerUrl + " exception: " + exception)
-                            //listener!!.handleMqttException("Error connecting to the broker and port: " + mqttOptions!!.brokerUrl)
-                            listener!!.handleMqttException(context.getString(R.string.error_mqtt_subscription))
-                        }
-                    }
-                })
-            } catch (e: MqttException) {
-                Timber.e(e, "MqttException")
-                if (listener != null) {
-                    listener?.handleMqttException("" + e.message)
-                }
-            }
+            reconnectScheduler = MQTTReconnectScheduler(Runnable { connect() })
 
             mReady.set(true)
+            reconnectScheduler!!.reconnectNow()
         } catch (e: IllegalArgumentException) {
             e.printStackTrace()
         } catch (e: NullPointerException) {
@@ -203,29 +265,105 @@ class MQTTService(private var context: Context, options: MQTTOptions,
         }
     }
 
-    @Throws(MqttException::class)
-    private fun sendMessage(mqttTopic: String?, mqttMessage: MqttMessage) {
+    /**
+     * Connect the existing client, on failure the next attempt is left to the
+     * [MQTTReconnectScheduler]. Only a failed initial connect is reported to the
+     * listener so a broker outage doesn't stack up error dialogs.
+     */
+    private fun connect() {
+        val client = mqttClient
+        val options = connectOptions
+        if (client == null || options == null) {
+            reconnectScheduler?.onAttemptSkipped()
+            return
+        }
+        if (client.isConnected) {
+            reconnectScheduler?.onConnected()
+            return
+        }
+        try {
+            client.connect(options, null, object : IMqttActionListener {
+                override fun onSuccess(asyncActionToken: IMqttToken) {
+                    hasConnected = true
+                    reconnectScheduler?.onConnected()
+                    // commands are buffered by the MQTTCommandQueue while disconnected
+                    val disconnectedBufferOptions = DisconnectedBufferOptions()
+                    disconnectedBufferOptions.isBufferEnabled = false
+                    if (mqttClient != null) {
+                        mqttClient!!.setBufferOpts(disconnectedBufferOptions)
+                    }
+                    if (mqttOptions != null) {
+                        subscribeToTopics(mqttOptions!!.getStateTopics())
+                    }
+                    replayCommands()
+                    listener?.handleMqttConnected()
+                }
+
+                override fun onFailure(asyncActionToken: IMqttToken, exception: Throwable) {
+                    val attempts = reconnectScheduler?.attempts ?: 0
+                    Timber.e("Failed to connect to: " + mqttOptions?.brokerUrl + " attempt: $attempts exception: " + exception)
+                    if (listener != null && mqttOptions != null && !hasConnected && attempts <= 1) {
+                        //listener!!.handleMqttException("Error connecting to the broker and port: " + mqttOptions!!.brokerUrl)
+                        listener!!.handleMqttException(context.getString(R.string.error_mqtt_subscription))
+                    }
+                    reconnectScheduler?.onConnectFailed()
+                }
+            })
+        } catch (e: MqttException) {
+            Timber.e(e, "MqttException")
+            reconnectScheduler?.onConnectFailed()
+        }
+    }
+
+    private fun sendMessage(command: MQTTCommandQueue.Command, mqttMessage: MqttMessage) {
         Timber.d("sendMessage")
-        if (isReady && mqttClient != null && mqttClient!!.isConnected) {
-            try {
-                mqttClient!!.publish(mqttTopic, mqttMessage)
-                Timber.d("Command Topic: $mqttTopic Payload: $message")
-            } catch (e: MqttException) {
-                Timber.e("Error Sending Command: " + e.message)
-                e.printStackTrace()
-                if (listener != null) {
-                    //listener!!.handleMqttException("Error Sending Command: " + e.message)
-                    listener!!.handleMqttException(context.getString(R.string.error_mqtt_subscription))
+        try {
+            val startTime = System.currentTimeMillis()
+            mqttClient!!.publish(command.topic, mqttMessage, null, object : IMqttActionListener {
+                override fun onSuccess(asyncActionToken: IMqttToken) {
+                    Timber.d("Command delivered qos: ${mqttMessage.qos} in ${System.currentTimeMillis() - startTime} ms")
+                    commandFailures = 0
+                    commandQueue.remove(command)
+                    sendNextCommand()
+                }
+                override fun onFailure(asyncActionToken: IMqttToken, exception: Throwable?) {
+                    // the command stays queued, sent again after a backoff or on the next connect
+                    Timber.e("Command not delivered: " + exception?.message)
+                    scheduleCommandRetry()
                 }
+            })
+            Timber.d("Command Topic: ${command.topic} Payload: ${command.payload}")
+        } catch (e: MqttException) {
+            Timber.e("Error Sending Command: " + e.message)
+            e.printStackTrace()
+            val firstFailure = commandFailures == 0
+            scheduleCommandRetry()
+            if (listener != null && firstFailure) {
+                //listener!!.handleMqttException("Error Sending Command: " + e.message)
+                listener!!.handleMqttException(context.getString(R.string.error_mqtt_command))
             }
         }
     }
 
+    /**
+     * Try the queued commands again after a backoff with jitter, so a command that failed
+     * while still connected doesn't wait for the next button press or reconnect.
+     */
+    private fun scheduleCommandRetry() {
+        replaying.set(false)
+        val ceiling = Math.min(MAX_RETRY_DELAY, RETRY_DELAY shl Math.min(commandFailures, MAX_RETRY_SHIFT))
+        val delay = ceiling / 2 + (random.nextDouble() * ceiling / 2).toLong()
+        commandFailures++
+        Timber.d("Retrying commands in $delay ms")
+        retryHandler.removeCallbacks(retryRunnable)
+        retryHandler.postDelayed(retryRunnable, delay)
+    }
+
     private fun subscribeToTopics(topicFilters: Array<String>?) {
         Timber.d("Subscribe to Topics: " + StringUtils.convertArrayToString(topicFilters))
         try {
-            if (isReady && mqttClient != null) {
-                mqttClient!!.subscribe(topicFilters, MqttUtils.getQos(topicFilters!!.size), MqttUtils.getMqttMessageListeners(topicFilters.size, listener))
+            if (isReady && mqttClient != null && mqttRouter != null && mqttOptions != null) {
+                mqttClient!!.subscribe(topicFilters, mqttOptions!!.getStateTopicsQos(), MqttUtils.getMqttMessageListeners(topicFilters!!.size, mqttRouter!!))
             }
         } catch (e: MqttException) {
             if (listener != null) {
@@ -239,6 +377,15 @@ class MQTTService(private var context: Context, options: MQTTOptions,
         private val SHOULD_RETAIN = false
 
         // Use mqttQos=1 (at least once delivery), mqttQos=0 (at most once delivery) also supported.
-        private val MQTT_QOS = 0
+        // Only used when no command QoS is configured, see MQTTOptions.getCommandQos().
+        private val MQTT_QOS = MQTTOptions.DEFAULT_COMMAND_QOS
+
+        // Upper bound on unacknowledged QoS 1/2 messages, further publishes fail fast
+        private val MAX_INFLIGHT = 10
+
+        // backoff for commands that failed while connected
+        private const val RETRY_DELAY: Long = 1000
+        private const val MAX_RETRY_DELAY: Long = 60 * 1000
+        private const val MAX_RETRY_SHIFT = 6
     }
 }
\ No newline at end of file
@@ -10,6 +10,10 @@ public interface MQTTServiceInterface {
 
     void publish(String payload);
 
+    int publish(String topic, String payload, int qos, boolean retain, MQTTPublisher.DeliveryCallback callback);
+
+    void reconnect();
+
     void reconfigure(Context context, MQTTOptions options, MQTTService.MqttManagerListener listener);
     
     void close() throws MqttException;
@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2018 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.mqtt.alarmpanel.network
+
+import com.thanksmister.iot.mqtt.alarmpanel.BuildConfig
+import com.thanksmister.iot.mqtt.alarmpanel.utils.AlarmUtils.Companion.ALARM_TYPE
+import com.thanksmister.iot.mqtt.alarmpanel.utils.ComponentUtils.IMAGE_CAPTURE_TYPE
+import com.thanksmister.iot.mqtt.alarmpanel.utils.ComponentUtils.NOTIFICATION_TYPE
+import com.thanksmister.iot.mqtt.alarmpanel.utils.ComponentUtils.SENSOR_TYPE
+import com.thanksmister.iot.mqtt.alarmpanel.utils.ComponentUtils.WEATHER_TYPE
+import org.eclipse.paho.client.mqttv3.MqttMessage
+import timber.log.Timber
+import java.util.*
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.RejectedExecutionHandler
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+
+/**
+ * First stage for messages coming off the Paho callback thread. The subscribed topic
+ * filters, including `+` and `#` wildcards, are compiled once from the [MQTTOptions]
+ * into a topic trie so each message is matched level by level instead of scanning
+ * every filter. Each message type has its own single thread executor with a bounded
+ * queue, a flood of sensor updates can't hold up an alarm state change.
+ *
+ * Payloads are classified by the [MQTTMessageIngest] on the route's thread. Retained
+ * notifications and capture requests are dropped so reconnecting doesn't replay old events.
+ */
+class MQTTTopicRouter(options: MQTTOptions, private val listener: MQTTService.MqttManagerListener?) {
+
+    private class Route(val type: String, val priority: Int, capacity: Int) {
+        val executor = ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                ArrayBlockingQueue<Runnable>(capacity),
+                ThreadFactory { runnable -> Thread(runnable, "mqtt-route-" + type.toLowerCase()) },
+                RejectedExecutionHandler { runnable, executor ->
+                    // the oldest message is the least useful one to deliver late
+                    if (!executor.isShutdown) {
+                        Timber.w("Route $type is full, dropping oldest message")
+                        executor.queue.poll()
+                        executor.execute(runnable)
+                    }
+                })
+    }
+
+    private class Node {
+        val children = HashMap<String, Node>()
+        var singleLevel: Node? = null
+        var route: Route? = null
+        var multiLevel: Route? = null
+    }
+
+    private val root = Node()
+    private val routes = ArrayList<Route>()
+    private val ingest = MQTTMessageIngest()
+
+    init {
+        // when filters overlap the higher priority route wins, so a notification topic
+        // that is also covered by a sensor wildcard is still treated as a notification
+        val sensor = addRoute(SENSOR_TYPE, 0, SENSOR_QUEUE_SIZE)
+        val weather = addRoute(WEATHER_TYPE, 1, WEATHER_QUEUE_SIZE)
+        val alarm = addRoute(ALARM_TYPE, 2, STATE_QUEUE_SIZE)
+        val capture = addRoute(IMAGE_CAPTURE_TYPE, 3, CAPTURE_QUEUE_SIZE)
+        val notification = addRoute(NOTIFICATION_TYPE, 4, NOTIFICATION_QUEUE_SIZE)
+        for (filter in options.getSensorTopics()) {
+            addFilter(filter, sensor)
+        }
+        if (options.getWeatherTopic().isNotEmpty()) {
+            addFilter(options.getWeatherTopic(), weather)
+        }
+        addFilter(options.getStateTopic(), alarm)
+        addFilter(options.getCameraTopic(), capture)
+        addFilter(options.getNotificationTopic(), notification)
+    }
+
+    private fun addRoute(type: String, priority: Int, capacity: Int): Route {
+        val route = Route(type, priority, capacity)
+        routes.add(route)
+        return route
+    }
+
+    private fun addFilter(filter: String?, route: Route) {
+        if (filter == null || !isValidFilter(filter)) {
+            Timber.w("Ignoring invalid topic filter: $filter")
+            return
+        }
+        var node = root
+        for (level in filter.split(TOPIC_SEPARATOR)) {
+            if (level == MULTI_LEVEL_WILDCARD) {
+                node.multiLevel = higher(node.multiLevel, route)
+                return
+            }
+            node = if (level == SINGLE_LEVEL_WILDCARD) {
+                if (node.singleLevel == null) {
+                    node.singleLevel = Node()
+                }
+                node.singleLevel!!
+            } else {
+                node.children.getOrPut(level.intern()) { Node() }
+            }
+        }
+        node.route = higher(node.route, route)
+    }
+
+    /**
+     * Match the topic and hand the message to the route's executor.
+     * @return true if the message was accepted by a route.
+     */
+    fun route(topic: String, message: MqttMessage): Boolean {
+        val route = match(root, topic, 0, null)
+        if (route == null) {
+            if (BuildConfig.DEBUG) {
+                Timber.w("Dropping message for unknown topic: $topic")
+            }
+            return false
+        }
+        // a retained state is the current state, but retained notifications or capture
+        // requests are stale events replayed by the broker on every subscribe
+        if (message.isRetained && (route.type == NOTIFICATION_TYPE || route.type == IMAGE_CAPTURE_TYPE)) {
+            if (BuildConfig.DEBUG) {
+                Timber.d("Dropping retained message on topic: $topic")
+            }
+            return false
+        }
+        if (listener == null) {
+            return false
+        }
+        route.executor.execute { deliver(route, topic, message) }
+        return true
+    }
+
+    fun close() {
+        for (route in routes) {
+            route.executor.shutdownNow()
+        }
+    }
+
+    private fun deliver(route: Route, topic: String, message: MqttMessage) {
+        val bytes = message.payload
+        val payload = ingest.decode(route.type, bytes)
+        if (payload == null) {
+            Timber.w("Dropping unsupported state on topic: $topic length: ${bytes.size}")
+            return
+        }
+        listener?.subscriptionMessage(message.id.toString(), topic, route.type, payload)
+    }
+
+    /**
+     * Walk the trie one topic level at a time, following the exact level and the `+`
+     * branch, and picking up any `#` routes on the way down.
+     */
+    private fun match(node: Node, topic: String, start: Int, best: Route?): Route? {
+        // wildcards at the first level don't match system topics such as $SYS
+        val wildcards = start > 0 || !topic.startsWith("$")
+        var result = if (wildcards) higher(best, node.multiLevel) else best
+        if (start > topic.length) {
+            return higher(result, node.route)
+        }
+        var end = topic.indexOf(TOPIC_SEPARATOR, start)
+        if (end < 0) {
+            end = topic.length
+        }
+        val child = node.children[topic.substring(start, end)]
+        if (child != null) {
+            result = match(child, topic, end + 1, result)
+        }
+        val singleLevel = node.singleLevel
+        if (singleLevel != null && wildcards) {
+            result = match(singleLevel, topic, end + 1, result)
+        }
+        return result
+    }
+
+    private fun higher(current: Route?, route: Route?): Route? {
+        if (current == null) return route
+        if (route == null) return current
+        return if (route.priority > current.priority) route else current
+    }
+
+    companion object {
+        const val TOPIC_SEPARATOR = '/'
+        const val SINGLE_LEVEL_WILDCARD = "+"
+        const val MULTI_LEVEL_WILDCARD = "#"
+
+        const val STATE_QUEUE_SIZE = 32
+        const val NOTIFICATION_QUEUE_SIZE = 16
+        const val CAPTURE_QUEUE_SIZE = 4
+        const val SENSOR_QUEUE_SIZE = 128
+        const val WEATHER_QUEUE_SIZE = 2
+
+        /**
+         * A filter is valid if `+` only appears as a whole level and `#` only as the whole last level.
+         */
+        @JvmStatic
+        fun isValidFilter(filter: String): Boolean {
+            if (filter.isEmpty()) {
+                return false
+            }
+            val levels = filter.split(TOPIC_SEPARATOR)
+            for (i in levels.indices) {
+                val level = levels[i]
+                if (level.contains(MULTI_LEVEL_WILDCARD) && (level != MULTI_LEVEL_WILDCARD || i != levels.size - 1)) {
+                    return false
+                }
+                if (level.contains(SINGLE_LEVEL_WILDCARD) && level != SINGLE_LEVEL_WILDCARD) {
+                    return false
+                }
+            }
+            return true
+        }
+    }
+}
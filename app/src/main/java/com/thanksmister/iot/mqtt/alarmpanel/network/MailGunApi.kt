@@ -18,44 +18,31 @@
 
 package com.thanksmister.iot.mqtt.alarmpanel.network
 
-import android.graphics.Bitmap
 import android.util.Base64
 
-import com.facebook.stetho.okhttp3.StethoInterceptor
 import com.google.gson.Gson
 import com.google.gson.GsonBuilder
 
 import org.json.JSONObject
 
-import java.io.ByteArrayOutputStream
-import java.util.concurrent.TimeUnit
+import java.io.File
 
 import okhttp3.MediaType
 import okhttp3.OkHttpClient
 
 import okhttp3.RequestBody
 import okhttp3.Response
-import okhttp3.logging.HttpLoggingInterceptor
 import retrofit2.Call
 import retrofit2.Retrofit
 import retrofit2.converter.gson.GsonConverterFactory
 
-class MailGunApi(domain: String, private val apiKey: String) {
+class MailGunApi(httpClient: OkHttpClient, domain: String, private val apiKey: String) {
 
     private val service: MailGunRequest
 
     init {
 
         val base_url = "https://api.mailgun.net/v3/$domain/"
-        val logging = HttpLoggingInterceptor()
-        logging.level = HttpLoggingInterceptor.Level.HEADERS
-
-        val httpClient = OkHttpClient.Builder()
-                .addInterceptor(logging)
-                .connectTimeout(10000, TimeUnit.SECONDS)
-                .readTimeout(10000, TimeUnit.SECONDS)
-                .addNetworkInterceptor(StethoInterceptor())
-                .build()
 
         val gson = GsonBuilder()
                 .create()
@@ -69,21 +56,18 @@ class MailGunApi(domain: String, private val apiKey: String) {
         service = retrofit.create(MailGunRequest::class.java)
     }
 
-    fun emailImages(from: String, to: String, subject: String, text: String, bitmap: Bitmap): Call<JSONObject> {
+    fun emailImages(from: String, to: String, subject: String, text: String, image: File,
+                    listener: StreamingRequestBody.ProgressListener?): Call<JSONObject> {
         val clientIdAndSecret = "api" + ":" + apiKey
         val authorizationHeader = BASIC + " " + Base64.encodeToString(clientIdAndSecret.toByteArray(), Base64.NO_WRAP)
         val service = service
 
-        val stream = ByteArrayOutputStream()
-        bitmap.compress(Bitmap.CompressFormat.PNG, 75, stream)
-        val byteArray = stream.toByteArray()
-
         return service.sendMailAttachment(authorizationHeader,
                 RequestBody.create(MediaType.parse("text/plain"), from),
                 RequestBody.create(MediaType.parse("text/plain"), to),
                 RequestBody.create(MediaType.parse("text/plain"), subject),
                 RequestBody.create(MediaType.parse("text/plain"), text),
-                RequestBody.create(MediaType.parse("image/*"), byteArray))
+                StreamingRequestBody(image, MediaType.parse("image/jpeg"), listener))
     }
 
     companion object {
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2018 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.mqtt.alarmpanel.network
+
+import okhttp3.MediaType
+import okhttp3.RequestBody
+import okio.BufferedSink
+import okio.Okio
+import java.io.File
+
+/**
+ * Request body that streams a file to the socket in small segments instead of reading
+ * it into memory first, reporting progress after each segment is flushed. The body can
+ * be written more than once, each write starts over from the beginning of the file.
+ */
+class StreamingRequestBody(private val file: File, private val contentType: MediaType?,
+                           private val listener: ProgressListener?) : RequestBody() {
+
+    interface ProgressListener {
+        fun onProgress(bytesWritten: Long, contentLength: Long)
+    }
+
+    override fun contentType(): MediaType? {
+        return contentType
+    }
+
+    override fun contentLength(): Long {
+        return file.length()
+    }
+
+    override fun writeTo(sink: BufferedSink) {
+        val length = contentLength()
+        var written: Long = 0
+        Okio.source(file).use { source ->
+            while (true) {
+                val read = source.read(sink.buffer(), SEGMENT_SIZE)
+                if (read == -1L) break
+                sink.flush()
+                written += read
+                listener?.onProgress(written, length)
+            }
+        }
+    }
+
+    companion object {
+        const val SEGMENT_SIZE: Long = 8 * 1024
+    }
+}
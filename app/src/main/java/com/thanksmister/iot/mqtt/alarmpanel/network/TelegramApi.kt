@@ -18,40 +18,27 @@
 
 package com.thanksmister.iot.mqtt.alarmpanel.network
 
-import android.graphics.Bitmap
 import android.util.Base64
-import com.facebook.stetho.okhttp3.StethoInterceptor
 import com.google.gson.GsonBuilder
 import okhttp3.MediaType
 import okhttp3.OkHttpClient
 import okhttp3.RequestBody
-import okhttp3.logging.HttpLoggingInterceptor
 import org.json.JSONObject
 import retrofit2.Call
 import retrofit2.Retrofit
 import retrofit2.converter.gson.GsonConverterFactory
 import timber.log.Timber
-import java.util.concurrent.TimeUnit
 import okhttp3.MultipartBody
-import java.io.ByteArrayOutputStream
+import java.io.File
 
 
-class TelegramApi(private val token: String, private val chat_id:String) {
+class TelegramApi(httpClient: OkHttpClient, private val token: String, private val chat_id:String) {
 
     private val service: TelegramRequest
 
     init {
 
         val base_url = "https://api.telegram.org/bot$token/"
-        val logging = HttpLoggingInterceptor()
-        logging.level = HttpLoggingInterceptor.Level.HEADERS
-
-        val httpClient = OkHttpClient.Builder()
-                .addInterceptor(logging)
-                .connectTimeout(10000, TimeUnit.SECONDS)
-                .readTimeout(10000, TimeUnit.SECONDS)
-                .addNetworkInterceptor(StethoInterceptor())
-                .build()
 
         val gson = GsonBuilder()
                 .create()
@@ -65,13 +52,10 @@ class TelegramApi(private val token: String, private val chat_id:String) {
         service = retrofit.create(TelegramRequest::class.java)
     }
 
-    fun sendMessage(text: String, bitmap:Bitmap): Call<JSONObject> {
-        val stream = ByteArrayOutputStream()
-        bitmap.compress(Bitmap.CompressFormat.PNG, 75, stream)
-        val byteArray = stream.toByteArray()
+    fun sendMessage(text: String, image: File, listener: StreamingRequestBody.ProgressListener?): Call<JSONObject> {
         return service.sendPhoto(
                 RequestBody.create(MediaType.parse("multipart/form-data"), chat_id),
                 RequestBody.create(MediaType.parse("multipart/form-data"), text),
-                RequestBody.create(MediaType.parse("multipart/form-data"), byteArray))
+                StreamingRequestBody(image, MediaType.parse("image/jpeg"), listener))
     }
 }
\ No newline at end of file
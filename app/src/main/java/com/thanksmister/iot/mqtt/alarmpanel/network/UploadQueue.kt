@@ -0,0 +1,371 @@
+/*
+ * Copyright (c) 2018 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.mqtt.alarmpanel.network
+
+import android.content.Context
+import android.util.AtomicFile
+import com.google.gson.Gson
+import com.google.gson.reflect.TypeToken
+import com.thanksmister.iot.mqtt.alarmpanel.R
+import com.thanksmister.iot.mqtt.alarmpanel.ui.Configuration
+import com.thanksmister.iot.mqtt.alarmpanel.utils.JpegImage
+import okhttp3.OkHttpClient
+import timber.log.Timber
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.security.MessageDigest
+import java.util.*
+import java.util.concurrent.Executors
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+
+/**
+ * Disk backed queue of captured images waiting to be sent to Telegram and MailGun. The
+ * image is written to disk once and each destination gets its own job, so one channel
+ * being down doesn't hold up the other. Failures back off per destination with jitter,
+ * and jobs survive network drops and process restarts. The same image is never queued
+ * twice for a destination. Images are streamed from disk as they are sent, so an upload
+ * never holds the whole image in memory.
+ */
+class UploadQueue(context: Context, private val configuration: Configuration, private val httpClient: OkHttpClient) {
+
+    class Job(val destination: String, val hash: String, val createdAt: Long, var attempts: Int)
+
+    class Stats(val depth: Int, val succeeded: Long, val failed: Long, val dropped: Long,
+                val lastLatency: Long, val averageLatency: Long, val bytesSent: Long,
+                val bytesInFlight: Long, val lastThroughput: Long)
+
+    private class Backoff(var failures: Int = 0, var nextAttemptTime: Long = 0)
+
+    private val context = context.applicationContext
+    private val directory = File(this.context.filesDir, DIRECTORY_NAME)
+    private val file = AtomicFile(File(this.context.filesDir, FILE_NAME))
+    private val jobs = ArrayList<Job>()
+    private val running = HashSet<Job>()
+    private val backoff = HashMap<String, Backoff>()
+    private val progress = HashMap<Job, Long>()
+    private val random = Random()
+    private val scheduler = Executors.newSingleThreadScheduledExecutor()
+    private val workers = ThreadPoolExecutor(MAX_WORKERS, MAX_WORKERS, 30, TimeUnit.SECONDS, LinkedBlockingQueue<Runnable>())
+
+    private var telegramApi: TelegramApi? = null
+    private var telegramCredentials: String? = null
+    private var mailGunApi: MailGunApi? = null
+    private var mailGunCredentials: String? = null
+
+    private var succeeded: Long = 0
+    private var failed: Long = 0
+    private var dropped: Long = 0
+    private var lastLatency: Long = 0
+    private var totalLatency: Long = 0
+    private var bytesSent: Long = 0
+    private var lastThroughput: Long = 0 // bytes per second
+
+    init {
+        workers.allowCoreThreadTimeOut(true)
+        scheduler.execute {
+            load()
+            pump()
+        }
+    }
+
+    /**
+     * Queue the image for every destination with credentials, the image is written to
+     * disk on the queue thread and released once written.
+     */
+    fun enqueue(image: JpegImage) {
+        val destinations = ArrayList<String>()
+        if (configuration.hasMailGunCredentials()) {
+            destinations.add(DESTINATION_MAILGUN)
+        }
+        if (configuration.hasTelegramCredentials()) {
+            destinations.add(DESTINATION_TELEGRAM)
+        }
+        if (destinations.isEmpty()) {
+            image.release()
+            return
+        }
+        scheduler.execute {
+            try {
+                val hash = hash(image)
+                if (writeImage(hash, image)) {
+                    addJobs(hash, destinations)
+                }
+            } finally {
+                image.release()
+            }
+            pump()
+        }
+    }
+
+    @Synchronized
+    fun getStats(): Stats {
+        val average = if (succeeded > 0) totalLatency / succeeded else 0
+        return Stats(jobs.size, succeeded, failed, dropped, lastLatency, average, bytesSent,
+                progress.values.sum(), lastThroughput)
+    }
+
+    @Synchronized
+    private fun addJobs(hash: String, destinations: List<String>) {
+        val now = System.currentTimeMillis()
+        for (destination in destinations) {
+            if (jobs.any { it.hash == hash && it.destination == destination }) {
+                Timber.d("Image $hash already queued for $destination")
+                continue
+            }
+            while (jobs.size >= MAX_JOBS) {
+                val oldest = jobs.firstOrNull { !running.contains(it) } ?: break
+                Timber.w("Upload queue full, dropping: ${oldest.hash} ${oldest.destination}")
+                removeJob(oldest)
+                dropped++
+            }
+            jobs.add(Job(destination, hash, now, 0))
+        }
+        save()
+    }
+
+    /**
+     * Start every job that is due and whose destination isn't backing off, then wake up
+     * again when the next destination is due. Only runs on the scheduler thread.
+     */
+    private fun pump() {
+        var nextWake = Long.MAX_VALUE
+        synchronized(this) {
+            val now = System.currentTimeMillis()
+            val expired = jobs.filter { !running.contains(it) && now - it.createdAt > MAX_JOB_AGE }
+            for (job in expired) {
+                Timber.w("Upload expired: ${job.hash} ${job.destination}")
+                removeJob(job)
+                dropped++
+            }
+            if (expired.isNotEmpty()) {
+                save()
+            }
+            for (job in jobs) {
+                if (running.size >= MAX_WORKERS) break
+                if (running.contains(job) || running.any { it.destination == job.destination }) continue
+                val state = backoff[job.destination]
+                if (state != null && state.nextAttemptTime > now) {
+                    nextWake = Math.min(nextWake, state.nextAttemptTime - now)
+                    continue
+                }
+                running.add(job)
+                workers.execute { upload(job) }
+            }
+        }
+        if (nextWake != Long.MAX_VALUE) {
+            scheduler.schedule({ pump() }, nextWake, TimeUnit.MILLISECONDS)
+        }
+    }
+
+    private fun upload(job: Job) {
+        val startTime = System.currentTimeMillis()
+        val image = File(directory, job.hash + IMAGE_EXTENSION)
+        var result = RESULT_RETRY
+        try {
+            result = send(job, image, object : StreamingRequestBody.ProgressListener {
+                override fun onProgress(bytesWritten: Long, contentLength: Long) {
+                    onUploadProgress(job, bytesWritten)
+                }
+            })
+        } catch (e: Exception) {
+            Timber.e("Upload to ${job.destination} failed: " + e.message)
+        }
+        onUploadResult(job, result, System.currentTimeMillis() - startTime, image.length())
+        scheduler.execute { pump() }
+    }
+
+    private fun send(job: Job, image: File, listener: StreamingRequestBody.ProgressListener): Int {
+        if (!image.exists()) {
+            Timber.w("Upload image missing: " + image.name)
+            return RESULT_DROP
+        }
+        val response = when (job.destination) {
+            DESTINATION_TELEGRAM -> {
+                if (!configuration.hasTelegramCredentials()) return RESULT_DROP
+                getTelegramApi().sendMessage(context.getString(R.string.text_alarm_disabled_email), image, listener).execute()
+            }
+            DESTINATION_MAILGUN -> {
+                if (!configuration.hasMailGunCredentials()) return RESULT_DROP
+                val api = getMailGunApi()
+                val from = context.getString(R.string.text_camera_image_subject, "<" + configuration.getMailFrom() + ">")
+                api.emailImages(from, configuration.getMailTo()!!,
+                        context.getString(R.string.text_alarm_disabled_email_subject),
+                        context.getString(R.string.text_alarm_disabled_email), image, listener).execute()
+            }
+            else -> return RESULT_DROP
+        }
+        return when {
+            response.isSuccessful -> RESULT_SUCCESS
+            // bad credentials or a rejected request won't succeed by trying again
+            response.code() in 400..499 && response.code() != 408 && response.code() != 429 -> {
+                Timber.e("Upload to ${job.destination} rejected: " + response.code())
+                RESULT_DROP
+            }
+            else -> RESULT_RETRY
+        }
+    }
+
+    /**
+     * The APIs are only rebuilt when the credentials change, they all share [httpClient].
+     */
+    @Synchronized
+    private fun getTelegramApi(): TelegramApi {
+        val credentials = configuration.telegramToken + ":" + configuration.telegramChatId
+        if (telegramApi == null || credentials != telegramCredentials) {
+            telegramApi = TelegramApi(httpClient, configuration.telegramToken, configuration.telegramChatId)
+            telegramCredentials = credentials
+        }
+        return telegramApi!!
+    }
+
+    @Synchronized
+    private fun getMailGunApi(): MailGunApi {
+        val credentials = configuration.getMailGunUrl() + ":" + configuration.getMailGunApiKey()
+        if (mailGunApi == null || credentials != mailGunCredentials) {
+            mailGunApi = MailGunApi(httpClient, configuration.getMailGunUrl()!!, configuration.getMailGunApiKey()!!)
+            mailGunCredentials = credentials
+        }
+        return mailGunApi!!
+    }
+
+    @Synchronized
+    private fun onUploadProgress(job: Job, bytesWritten: Long) {
+        progress[job] = bytesWritten
+    }
+
+    @Synchronized
+    private fun onUploadResult(job: Job, result: Int, latency: Long, size: Long) {
+        running.remove(job)
+        progress.remove(job)
+        when (result) {
+            RESULT_SUCCESS -> {
+                succeeded++
+                lastLatency = latency
+                totalLatency += latency
+                bytesSent += size
+                lastThroughput = size * 1000 / Math.max(latency, 1L)
+                backoff.remove(job.destination)
+                removeJob(job)
+                Timber.d("Uploaded $size bytes to ${job.destination} in $latency ms, queued: ${jobs.size}")
+            }
+            RESULT_DROP -> {
+                failed++
+                removeJob(job)
+            }
+            else -> {
+                failed++
+                job.attempts++
+                val state = backoff.getOrPut(job.destination) { Backoff() }
+                state.failures++
+                val ceiling = Math.min(MAX_RETRY_DELAY, BASE_RETRY_DELAY shl Math.min(state.failures, 10))
+                state.nextAttemptTime = System.currentTimeMillis() + ceiling / 2 + (random.nextDouble() * ceiling / 2).toLong()
+                if (job.attempts >= MAX_ATTEMPTS) {
+                    Timber.w("Giving up on upload to ${job.destination} after ${job.attempts} attempts")
+                    removeJob(job)
+                    dropped++
+                }
+            }
+        }
+        save()
+    }
+
+    private fun removeJob(job: Job) {
+        jobs.remove(job)
+        if (jobs.none { it.hash == job.hash }) {
+            File(directory, job.hash + IMAGE_EXTENSION).delete()
+        }
+    }
+
+    private fun hash(image: JpegImage): String {
+        val digest = MessageDigest.getInstance("SHA-1")
+        digest.update(image.data, image.offset, image.length)
+        val builder = StringBuilder()
+        for (b in digest.digest()) {
+            builder.append(String.format("%02x", b))
+        }
+        return builder.toString()
+    }
+
+    private fun writeImage(hash: String, image: JpegImage): Boolean {
+        val imageFile = File(directory, hash + IMAGE_EXTENSION)
+        if (imageFile.exists()) {
+            return true
+        }
+        directory.mkdirs()
+        val temp = File(directory, hash + TEMP_EXTENSION)
+        try {
+            FileOutputStream(temp).use { it.write(image.data, image.offset, image.length) }
+            return temp.renameTo(imageFile)
+        } catch (e: IOException) {
+            Timber.e("Unable to write upload image: " + e.message)
+            temp.delete()
+            return false
+        }
+    }
+
+    @Synchronized
+    private fun load() {
+        try {
+            val json = String(file.readFully(), Charsets.UTF_8)
+            val saved: List<Job>? = Gson().fromJson(json, object : TypeToken<List<Job>>() {}.type)
+            if (saved != null) {
+                jobs.addAll(saved.filter { File(directory, it.hash + IMAGE_EXTENSION).exists() })
+            }
+            Timber.d("Loaded queued uploads: " + jobs.size)
+        } catch (e: IOException) {
+            // nothing queued yet
+        } catch (e: Exception) {
+            Timber.e("Unable to read upload queue: " + e.message)
+            file.delete()
+        }
+    }
+
+    private fun save() {
+        var stream: FileOutputStream? = null
+        try {
+            stream = file.startWrite()
+            stream.write(Gson().toJson(jobs).toByteArray(Charsets.UTF_8))
+            file.finishWrite(stream)
+        } catch (e: IOException) {
+            Timber.e("Unable to write upload queue: " + e.message)
+            if (stream != null) {
+                file.failWrite(stream)
+            }
+        }
+    }
+
+    companion object {
+        const val DESTINATION_TELEGRAM = "telegram"
+        const val DESTINATION_MAILGUN = "mailgun"
+        const val FILE_NAME = "uploads.json"
+        const val DIRECTORY_NAME = "uploads"
+        const val IMAGE_EXTENSION = ".jpg"
+        const val TEMP_EXTENSION = ".tmp"
+        const val MAX_WORKERS = 2 // one upload per destination at a time
+        const val MAX_JOBS = 50
+        const val MAX_ATTEMPTS = 20
+        const val MAX_JOB_AGE: Long = 24 * 60 * 60 * 1000
+        const val BASE_RETRY_DELAY: Long = 5000
+        const val MAX_RETRY_DELAY: Long = 10 * 60 * 1000
+        private const val RESULT_SUCCESS = 0
+        private const val RESULT_RETRY = 1
+        private const val RESULT_DROP = 2
+    }
+}
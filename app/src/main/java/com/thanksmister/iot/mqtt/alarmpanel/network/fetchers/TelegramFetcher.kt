@@ -1,30 +0,0 @@
-/*
- * Copyright (c) 2017. ThanksMister LLC
- *
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- *
- * http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software distributed
- * under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-
-package com.thanksmister.iot.mqtt.alarmpanel.network.fetchers
-
-import android.graphics.Bitmap
-import com.thanksmister.iot.mqtt.alarmpanel.network.MailGunApi
-import com.thanksmister.iot.mqtt.alarmpanel.network.TelegramApi
-import org.json.JSONObject
-import retrofit2.Call
-
-class TelegramFetcher(private val networkApi: TelegramApi) {
-
-    fun sendMessage(text: String, bitmap: Bitmap): Call<JSONObject> {
-        return networkApi.sendMessage(text, bitmap)
-    }
-}
\ No newline at end of file
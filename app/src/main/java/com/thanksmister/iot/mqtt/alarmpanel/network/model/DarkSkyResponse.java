@@ -1,93 +0,0 @@
-/*
- * <!--
- *   ~ Copyright (c) 2017. ThanksMister LLC
- *   ~
- *   ~ Licensed under the Apache License, Version 2.0 (the "License");
- *   ~ you may not use this file except in compliance with the License. 
- *   ~ You may obtain a copy of the License at
- *   ~
- *   ~ http://www.apache.org/licenses/LICENSE-2.0
- *   ~
- *   ~ Unless required by applicable law or agreed to in writing, software distributed 
- *   ~ under the License is distributed on an "AS IS" BASIS, 
- *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
- *   ~ See the License for the specific language governing permissions and 
- *   ~ limitations under the License.
- *   -->
- */
-
-package com.thanksmister.iot.mqtt.alarmpanel.network.model;
-
-import com.google.gson.annotations.Expose;
-import com.google.gson.annotations.SerializedName;
-
-// http://www.jsonschema2pojo.org/
-public class DarkSkyResponse {
-
-    @SerializedName("latitude")
-    @Expose
-    private Double latitude;
-    @SerializedName("longitude")
-    @Expose
-    private Double longitude;
-    @SerializedName("timezone")
-    @Expose
-    private String timezone;
-    @SerializedName("offset")
-    @Expose
-    private Double offset;
-    @SerializedName("currently")
-    @Expose
-    private Currently currently;
-    @SerializedName("daily")
-    @Expose
-    private Daily daily;
-
-    public Double getLatitude() {
-        return latitude;
-    }
-
-    public void setLatitude(Double latitude) {
-        this.latitude = latitude;
-    }
-
-    public Double getLongitude() {
-        return longitude;
-    }
-
-    public void setLongitude(Double longitude) {
-        this.longitude = longitude;
-    }
-
-    public String getTimezone() {
-        return timezone;
-    }
-
-    public void setTimezone(String timezone) {
-        this.timezone = timezone;
-    }
-
-    public Double getOffset() {
-        return offset;
-    }
-
-    public void setOffset(Double offset) {
-        this.offset = offset;
-    }
-
-    public Currently getCurrently() {
-        return currently;
-    }
-
-    public void setCurrently(Currently currently) {
-        this.currently = currently;
-    }
-
-    public Daily getDaily() {
-        return daily;
-    }
-
-    public void setDaily(Daily daily) {
-        this.daily = daily;
-    }
-}
\ No newline at end of file
@@ -1,340 +0,0 @@
-package com.thanksmister.iot.mqtt.alarmpanel.network.model;
-
-import com.google.gson.annotations.Expose;
-import com.google.gson.annotations.SerializedName;
-
-// https://darksky.net/dev
-public class Datum {
-
-    @SerializedName("time")
-    @Expose
-    private Long time;
-    @SerializedName("summary")
-    @Expose
-    private String summary;
-    @SerializedName("icon")
-    @Expose
-    private String icon;
-    @SerializedName("sunriseTime")
-    @Expose
-    private Integer sunriseTime;
-    @SerializedName("sunsetTime")
-    @Expose
-    private Integer sunsetTime;
-    @SerializedName("moonPhase")
-    @Expose
-    private Double moonPhase;
-    @SerializedName("precipIntensity")
-    @Expose
-    private Double precipIntensity;
-    @SerializedName("precipIntensityMax")
-    @Expose
-    private Double precipIntensityMax;
-    @SerializedName("precipIntensityMaxTime")
-    @Expose
-    private Double precipIntensityMaxTime;
-    @SerializedName("precipProbability")
-    @Expose
-    private Double precipProbability;
-    @SerializedName("precipType")
-    @Expose
-    private String precipType;
-    @SerializedName("temperatureMin")
-    @Expose
-    private Double temperatureMin;
-    @SerializedName("temperatureMinTime")
-    @Expose
-    private Integer temperatureMinTime;
-    @SerializedName("temperatureMax")
-    @Expose
-    private Double temperatureMax;
-    @SerializedName("temperatureMaxTime")
-    @Expose
-    private Integer temperatureMaxTime;
-    @SerializedName("apparentTemperatureMin")
-    @Expose
-    private Double apparentTemperatureMin;
-    @SerializedName("apparentTemperatureMinTime")
-    @Expose
-    private Integer apparentTemperatureMinTime;
-    @SerializedName("apparentTemperatureMax")
-    @Expose
-    private Double apparentTemperatureMax;
-    @SerializedName("apparentTemperatureMaxTime")
-    @Expose
-    private Integer apparentTemperatureMaxTime;
-    @SerializedName("dewPoint")
-    @Expose
-    private Double dewPoint;
-    @SerializedName("humidity")
-    @Expose
-    private Double humidity;
-    @SerializedName("windSpeed")
-    @Expose
-    private Double windSpeed;
-    @SerializedName("windGust")
-    @Expose
-    private Double windGust;
-    @SerializedName("windGustTime")
-    @Expose
-    private Integer windGustTime;
-    @SerializedName("windBearing")
-    @Expose
-    private Integer windBearing;
-    @SerializedName("cloudCover")
-    @Expose
-    private Double cloudCover;
-    @SerializedName("pressure")
-    @Expose
-    private Double pressure;
-    @SerializedName("ozone")
-    @Expose
-    private Double ozone;
-    @SerializedName("uvIndex")
-    @Expose
-    private Integer uvIndex;
-    @SerializedName("uvIndexTime")
-    @Expose
-    private Integer uvIndexTime;
-
-    public Long getTime() {
-        return time;
-    }
-
-    public void setTime(Long time) {
-        this.time = time;
-    }
-
-    public String getSummary() {
-        return summary;
-    }
-
-    public void setSummary(String summary) {
-        this.summary = summary;
-    }
-
-    public String getIcon() {
-        return icon;
-    }
-
-    public void setIcon(String icon) {
-        this.icon = icon;
-    }
-
-    public Integer getSunriseTime() {
-        return sunriseTime;
-    }
-
-    public void setSunriseTime(Integer sunriseTime) {
-        this.sunriseTime = sunriseTime;
-    }
-
-    public Integer getSunsetTime() {
-        return sunsetTime;
-    }
-
-    public void setSunsetTime(Integer sunsetTime) {
-        this.sunsetTime = sunsetTime;
-    }
-
-    public Double getMoonPhase() {
-        return moonPhase;
-    }
-
-    public void setMoonPhase(Double moonPhase) {
-        this.moonPhase = moonPhase;
-    }
-
-    public Double getPrecipIntensity() {
-        return precipIntensity;
-    }
-
-    public void setPrecipIntensity(Double precipIntensity) {
-        this.precipIntensity = precipIntensity;
-    }
-
-    public Double getPrecipIntensityMax() {
-        return precipIntensityMax;
-    }
-
-    public void setPrecipIntensityMax(Double precipIntensityMax) {
-        this.precipIntensityMax = precipIntensityMax;
-    }
-
-    public Double getPrecipIntensityMaxTime() {
-        return precipIntensityMaxTime;
-    }
-
-    public void setPrecipIntensityMaxTime(Double precipIntensityMaxTime) {
-        this.precipIntensityMaxTime = precipIntensityMaxTime;
-    }
-
-    public Double getPrecipProbability() {
-        return precipProbability;
-    }
-
-    public void setPrecipProbability(Double precipProbability) {
-        this.precipProbability = precipProbability;
-    }
-
-    public String getPrecipType() {
-        return precipType;
-    }
-
-    public void setPrecipType(String precipType) {
-        this.precipType = precipType;
-    }
-
-    public Double getTemperatureMin() {
-        return temperatureMin;
-    }
-
-    public void setTemperatureMin(Double temperatureMin) {
-        this.temperatureMin = temperatureMin;
-    }
-
-    public Integer getTemperatureMinTime() {
-        return temperatureMinTime;
-    }
-
-    public void setTemperatureMinTime(Integer temperatureMinTime) {
-        this.temperatureMinTime = temperatureMinTime;
-    }
-
-    public Double getTemperatureMax() {
-        return temperatureMax;
-    }
-
-    public void setTemperatureMax(Double temperatureMax) {
-        this.temperatureMax = temperatureMax;
-    }
-
-    public Integer getTemperatureMaxTime() {
-        return temperatureMaxTime;
-    }
-
-    public void setTemperatureMaxTime(Integer temperatureMaxTime) {
-        this.temperatureMaxTime = temperatureMaxTime;
-    }
-
-    public Double getApparentTemperatureMin() {
-        return apparentTemperatureMin;
-    }
-
-    public void setApparentTemperatureMin(Double apparentTemperatureMin) {
-        this.apparentTemperatureMin = apparentTemperatureMin;
-    }
-
-    public Integer getApparentTemperatureMinTime() {
-        return apparentTemperatureMinTime;
-    }
-
-    public void setApparentTemperatureMinTime(Integer apparentTemperatureMinTime) {
-        this.apparentTemperatureMinTime = apparentTemperatureMinTime;
-    }
-
-    public Double getApparentTemperatureMax() {
-        return apparentTemperatureMax;
-    }
-
-    public void setApparentTemperatureMax(Double apparentTemperatureMax) {
-        this.apparentTemperatureMax = apparentTemperatureMax;
-    }
-
-    public Integer getApparentTemperatureMaxTime() {
-        return apparentTemperatureMaxTime;
-    }
-
-    public void setApparentTemperatureMaxTime(Integer apparentTemperatureMaxTime) {
-        this.apparentTemperatureMaxTime = apparentTemperatureMaxTime;
-    }
-
-    public Double getDewPoint() {
-        return dewPoint;
-    }
-
-    public void setDewPoint(Double dewPoint) {
-        this.dewPoint = dewPoint;
-    }
-
-    public Double getHumidity() {
-        return humidity;
-    }
-
-    public void setHumidity(Double humidity) {
-        this.humidity = humidity;
-    }
-
-    public Double getWindSpeed() {
-        return windSpeed;
-    }
-
-    public void setWindSpeed(Double windSpeed) {
-        this.windSpeed = windSpeed;
-    }
-
-    public Double getWindGust() {
-        return windGust;
-    }
-
-    public void setWindGust(Double windGust) {
-        this.windGust = windGust;
-    }
-
-    public Integer getWindGustTime() {
-        return windGustTime;
-    }
-
-    public void setWindGustTime(Integer windGustTime) {
-        this.windGustTime = windGustTime;
-    }
-
-    public Integer getWindBearing() {
-        return windBearing;
-    }
-
-    public void setWindBearing(Integer windBearing) {
-        this.windBearing = windBearing;
-    }
-
-    public Double getCloudCover() {
-        return cloudCover;
-    }
-
-    public void setCloudCover(Double cloudCover) {
-        this.cloudCover = cloudCover;
-    }
-
-    public Double getPressure() {
-        return pressure;
-    }
-
-    public void setPressure(Double pressure) {
-        this.pressure = pressure;
-    }
-
-    public Double getOzone() {
-        return ozone;
-    }
-
-    public void setOzone(Double ozone) {
-        this.ozone = ozone;
-    }
-
-    public Integer getUvIndex() {
-        return uvIndex;
-    }
-
-    public void setUvIndex(Integer uvIndex) {
-        this.uvIndex = uvIndex;
-    }
-
-    public Integer getUvIndexTime() {
-        return uvIndexTime;
-    }
-
-    public void setUvIndexTime(Integer uvIndexTime) {
-        this.uvIndexTime = uvIndexTime;
-    }
-
-}
\ No newline at end of file
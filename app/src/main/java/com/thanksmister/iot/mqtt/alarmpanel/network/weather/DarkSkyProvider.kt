@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2018 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thanksmister.iot.mqtt.alarmpanel.network.weather
+package com.thanksmister.iot.mqtt.alarmpanel.network.weather
+
+import com.google.gson.stream.JsonReader
+import com.thanksmister.iot.mqtt.alarmpanel.persistence.Forecast
+import okhttp3.HttpUrl
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import java.io.IOException
+import java.io.Reader
+import java.util.*
+
+/**
+ * Requests the weather from a server using the Dark Sky forecast API, such as a self-hosted
+ * server or a compatible service. The response is read as a stream and only the fields
+ * the panel shows are kept, nothing else from the response is held in memory.
+ */
+class DarkSkyProvider(private val httpClient: OkHttpClient, private val serverUrl: String, key: String,
+                      private val units: String, private val lat: String, private val lon: String) : WeatherProvider {
+
+    private val url: HttpUrl? = HttpUrl.parse(serverUrl)?.newBuilder()
+            ?.addPathSegment("forecast")
+            ?.addPathSegment(key)
+            ?.addPathSegment("$lat,$lon")
+            ?.addQueryParameter("exclude", EXCLUDES)
+            ?.addQueryParameter("units", units)
+            ?.addQueryParameter("lang", Locale.getDefault().language)
+            ?.build()
+
+    override fun getSource(): String {
+        return "$serverUrl,$units,$lat,$lon"
+    }
+
+    override fun isPushed(): Boolean {
+        return false
+    }
+
+    override fun fetch(): WeatherReport? {
+        val url = this.url ?: throw IOException("Invalid weather server $serverUrl")
+        val response = httpClient.newCall(Request.Builder().url(url).build()).execute()
+        val body = response.body()
+        try {
+            if (!response.isSuccessful) {
+                throw IOException("Weather server error " + response.code() + " " + response.message())
+            }
+            val report = parse(body.charStream(), units)
+            report.maxAge = response.cacheControl().maxAgeSeconds() * 1000L
+            return report
+        } finally {
+            body.close()
+        }
+    }
+
+    override fun setListener(listener: WeatherProvider.Listener?) {
+        // reports are only requested
+    }
+
+    companion object {
+
+        const val BASE_URL = "https://api.darksky.net"
+        const val EXCLUDES = "hourly,minutely,flags,alerts"
+
+        @JvmStatic
+        @Throws(IOException::class)
+        fun parse(input: Reader, units: String): WeatherReport {
+            val report = WeatherReport(units)
+            val reader = JsonReader(input)
+            reader.beginObject()
+            while (reader.hasNext()) {
+                when (reader.nextName()) {
+                    "currently" -> readCurrently(reader, report)
+                    "daily" -> readDaily(reader, report)
+                    else -> reader.skipValue()
+                }
+            }
+            reader.endObject()
+            return report
+        }
+
+        private fun readCurrently(reader: JsonReader, report: WeatherReport) {
+            reader.beginObject()
+            while (reader.hasNext()) {
+                when (reader.nextName()) {
+                    "icon" -> report.icon = WeatherJson.nextString(reader)
+                    "summary" -> report.summary = WeatherJson.nextString(reader)
+                    "apparentTemperature" -> report.apparentTemperature = WeatherJson.nextDouble(reader)
+                    "precipProbability" -> report.precipProbability = WeatherJson.nextDouble(reader)
+                    else -> reader.skipValue()
+                }
+            }
+            reader.endObject()
+        }
+
+        private fun readDaily(reader: JsonReader, report: WeatherReport) {
+            reader.beginObject()
+            while (reader.hasNext()) {
+                if (reader.nextName() == "data") {
+                    reader.beginArray()
+                    while (reader.hasNext()) {
+                        val day = readDay(reader)
+                        if (day != null) {
+                            report.days.add(day)
+                        }
+                    }
+                    reader.endArray()
+                } else {
+                    reader.skipValue()
+                }
+            }
+            reader.endObject()
+        }
+
+        private fun readDay(reader: JsonReader): Forecast? {
+            val day = Forecast()
+            var time: Double? = null
+            reader.beginObject()
+            while (reader.hasNext()) {
+                when (reader.nextName()) {
+                    "time" -> time = WeatherJson.nextDouble(reader)
+                    "icon" -> day.icon = WeatherJson.nextString(reader)
+                    "summary" -> day.summary = WeatherJson.nextString(reader)
+                    "apparentTemperatureMin" -> day.apparentTemperatureMin = WeatherJson.nextDouble(reader) ?: 0.0
+                    "apparentTemperatureMax" -> day.apparentTemperatureMax = WeatherJson.nextDouble(reader) ?: 0.0
+                    "precipProbability" -> day.precipProbability = WeatherJson.nextDouble(reader) ?: 0.0
+                    else -> reader.skipValue()
+                }
+            }
+            reader.endObject()
+            if (time == null) {
+                return null
+            }
+            day.day = time.toLong()
+            return day
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2018 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thanksmister.iot.mqtt.alarmpanel.network.weather
+package com.thanksmister.iot.mqtt.alarmpanel.network.weather
+
+import com.google.gson.stream.JsonReader
+import com.google.gson.stream.JsonToken
+import com.thanksmister.iot.mqtt.alarmpanel.network.DarkSkyOptions
+import com.thanksmister.iot.mqtt.alarmpanel.persistence.Forecast
+import org.joda.time.DateTime
+import timber.log.Timber
+import java.io.IOException
+import java.io.Reader
+import java.io.StringReader
+
+/**
+ * Weather published to the broker by Home Assistant, so the panel doesn't need internet
+ * access for the weather. The payload is the state and attributes of a weather entity,
+ * either as `{"state": ..., "attributes": {...}}` or with the attributes at the top level,
+ * for example from an automation publishing `{{ states.weather.home | tojson }}` as a
+ * retained message. Payloads are read as a stream as they arrive on the MQTT thread.
+ */
+class MQTTWeatherProvider : WeatherProvider {
+
+    @Volatile private var listener: WeatherProvider.Listener? = null
+    @Volatile private var pending: WeatherReport? = null
+    @Volatile var units: String = DarkSkyOptions.UNITS_US
+
+    override fun getSource(): String {
+        return SOURCE
+    }
+
+    override fun isPushed(): Boolean {
+        return true
+    }
+
+    /**
+     * A report that arrived while nobody was listening.
+     */
+    override fun fetch(): WeatherReport? {
+        val report = pending
+        pending = null
+        return report
+    }
+
+    override fun setListener(listener: WeatherProvider.Listener?) {
+        this.listener = listener
+    }
+
+    fun onMessage(payload: String) {
+        val report = try {
+            parse(StringReader(payload), units)
+        } catch (e: Exception) {
+            Timber.e("Unable to read weather payload: " + e.message)
+            return
+        }
+        val listener = this.listener
+        if (listener != null) {
+            pending = null
+            listener.onReport(report)
+        } else {
+            pending = report
+        }
+    }
+
+    private class Current {
+        var condition: String? = null
+        var temperature: Double? = null
+        var apparentTemperature: Double? = null
+    }
+
+    companion object {
+
+        const val SOURCE = "mqtt"
+
+        @JvmStatic
+        @Throws(IOException::class)
+        fun parse(input: Reader, units: String): WeatherReport {
+            val current = Current()
+            val days = ArrayList<Forecast>()
+            var unit: String? = null
+            val reader = JsonReader(input)
+            reader.beginObject()
+            while (reader.hasNext()) {
+                val name = reader.nextName()
+                if (name == "attributes" && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    reader.beginObject()
+                    while (reader.hasNext()) {
+                        val unitValue = readField(reader, reader.nextName(), current, days)
+                        if (unitValue != null) unit = unitValue
+                    }
+                    reader.endObject()
+                } else {
+                    val unitValue = readField(reader, name, current, days)
+                    if (unitValue != null) unit = unitValue
+                }
+            }
+            reader.endObject()
+
+            val report = WeatherReport(when {
+                unit == null -> units
+                unit.endsWith("F") -> DarkSkyOptions.UNITS_US
+                else -> DarkSkyOptions.UNITS_SI
+            })
+            report.icon = getIcon(current.condition)
+            report.summary = getSummary(current.condition)
+            report.apparentTemperature = current.apparentTemperature ?: current.temperature
+            // Home Assistant has no current chance of rain, use today's
+            if (days.isNotEmpty()) {
+                report.precipProbability = days[0].precipProbability
+            }
+            report.days.addAll(days)
+            return report
+        }
+
+        /**
+         * Read one field of the entity, returns the temperature unit if that was the field.
+         */
+        private fun readField(reader: JsonReader, name: String, current: Current, days: ArrayList<Forecast>): String? {
+            when (name) {
+                "state", "condition" -> current.condition = WeatherJson.nextString(reader)
+                "temperature" -> current.temperature = WeatherJson.nextDouble(reader)
+                "apparent_temperature" -> current.apparentTemperature = WeatherJson.nextDouble(reader)
+                "temperature_unit" -> return WeatherJson.nextString(reader)
+                "forecast" -> {
+                    if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+                        reader.skipValue()
+                        return null
+                    }
+                    reader.beginArray()
+                    while (reader.hasNext()) {
+                        val day = readDay(reader)
+                        if (day != null) {
+                            days.add(day)
+                        }
+                    }
+                    reader.endArray()
+                }
+                else -> reader.skipValue()
+            }
+            return null
+        }
+
+        private fun readDay(reader: JsonReader): Forecast? {
+            val day = Forecast()
+            var time: Long? = null
+            var condition: String? = null
+            reader.beginObject()
+            while (reader.hasNext()) {
+                when (reader.nextName()) {
+                    "datetime" -> time = readTime(reader)
+                    "condition" -> condition = WeatherJson.nextString(reader)
+                    "temperature" -> day.apparentTemperatureMax = WeatherJson.nextDouble(reader) ?: 0.0
+                    "templow" -> day.apparentTemperatureMin = WeatherJson.nextDouble(reader) ?: 0.0
+                    "precipitation_probability" -> day.precipProbability = (WeatherJson.nextDouble(reader) ?: 0.0) / 100
+                    else -> reader.skipValue()
+                }
+            }
+            reader.endObject()
+            if (time == null) {
+                return null
+            }
+            day.day = time
+            day.icon = getIcon(condition)
+            day.summary = getSummary(condition)
+            return day
+        }
+
+        /**
+         * Forecast times are ISO 8601 dates, or milliseconds in older versions, stored as seconds.
+         */
+        private fun readTime(reader: JsonReader): Long? {
+            if (reader.peek() == JsonToken.NUMBER) {
+                val time = reader.nextLong()
+                return if (time > 100000000000L) time / 1000 else time
+            }
+            val value = WeatherJson.nextString(reader) ?: return null
+            return try {
+                DateTime.parse(value).millis / 1000
+            } catch (e: IllegalArgumentException) {
+                null
+            }
+        }
+
+        /**
+         * Map the Home Assistant condition to the icon names the views use.
+         */
+        @JvmStatic
+        fun getIcon(condition: String?): String? {
+            return when (condition) {
+                "sunny" -> "clear-day"
+                "clear-night" -> "clear-night"
+                "partlycloudy" -> "partly-cloudy-day"
+                "cloudy", "exceptional" -> "cloudy"
+                "fog" -> "fog"
+                "hail" -> "hail"
+                "lightning", "lightning-rainy" -> "thunderstorm"
+                "rainy", "pouring" -> "rain"
+                "snowy" -> "snow"
+                "snowy-rainy" -> "sleet"
+                "windy", "windy-variant" -> "wind"
+                else -> condition
+            }
+        }
+
+        private fun getSummary(condition: String?): String? {
+            if (condition == null || condition.isEmpty()) {
+                return null
+            }
+            val text = condition.replace("partlycloudy", "partly cloudy").replace('-', ' ')
+            return text.substring(0, 1).toUpperCase() + text.substring(1)
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2018 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thanksmister.iot.mqtt.alarmpanel.network.weather
+
+import com.google.gson.stream.JsonReader
+import com.google.gson.stream.JsonToken
+
+/**
+ * Helpers for reading optional values with the streaming [JsonReader].
+ */
+object WeatherJson {
+
+    @JvmStatic
+    fun nextString(reader: JsonReader): String? {
+        return when (reader.peek()) {
+            JsonToken.STRING, JsonToken.NUMBER -> reader.nextString()
+            JsonToken.BOOLEAN -> reader.nextBoolean().toString()
+            else -> {
+                reader.skipValue()
+                null
+            }
+        }
+    }
+
+    @JvmStatic
+    fun nextDouble(reader: JsonReader): Double? {
+        if (reader.peek() == JsonToken.NUMBER) {
+            return reader.nextDouble()
+        }
+        if (reader.peek() == JsonToken.STRING) {
+            return reader.nextString().toDoubleOrNull()
+        }
+        reader.skipValue()
+        return null
+    }
+}
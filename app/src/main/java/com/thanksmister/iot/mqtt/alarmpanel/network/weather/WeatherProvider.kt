@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2018 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thanksmister.iot.mqtt.alarmpanel.network.weather
+
+import java.io.IOException
+
+/**
+ * A source of weather reports. Providers that are asked for the weather fetch a report
+ * when requested, providers that are sent the weather pass each report to the listener
+ * as it arrives.
+ */
+interface WeatherProvider {
+
+    interface Listener {
+        fun onReport(report: WeatherReport)
+    }
+
+    /**
+     * Identifies where the weather comes from, stored weather from another source is out of date.
+     */
+    fun getSource(): String
+
+    /**
+     * True if reports are sent by the source as the weather changes instead of being requested.
+     */
+    fun isPushed(): Boolean
+
+    /**
+     * Get a new report, blocking. Returns null if there is nothing new.
+     */
+    @Throws(IOException::class)
+    fun fetch(): WeatherReport?
+
+    fun setListener(listener: Listener?)
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2018 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.thanksmister.iot.mqtt.alarmpanel.network.weather
+
+import com.thanksmister.iot.mqtt.alarmpanel.persistence.Forecast
+import java.util.*
+
+/**
+ * Weather from any provider, in the units and icon names the views use.
+ */
+class WeatherReport(val units: String) {
+    var icon: String? = null
+    var summary: String? = null
+    var apparentTemperature: Double? = null
+    var precipProbability: Double? = null // 0 to 1
+    val days = ArrayList<Forecast>()
+    // how long the source says the report is good for, 0 if it didn't say
+    var maxAge: Long = 0
+}
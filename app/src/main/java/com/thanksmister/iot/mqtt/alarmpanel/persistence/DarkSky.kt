@@ -20,10 +20,13 @@ import android.arch.persistence.room.ColumnInfo
 import android.arch.persistence.room.Entity
 import android.arch.persistence.room.PrimaryKey
 
+/**
+ * Current weather conditions, the table only ever holds the one row with [CURRENT_ID].
+ */
 @Entity(tableName = "DarkSky")
 class DarkSky {
-    @PrimaryKey(autoGenerate = true)
-    var uid: Int = 0
+    @PrimaryKey
+    var uid: Int = CURRENT_ID
 
     @ColumnInfo(name = "icon")
     var icon: String? = null
@@ -40,12 +43,23 @@ class DarkSky {
     @ColumnInfo(name = "precipProbability")
     var precipProbability: String? = null
 
-    @ColumnInfo(name = "data")
-    var data: String? = null
-
     @ColumnInfo(name = "umbrella")
     var umbrella: Boolean = false
 
     @ColumnInfo(name = "createdAt")
     var createdAt: String? = null
-}
\ No newline at end of file
+
+    // units and coordinates the conditions were fetched for
+    @ColumnInfo(name = "location")
+    var location: String? = null
+
+    @ColumnInfo(name = "fetchedAt")
+    var fetchedAt: Long = 0
+
+    @ColumnInfo(name = "expiresAt")
+    var expiresAt: Long = 0
+
+    companion object {
+        const val CURRENT_ID = 1
+    }
+}
@@ -20,32 +20,76 @@ import android.arch.persistence.room.Dao
 import android.arch.persistence.room.Insert
 import android.arch.persistence.room.OnConflictStrategy
 import android.arch.persistence.room.Query
+import android.arch.persistence.room.Transaction
 
 import io.reactivex.Flowable
 
-/**
- * Data Access Object for the messages table.
- */
 @Dao
-interface DarkSkyDao {
+abstract class DarkSkyDao {
+
+    /**
+     * Get the current conditions.
+     * @return the current conditions, nothing is emitted until the first forecast is stored.
+     */
+    @Query("SELECT * FROM DarkSky LIMIT 1")
+    abstract fun getCurrent(): Flowable<DarkSky>
+
+    /**
+     * Get the current conditions once, for checking if they need to be fetched again.
+     * @return the current conditions or null if nothing has been stored yet.
+     */
+    @Query("SELECT * FROM DarkSky LIMIT 1")
+    abstract fun getCurrentItem(): DarkSky?
+
+    /**
+     * Get the extended forecast.
+     * @return the forecast days in order.
+     */
+    @Query("SELECT * FROM Forecast ORDER BY day ASC")
+    abstract fun getForecast(): Flowable<List<Forecast>>
 
     /**
-     * Get all items
-     * @return list of all weather data items.
+     * Insert the current conditions, replacing the previous ones.
      */
-    @Query("SELECT * FROM DarkSky")
-    fun getItems(): Flowable<List<DarkSky>>
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    abstract fun insertCurrent(item: DarkSky)
 
     /**
-     * Insert an item in the database. If the message already exists, replace it.
-     * @param user the message to be inserted.
+     * Insert forecast days, replacing any days already stored.
      */
     @Insert(onConflict = OnConflictStrategy.REPLACE)
-    fun insertItem(item: DarkSky)
+    abstract fun insertForecast(items: List<Forecast>)
+
+    /**
+     * Delete the forecast days that are not in the given list.
+     */
+    @Query("DELETE FROM Forecast WHERE day NOT IN (:days)")
+    abstract fun deleteForecastExcept(days: List<Long>)
+
+    /**
+     * Store a new forecast in one transaction so observers see a single change,
+     * days that dropped out of the forecast are removed.
+     */
+    @Transaction
+    open fun updateWeather(current: DarkSky, forecast: List<Forecast>) {
+        insertCurrent(current)
+        if (forecast.isEmpty()) {
+            deleteAllForecast()
+        } else {
+            insertForecast(forecast)
+            deleteForecastExcept(forecast.map { it.day })
+        }
+    }
 
     /**
-     * Delete all items.
+     * Delete the current conditions.
      */
     @Query("DELETE FROM DarkSky")
-    fun deleteAllItems()
-}
\ No newline at end of file
+    abstract fun deleteAllItems()
+
+    /**
+     * Delete the extended forecast.
+     */
+    @Query("DELETE FROM Forecast")
+    abstract fun deleteAllForecast()
+}
@@ -22,9 +22,9 @@ import android.arch.persistence.room.RoomDatabase
 import android.content.Context
 
 /**
- * The Room database that contains the weather table
+ * Weather cache, nothing here needs to survive a schema change so it is rebuilt instead of migrated.
  */
-@Database(entities = arrayOf(DarkSky::class), version = 1, exportSchema = false)
+@Database(entities = arrayOf(DarkSky::class, Forecast::class), version = 3, exportSchema = false)
 abstract class DarkSkyDatabase : RoomDatabase() {
 
     abstract fun darkSkyDao(): DarkSkyDao
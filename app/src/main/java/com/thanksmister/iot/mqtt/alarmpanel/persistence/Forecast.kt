@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2018 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.mqtt.alarmpanel.persistence
+
+import android.arch.persistence.room.ColumnInfo
+import android.arch.persistence.room.Entity
+import android.arch.persistence.room.PrimaryKey
+
+/**
+ * One day of the extended forecast, keyed by the day so a new forecast replaces the rows in place.
+ */
+@Entity(tableName = "Forecast")
+class Forecast {
+    // start of the day in seconds, as given by DarkSky
+    @PrimaryKey
+    @ColumnInfo(name = "day")
+    var day: Long = 0
+
+    @ColumnInfo(name = "icon")
+    var icon: String? = null
+
+    @ColumnInfo(name = "summary")
+    var summary: String? = null
+
+    @ColumnInfo(name = "apparentTemperatureMin")
+    var apparentTemperatureMin: Double = 0.0
+
+    @ColumnInfo(name = "apparentTemperatureMax")
+    var apparentTemperatureMax: Double = 0.0
+
+    @ColumnInfo(name = "precipProbability")
+    var precipProbability: Double = 0.0
+}
@@ -18,9 +18,10 @@ package com.thanksmister.iot.mqtt.alarmpanel.persistence
 
 import android.arch.persistence.room.ColumnInfo
 import android.arch.persistence.room.Entity
+import android.arch.persistence.room.Index
 import android.arch.persistence.room.PrimaryKey
 
-@Entity(tableName = "Messages")
+@Entity(tableName = "Messages", indices = [Index(value = ["type", "createdTime"]), Index(value = ["type", "uid"])])
 class Message {
     @PrimaryKey(autoGenerate = true)
     var uid: Int = 0
@@ -39,4 +40,12 @@ class Message {
 
     @ColumnInfo(name = "createdAt")
     var createdAt: String? = null
+
+    // createdAt in epoch milliseconds, used for age comparisons
+    @ColumnInfo(name = "createdTime")
+    var createdTime: Long = 0
+
+    // createdAt formatted for display when the message is written
+    @ColumnInfo(name = "createdAtDisplay")
+    var createdAtDisplay: String? = null
 }
\ No newline at end of file
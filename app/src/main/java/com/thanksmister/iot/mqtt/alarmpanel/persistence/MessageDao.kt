@@ -40,9 +40,25 @@ interface MessageDao {
      * Get all messages
      * @return list of all messages
      */
-    @Query("SELECT * FROM Messages ORDER BY createdAt DESC")
+    @Query("SELECT * FROM Messages ORDER BY uid DESC")
     fun getMessages(): Flowable<List<Message>>
 
+    /**
+     * Get the messages from a uid onwards, newest first.
+     * @param floor the uid of the oldest message to load
+     * @return list of the messages written since the floor
+     */
+    @Query("SELECT * FROM Messages WHERE uid >= :floor ORDER BY uid DESC")
+    fun getMessagesFrom(floor: Int): Flowable<List<Message>>
+
+    /**
+     * Find the oldest uid of the page of messages written before a uid, used to extend
+     * the loaded messages a page at a time without an OFFSET scan.
+     * @return the oldest uid of the page, null if there are no older messages
+     */
+    @Query("SELECT MIN(uid) FROM (SELECT uid FROM Messages WHERE uid < :before ORDER BY uid DESC LIMIT :limit)")
+    fun getPageFloor(before: Int, limit: Int): Int?
+
     /**
      * Get all messages
      * @return list of all messages
@@ -50,6 +66,15 @@ interface MessageDao {
     @Query("SELECT * FROM Messages WHERE type = :type")
     fun getMessages(type: String): Flowable<List<Message>>
 
+    /**
+     * Get the most recent message of a type, uses the (type, uid) index. Rows are ordered by
+     * uid as that follows the order they were written, the createdAt text doesn't sort in
+     * time order across daylight saving or time zone changes.
+     * @return the latest message, nothing is emitted while there are no messages of the type.
+     */
+    @Query("SELECT * FROM Messages WHERE type = :type ORDER BY uid DESC LIMIT 1")
+    fun getLastMessage(type: String): Flowable<Message>
+
     /**
      * Insert a message in the database. If the message already exists, replace it.
      * @param user the message to be inserted.
@@ -57,6 +82,37 @@ interface MessageDao {
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     fun insertMessage(message: Message)
 
+    /**
+     * Insert a list of messages in a single transaction.
+     * @param messages the messages to be inserted.
+     */
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    fun insertMessages(messages: List<Message>)
+
+    /**
+     * Count the messages of a type.
+     */
+    @Query("SELECT COUNT(*) FROM Messages WHERE type = :type")
+    fun getMessageCount(type: String): Int
+
+    /**
+     * Count the messages of a type created before the given time in epoch milliseconds.
+     */
+    @Query("SELECT COUNT(*) FROM Messages WHERE type = :type AND createdTime < :createdTime")
+    fun getMessageCountBefore(type: String, createdTime: Long): Int
+
+    /**
+     * Delete a batch of messages of a type created before the given time in epoch milliseconds.
+     */
+    @Query("DELETE FROM Messages WHERE uid IN (SELECT uid FROM Messages WHERE type = :type AND createdTime < :createdTime LIMIT :limit)")
+    fun deleteMessagesBefore(type: String, createdTime: Long, limit: Int)
+
+    /**
+     * Delete a batch of the oldest messages of a type beyond the newest rows we keep.
+     */
+    @Query("DELETE FROM Messages WHERE uid IN (SELECT uid FROM Messages WHERE type = :type ORDER BY uid DESC LIMIT :limit OFFSET :keep)")
+    fun deleteMessagesOverLimit(type: String, keep: Int, limit: Int)
+
     /**
      * Delete all messages.
      */
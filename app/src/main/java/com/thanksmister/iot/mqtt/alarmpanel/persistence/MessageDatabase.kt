@@ -19,20 +19,48 @@ package com.thanksmister.iot.mqtt.alarmpanel.persistence
 import android.arch.persistence.room.Database
 import android.arch.persistence.room.Room
 import android.arch.persistence.room.RoomDatabase
+import android.arch.persistence.room.migration.Migration
+import android.arch.persistence.db.SupportSQLiteDatabase
 import android.content.Context
 
 /**
  * The Room database that contains the Messages table
  */
-@Database(entities = arrayOf(Message::class), version = 2, exportSchema = false)
+@Database(entities = arrayOf(Message::class), version = 3, exportSchema = false)
 abstract class MessageDatabase : RoomDatabase() {
 
     abstract fun messageDao(): MessageDao
 
     companion object {
 
+        const val DATABASE_NAME = "alarm_panel.db"
+
+        private const val CREATED_AT_PATTERN = "[0-9][0-9][0-9][0-9]-[0-9][0-9]-[0-9][0-9]T[0-9][0-9]:[0-9][0-9]:[0-9][0-9][+-][0-9][0-9][0-9][0-9]"
+
         @Volatile private var INSTANCE: MessageDatabase? = null
 
+        /**
+         * Adds createdTime in epoch milliseconds for the retention age cutoff, filled in from
+         * createdAt for the rows already written, the preformatted display date, and the
+         * (type, createdTime) and (type, uid) indexes used by retention and the alarm state.
+         */
+        private val MIGRATION_2_3 = object : Migration(2, 3) {
+            override fun migrate(database: SupportSQLiteDatabase) {
+                database.execSQL("ALTER TABLE `Messages` ADD COLUMN `createdAtDisplay` TEXT")
+                database.execSQL("ALTER TABLE `Messages` ADD COLUMN `createdTime` INTEGER NOT NULL DEFAULT 0")
+                // createdAt is written as yyyy-MM-dd'T'HH:mm:ssZ, take the local time as UTC and
+                // remove the +HHMM offset, rows that don't parse are treated as written now
+                database.execSQL("UPDATE Messages SET createdTime = " +
+                        "(CAST(strftime('%s', substr(createdAt, 1, 19)) AS INTEGER) - " +
+                        "(CASE substr(createdAt, 20, 1) WHEN '-' THEN -1 ELSE 1 END) * " +
+                        "(CAST(substr(createdAt, 21, 2) AS INTEGER) * 3600 + CAST(substr(createdAt, 23, 2) AS INTEGER) * 60)) * 1000 " +
+                        "WHERE createdAt GLOB '$CREATED_AT_PATTERN' AND strftime('%s', substr(createdAt, 1, 19)) IS NOT NULL")
+                database.execSQL("UPDATE Messages SET createdTime = CAST(strftime('%s', 'now') AS INTEGER) * 1000 WHERE createdTime = 0")
+                database.execSQL("CREATE INDEX IF NOT EXISTS `index_Messages_type_createdTime` ON `Messages` (`type`, `createdTime`)")
+                database.execSQL("CREATE INDEX IF NOT EXISTS `index_Messages_type_uid` ON `Messages` (`type`, `uid`)")
+            }
+        }
+
         @JvmStatic fun getInstance(context: Context): MessageDatabase =
                 INSTANCE ?: synchronized(this) {
                     INSTANCE ?: buildDatabase(context).also { INSTANCE = it }
@@ -40,7 +68,8 @@ abstract class MessageDatabase : RoomDatabase() {
 
         private fun buildDatabase(context: Context) =
                 Room.databaseBuilder(context.applicationContext,
-                        MessageDatabase::class.java, "alarm_panel.db")
+                        MessageDatabase::class.java, DATABASE_NAME)
+                        .addMigrations(MIGRATION_2_3)
                         .fallbackToDestructiveMigration()
                         .build()
     }
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2018 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.mqtt.alarmpanel.persistence
+
+import android.content.Context
+import com.thanksmister.iot.mqtt.alarmpanel.utils.AlarmUtils.Companion.ALARM_TYPE
+import com.thanksmister.iot.mqtt.alarmpanel.utils.ComponentUtils.IMAGE_CAPTURE_TYPE
+import com.thanksmister.iot.mqtt.alarmpanel.utils.ComponentUtils.NOTIFICATION_TYPE
+import com.thanksmister.iot.mqtt.alarmpanel.utils.ComponentUtils.SENSOR_TYPE
+import timber.log.Timber
+import java.util.concurrent.TimeUnit
+
+/**
+ * Keeps the Messages table bounded. Each message type has a row cap and an age cap,
+ * rows are removed in small batches so the database is never locked for long, then
+ * the WAL is checkpointed and the file is vacuumed once enough pages are free.
+ */
+class MessageRetention(private val context: Context, private val database: MessageDatabase) {
+
+    class Policy(val type: String, val maxRows: Int, val maxAgeDays: Int)
+
+    class Result(val rowsRemoved: Int, val bytesReclaimed: Long, val vacuumed: Boolean)
+
+    fun run(): Result {
+        val sizeBefore = getDatabaseSize()
+        var rowsRemoved = 0
+        for (policy in POLICIES) {
+            rowsRemoved += applyPolicy(policy)
+        }
+        checkpoint()
+        val vacuumed = vacuumIfNeeded()
+        val bytesReclaimed = Math.max(0L, sizeBefore - getDatabaseSize())
+        Timber.d("Retention removed $rowsRemoved rows and reclaimed $bytesReclaimed bytes")
+        return Result(rowsRemoved, bytesReclaimed, vacuumed)
+    }
+
+    private fun applyPolicy(policy: Policy): Int {
+        val dao = database.messageDao()
+        val cutoff = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(policy.maxAgeDays.toLong())
+        var removed = 0
+        var expired = dao.getMessageCountBefore(policy.type, cutoff)
+        while (expired > 0) {
+            dao.deleteMessagesBefore(policy.type, cutoff, DELETE_BATCH_SIZE)
+            val deleted = Math.min(expired, DELETE_BATCH_SIZE)
+            expired -= deleted
+            removed += deleted
+        }
+        var excess = dao.getMessageCount(policy.type) - policy.maxRows
+        while (excess > 0) {
+            dao.deleteMessagesOverLimit(policy.type, policy.maxRows, DELETE_BATCH_SIZE)
+            val deleted = Math.min(excess, DELETE_BATCH_SIZE)
+            excess -= deleted
+            removed += deleted
+        }
+        Timber.d("Retention type: ${policy.type} removed: $removed")
+        return removed
+    }
+
+    private fun checkpoint() {
+        try {
+            database.openHelper.writableDatabase.query("PRAGMA wal_checkpoint(TRUNCATE)").close()
+        } catch (e: Exception) {
+            Timber.e("Checkpoint error: " + e.message)
+        }
+    }
+
+    /**
+     * Vacuum only when a meaningful share of the file is free pages, a vacuum
+     * rewrites the whole database so we don't want to do it every run.
+     */
+    private fun vacuumIfNeeded(): Boolean {
+        try {
+            val db = database.openHelper.writableDatabase
+            val pageCount = queryLong("PRAGMA page_count")
+            val freePages = queryLong("PRAGMA freelist_count")
+            if (pageCount > 0 && freePages * VACUUM_FREE_RATIO >= pageCount) {
+                db.execSQL("VACUUM")
+                return true
+            }
+        } catch (e: Exception) {
+            Timber.e("Vacuum error: " + e.message)
+        }
+        return false
+    }
+
+    private fun queryLong(sql: String): Long {
+        val cursor = database.openHelper.writableDatabase.query(sql)
+        try {
+            return if (cursor.moveToFirst()) cursor.getLong(0) else 0
+        } finally {
+            cursor.close()
+        }
+    }
+
+    private fun getDatabaseSize(): Long {
+        val file = context.getDatabasePath(MessageDatabase.DATABASE_NAME)
+        val wal = context.getDatabasePath(MessageDatabase.DATABASE_NAME + "-wal")
+        return file.length() + wal.length()
+    }
+
+    companion object {
+        const val DELETE_BATCH_SIZE = 500
+        const val VACUUM_FREE_RATIO = 4 // vacuum when a quarter of the pages are free
+
+        val POLICIES = arrayOf(
+                Policy(ALARM_TYPE, 1000, 30),
+                Policy(NOTIFICATION_TYPE, 500, 7),
+                Policy(IMAGE_CAPTURE_TYPE, 200, 30),
+                Policy(SENSOR_TYPE, 1000, 7))
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2018 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.mqtt.alarmpanel.persistence
+
+import com.thanksmister.iot.mqtt.alarmpanel.utils.DateUtils
+import timber.log.Timber
+import java.util.*
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * Write-behind buffer for the Messages table. Messages are collected and written
+ * with a single list insert (one transaction) when the flush window elapses or the
+ * batch fills up, whichever comes first. All writes happen in order on one thread.
+ */
+class MessageWriter(private val dataSource: MessageDao) {
+
+    private val pendingMessages = ArrayList<Message>()
+    private val dateFormat = DateUtils.createdAtDateFormat()
+    private val executor = Executors.newSingleThreadScheduledExecutor()
+    private var flushScheduled = false
+    private var closed = false
+
+    private val flushRunnable = Runnable { flush() }
+
+    /**
+     * Queue a message for writing, the created date is stamped when it is queued.
+     */
+    fun insertMessage(message: Message) {
+        synchronized(pendingMessages) {
+            if (closed) {
+                Timber.w("Message writer closed, dropping message: " + message.messageId)
+                return
+            }
+            val date = Date()
+            message.createdAt = DateUtils.generateCreatedAtDate(dateFormat, date)
+            message.createdTime = date.time
+            message.createdAtDisplay = DateUtils.formatDisplayDate(date)
+            pendingMessages.add(message)
+            if (pendingMessages.size >= MAX_BATCH_SIZE) {
+                executor.execute(flushRunnable)
+            } else if (!flushScheduled) {
+                flushScheduled = true
+                executor.schedule(flushRunnable, FLUSH_INTERVAL, TimeUnit.MILLISECONDS)
+            }
+        }
+    }
+
+    /**
+     * Write any queued messages now, without waiting for the flush window.
+     */
+    fun flushMessages() {
+        synchronized(pendingMessages) {
+            if (!closed && pendingMessages.isNotEmpty()) {
+                executor.execute(flushRunnable)
+            }
+        }
+    }
+
+    /**
+     * Write any queued messages and stop accepting new ones.
+     */
+    fun close() {
+        synchronized(pendingMessages) {
+            if (closed) return
+            closed = true
+            executor.execute(flushRunnable)
+        }
+        executor.shutdown()
+    }
+
+    private fun flush() {
+        val batch: List<Message>
+        synchronized(pendingMessages) {
+            flushScheduled = false
+            if (pendingMessages.isEmpty()) return
+            batch = ArrayList(pendingMessages)
+            pendingMessages.clear()
+        }
+        try {
+            dataSource.insertMessages(batch)
+            Timber.d("Inserted messages: " + batch.size)
+        } catch (e: Exception) {
+            Timber.e("Database error" + e.message)
+        }
+    }
+
+    companion object {
+        const val FLUSH_INTERVAL: Long = 250 // milliseconds
+        const val MAX_BATCH_SIZE: Int = 50
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2018 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.mqtt.alarmpanel.persistence
+
+import com.thanksmister.iot.mqtt.alarmpanel.network.DarkSkyOptions
+import com.thanksmister.iot.mqtt.alarmpanel.network.weather.DarkSkyProvider
+import com.thanksmister.iot.mqtt.alarmpanel.network.weather.MQTTWeatherProvider
+import com.thanksmister.iot.mqtt.alarmpanel.network.weather.WeatherProvider
+import com.thanksmister.iot.mqtt.alarmpanel.network.weather.WeatherReport
+import com.thanksmister.iot.mqtt.alarmpanel.utils.DateUtils
+import io.reactivex.Flowable
+import io.reactivex.Single
+import okhttp3.OkHttpClient
+import timber.log.Timber
+import java.io.IOException
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Keeps the stored weather up to date from the selected [WeatherProvider]. Observers always
+ * get the stored conditions, even when they are old, while a provider is only asked for
+ * a new report once the stored one expired or came from another source. The expiry is
+ * the later of the minimum refresh age and the max-age the source sent, and is stored with
+ * the conditions so it survives a restart. If a request fails while there is stored
+ * weather it stays in use until the next refresh. Reports pushed by a provider are
+ * stored as they arrive.
+ */
+class WeatherRepository(private val dataSource: DarkSkyDao, private val httpClient: OkHttpClient,
+                        private val mqttProvider: MQTTWeatherProvider) {
+
+    @Volatile private var provider: WeatherProvider? = null
+    private val refreshing = AtomicBoolean(false)
+
+    private val listener = object : WeatherProvider.Listener {
+        override fun onReport(report: WeatherReport) {
+            val provider = this@WeatherRepository.provider ?: return
+            store(report, provider.getSource())
+        }
+    }
+
+    fun getCurrent(): Flowable<DarkSky> {
+        return dataSource.getCurrent()
+    }
+
+    fun getForecast(): Flowable<List<Forecast>> {
+        return dataSource.getForecast()
+    }
+
+    /**
+     * Select the provider for the weather options.
+     */
+    fun setOptions(options: DarkSkyOptions) {
+        val units = options.weatherUnits ?: DarkSkyOptions.UNITS_US
+        if (options.weatherSource == DarkSkyOptions.SOURCE_MQTT) {
+            mqttProvider.units = units
+            setProvider(mqttProvider)
+        } else {
+            setProvider(DarkSkyProvider(httpClient, options.serverUrl, options.darkSkyKey ?: "",
+                    units, options.latitude ?: "", options.longitude ?: ""))
+        }
+    }
+
+    @Synchronized
+    fun setProvider(provider: WeatherProvider) {
+        val previous = this.provider
+        if (previous === provider) {
+            return
+        }
+        previous?.setListener(null)
+        this.provider = provider
+        provider.setListener(listener)
+    }
+
+    /**
+     * Get a new report if the stored one has expired, errors are only passed on when
+     * there is no stored weather to fall back on.
+     * @return a [Single] that emits true if a new report was stored.
+     */
+    fun refresh(): Single<Boolean> {
+        return Single.fromCallable { refreshNow() }
+    }
+
+    /**
+     * Blocking version of [refresh], must not be called on the main thread.
+     */
+    fun refreshNow(): Boolean {
+        val provider = this.provider ?: return false
+        val source = provider.getSource()
+        val stored = dataSource.getCurrentItem()
+        val fresh = stored != null && stored.location == source && System.currentTimeMillis() < stored.expiresAt
+        // pushed reports are stored as they arrive, only one sent before we listened is picked up here
+        if (fresh && !provider.isPushed()) {
+            return false
+        }
+        if (!refreshing.compareAndSet(false, true)) {
+            return false
+        }
+        try {
+            val report = provider.fetch() ?: return false
+            store(report, source)
+            return true
+        } catch (e: IOException) {
+            if (stored == null) {
+                throw e
+            }
+            Timber.e("Using stored weather, refresh failed: " + e.message)
+            return false
+        } finally {
+            refreshing.set(false)
+        }
+    }
+
+    private fun store(report: WeatherReport, source: String) {
+        val fetchedAt = System.currentTimeMillis()
+        val item = DarkSky()
+        item.units = report.units
+        item.location = source
+        item.fetchedAt = fetchedAt
+        item.expiresAt = fetchedAt + Math.max(MIN_REFRESH_AGE, report.maxAge)
+        item.createdAt = DateUtils.generateCreatedAtDate()
+        item.icon = report.icon ?: ""
+        item.summary = report.summary ?: ""
+        item.apparentTemperature = if (report.apparentTemperature != null) Math.round(report.apparentTemperature!!).toString() else ""
+        item.precipProbability = report.precipProbability?.toString() ?: ""
+        // should we take an umbrella today?
+        item.umbrella = shouldTakeUmbrellaToday(report.precipProbability ?: 0.0)
+        for (day in report.days) {
+            if (day.icon == null) day.icon = ""
+        }
+        dataSource.updateWeather(item, report.days)
+    }
+
+    /**
+     * Determines if today is a good day to take your umbrella
+     * Adapted from https://github.com/HannahMitt/HomeMirror/.
+     */
+    private fun shouldTakeUmbrellaToday(precipProbability: Double): Boolean {
+        return precipProbability > 0.3
+    }
+
+    companion object {
+        const val MIN_REFRESH_AGE: Long = 30 * 60 * 1000
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2018 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.mqtt.alarmpanel.tasks
+
+import android.arch.lifecycle.Observer
+import androidx.work.Data
+import androidx.work.PeriodicWorkRequest
+import androidx.work.WorkManager
+import androidx.work.WorkStatus
+import androidx.work.Worker
+import com.thanksmister.iot.mqtt.alarmpanel.persistence.MessageDatabase
+import com.thanksmister.iot.mqtt.alarmpanel.persistence.MessageRetention
+import com.thanksmister.iot.mqtt.alarmpanel.ui.Configuration
+import dpreference.DPreference
+import timber.log.Timber
+import java.util.concurrent.TimeUnit
+
+/**
+ * Periodic job that applies the [MessageRetention] policy to the message log
+ * and records how many rows and bytes were reclaimed.
+ */
+class MessageRetentionWorker : Worker() {
+
+    override fun doWork(): WorkerResult {
+        return try {
+            val retention = MessageRetention(applicationContext, MessageDatabase.getInstance(applicationContext))
+            val result = retention.run()
+            val configuration = Configuration(DPreference(applicationContext, "alarm_preferences"))
+            configuration.retentionLastRun = System.currentTimeMillis()
+            configuration.retentionRowsRemoved = configuration.retentionRowsRemoved + result.rowsRemoved
+            configuration.retentionBytesReclaimed = configuration.retentionBytesReclaimed + result.bytesReclaimed
+            outputData = Data.Builder()
+                    .putInt(KEY_ROWS_REMOVED, result.rowsRemoved)
+                    .putLong(KEY_BYTES_RECLAIMED, result.bytesReclaimed)
+                    .putBoolean(KEY_VACUUMED, result.vacuumed)
+                    .build()
+            WorkerResult.SUCCESS
+        } catch (e: Exception) {
+            Timber.e("Message retention error: " + e.message)
+            WorkerResult.RETRY
+        }
+    }
+
+    companion object {
+        const val RETENTION_WORK_NAME: String = "message_retention_worker_tag"
+        const val KEY_ROWS_REMOVED = "rows_removed"
+        const val KEY_BYTES_RECLAIMED = "bytes_reclaimed"
+        const val KEY_VACUUMED = "vacuumed"
+        const val RETENTION_INTERVAL_HOURS: Long = 12
+
+        /**
+         * Add the periodic retention job unless it is already scheduled, replacing it on
+         * every start would restart its period and it would never run on a panel that
+         * restarts often. Called on the main thread.
+         */
+        fun schedule(workManager: WorkManager) {
+            val statuses = workManager.getStatusesByTag(RETENTION_WORK_NAME)
+            statuses.observeForever(object : Observer<List<WorkStatus>> {
+                override fun onChanged(list: List<WorkStatus>?) {
+                    statuses.removeObserver(this)
+                    if (list == null || list.all { it.state.isFinished }) {
+                        val request = PeriodicWorkRequest.Builder(MessageRetentionWorker::class.java, RETENTION_INTERVAL_HOURS, TimeUnit.HOURS)
+                                .addTag(RETENTION_WORK_NAME)
+                                .build()
+                        workManager.enqueue(request)
+                    }
+                }
+            })
+        }
+    }
+}
@@ -19,6 +19,8 @@
 package com.thanksmister.iot.mqtt.alarmpanel.ui
 
 import android.text.TextUtils
+import com.thanksmister.iot.mqtt.alarmpanel.ui.modules.MotionSensor
+import com.thanksmister.iot.mqtt.alarmpanel.ui.modules.SensorPipeline
 import com.thanksmister.iot.mqtt.alarmpanel.utils.AlarmUtils
 import com.thanksmister.iot.mqtt.alarmpanel.utils.AlarmUtils.Companion.MODE_DISARM
 
@@ -151,6 +153,60 @@ constructor(private val sharedPreferences: DPreference) {
         get() = this.sharedPreferences.getPrefBoolean(PREF_MQTT_IMAGE, false)
         set(value) = this.sharedPreferences.setPrefBoolean(PREF_MQTT_IMAGE, value)
 
+    var cameraMotion: Boolean
+        get() = this.sharedPreferences.getPrefBoolean(PREF_CAMERA_MOTION, false)
+        set(value) = this.sharedPreferences.setPrefBoolean(PREF_CAMERA_MOTION, value)
+
+    /**
+     * GPIO inputs as a comma separated list of pin:zone pairs, for example BCM27:motion,BCM22:door.
+     */
+    var sensorInputs: String
+        get() = this.sharedPreferences.getPrefString(PREF_SENSOR_INPUTS, DEFAULT_SENSOR_INPUTS)
+        set(value) = this.sharedPreferences.setPrefString(PREF_SENSOR_INPUTS, value)
+
+    var sensorDebounceTime: Int
+        get() = this.sharedPreferences.getPrefInt(PREF_SENSOR_DEBOUNCE_TIME, SensorPipeline.DEFAULT_DEBOUNCE_TIME.toInt())
+        set(value) = this.sharedPreferences.setPrefInt(PREF_SENSOR_DEBOUNCE_TIME, value)
+
+    var sensorReleaseTime: Int
+        get() = this.sharedPreferences.getPrefInt(PREF_SENSOR_RELEASE_TIME, SensorPipeline.DEFAULT_RELEASE_TIME.toInt())
+        set(value) = this.sharedPreferences.setPrefInt(PREF_SENSOR_RELEASE_TIME, value)
+
+    var sensorHoldTime: Int
+        get() = this.sharedPreferences.getPrefInt(PREF_SENSOR_HOLD_TIME, SensorPipeline.DEFAULT_HOLD_TIME.toInt())
+        set(value) = this.sharedPreferences.setPrefInt(PREF_SENSOR_HOLD_TIME, value)
+
+    /**
+     * Pin names mapped to their zone, a pin without a zone is in the motion zone.
+     */
+    fun getSensorInputMap(): Map<String, String> {
+        val inputs = LinkedHashMap<String, String>()
+        for (entry in sensorInputs.split(",")) {
+            val parts = entry.split(":")
+            val pin = parts[0].trim()
+            if (pin.isEmpty()) continue
+            val zone = if (parts.size > 1 && parts[1].trim().isNotEmpty()) parts[1].trim() else MotionSensor.ZONE_MOTION
+            inputs[pin] = zone
+        }
+        return inputs
+    }
+
+    fun getSensorSettings(): SensorPipeline.Settings {
+        return SensorPipeline.Settings(sensorDebounceTime.toLong(), sensorReleaseTime.toLong(), sensorHoldTime.toLong())
+    }
+
+    var retentionLastRun: Long
+        get() = this.sharedPreferences.getPrefLong(PREF_RETENTION_LAST_RUN, 0)
+        set(value) = this.sharedPreferences.setPrefLong(PREF_RETENTION_LAST_RUN, value)
+
+    var retentionRowsRemoved: Long
+        get() = this.sharedPreferences.getPrefLong(PREF_RETENTION_ROWS_REMOVED, 0)
+        set(value) = this.sharedPreferences.setPrefLong(PREF_RETENTION_ROWS_REMOVED, value)
+
+    var retentionBytesReclaimed: Long
+        get() = this.sharedPreferences.getPrefLong(PREF_RETENTION_BYTES_RECLAIMED, 0)
+        set(value) = this.sharedPreferences.setPrefLong(PREF_RETENTION_BYTES_RECLAIMED, value)
+
     fun hasTelegramCredentials(): Boolean {
         return !TextUtils.isEmpty(telegramChatId) && !TextUtils.isEmpty(telegramToken)
     }
@@ -328,6 +384,11 @@ constructor(private val sharedPreferences: DPreference) {
         sharedPreferences.removePreference(PREF_PLATFORM_BACK_BEHAVIOR)
         sharedPreferences.removePreference(PREF_PLATFORM_ADMIN_MENU)
         sharedPreferences.removePreference(PREF_MQTT_IMAGE)
+        sharedPreferences.removePreference(PREF_CAMERA_MOTION)
+        sharedPreferences.removePreference(PREF_SENSOR_INPUTS)
+        sharedPreferences.removePreference(PREF_SENSOR_DEBOUNCE_TIME)
+        sharedPreferences.removePreference(PREF_SENSOR_RELEASE_TIME)
+        sharedPreferences.removePreference(PREF_SENSOR_HOLD_TIME)
         sharedPreferences.removePreference(PREF_NETWORK_ID)
         sharedPreferences.removePreference(PREF_NETWORK_PASSWORD)
     }
@@ -375,9 +436,19 @@ constructor(private val sharedPreferences: DPreference) {
         const val PREF_TELEGRAM_TOKEN = "pref_telegram_token"
         const val PREF_MQTT_IMAGE = "pref_mqtt_image"
         const val PREF_MQTT_IMAGE_TOPIC = "pref_mqtt_image_topic"
+        const val PREF_CAMERA_MOTION = "pref_camera_motion"
+        const val PREF_CAMERA_MOTION_TOPIC = "pref_camera_motion_topic"
+        const val PREF_SENSOR_INPUTS = "pref_sensor_inputs"
+        const val PREF_SENSOR_DEBOUNCE_TIME = "pref_sensor_debounce_time"
+        const val PREF_SENSOR_RELEASE_TIME = "pref_sensor_release_time"
+        const val PREF_SENSOR_HOLD_TIME = "pref_sensor_hold_time"
+        const val DEFAULT_SENSOR_INPUTS = MotionSensor.MOTION_SENSOR_GPIO_PIN + ":" + MotionSensor.ZONE_MOTION
         const val PREF_NETWORK_ID = "pref_network_id"
         const val PREF_NETWORK_PASSWORD = "pref_network_pass"
         const val PREF_DEVICE_SCREEN_POTRAIT = "pref_screen_portrait"
+        const val PREF_RETENTION_LAST_RUN = "pref_retention_last_run"
+        const val PREF_RETENTION_ROWS_REMOVED = "pref_retention_rows_removed"
+        const val PREF_RETENTION_BYTES_RECLAIMED = "pref_retention_bytes_reclaimed"
         const val PREF_REQUIRE_SCREEN_ROTATE = "pref_screen_rotate_required"
         const val PREF_DAY_NIGHT_MODE = "pref_day_night_mode"
         const val PREF_MODE_DAY_NIGHT_END = "mode_day_night_end"
@@ -22,7 +22,6 @@ import android.arch.lifecycle.Observer
 import android.arch.lifecycle.ViewModelProvider
 import android.arch.lifecycle.ViewModelProviders
 import android.content.DialogInterface
-import android.graphics.Bitmap
 import android.os.Bundle
 import android.os.Handler
 import android.os.HandlerThread
@@ -33,13 +32,16 @@ import android.support.v4.app.FragmentStatePagerAdapter
 import android.support.v4.view.PagerAdapter
 import android.support.v4.view.ViewPager
 import android.support.v7.app.AlertDialog
+import android.text.TextUtils
 import android.view.ViewGroup
 import com.thanksmister.iot.mqtt.alarmpanel.BaseActivity
 import com.thanksmister.iot.mqtt.alarmpanel.BaseFragment
 import com.thanksmister.iot.mqtt.alarmpanel.BuildConfig
 import com.thanksmister.iot.mqtt.alarmpanel.R
 import com.thanksmister.iot.mqtt.alarmpanel.managers.DayNightAlarmLiveData
+import com.thanksmister.iot.mqtt.alarmpanel.network.MQTTDiscovery
 import com.thanksmister.iot.mqtt.alarmpanel.network.MQTTOptions
+import com.thanksmister.iot.mqtt.alarmpanel.network.weather.MQTTWeatherProvider
 import com.thanksmister.iot.mqtt.alarmpanel.ui.fragments.ControlsFragment
 import com.thanksmister.iot.mqtt.alarmpanel.ui.fragments.MainFragment
 import com.thanksmister.iot.mqtt.alarmpanel.ui.fragments.PlatformFragment
@@ -48,6 +50,9 @@ import com.thanksmister.iot.mqtt.alarmpanel.ui.modules.MQTTModule
 import com.thanksmister.iot.mqtt.alarmpanel.ui.modules.MotionSensor
 import com.thanksmister.iot.mqtt.alarmpanel.ui.modules.TextToSpeechModule
 import com.thanksmister.iot.mqtt.alarmpanel.utils.AlarmUtils
+import com.thanksmister.iot.mqtt.alarmpanel.utils.ComponentUtils.IMAGE_CAPTURE_TYPE
+import com.thanksmister.iot.mqtt.alarmpanel.utils.ComponentUtils.NOTIFICATION_TYPE
+import com.thanksmister.iot.mqtt.alarmpanel.utils.JpegImage
 import com.thanksmister.iot.mqtt.alarmpanel.viewmodel.MainViewModel
 import io.reactivex.android.schedulers.AndroidSchedulers
 import io.reactivex.schedulers.Schedulers
@@ -62,6 +67,7 @@ class MainActivity : BaseActivity(), ViewPager.OnPageChangeListener, ControlsFra
     @Inject lateinit var viewModelFactory: ViewModelProvider.Factory
     lateinit var viewModel: MainViewModel
     @Inject lateinit var mqttOptions: MQTTOptions
+    @Inject lateinit var mqttWeatherProvider: MQTTWeatherProvider
 
     private lateinit var pagerAdapter: PagerAdapter
     private var mqttModule: MQTTModule? = null
@@ -71,6 +77,7 @@ class MainActivity : BaseActivity(), ViewPager.OnPageChangeListener, ControlsFra
     private var cameraModule: CameraModule? = null
     private var alertDialog: AlertDialog? = null
     private var motionSensorModule: MotionSensor? = null
+    private var motionSensorConfig: String? = null
     private var alarmLiveData: DayNightAlarmLiveData? = null
 
     override fun onCreate(savedInstanceState: Bundle?) {
@@ -153,6 +160,12 @@ class MainActivity : BaseActivity(), ViewPager.OnPageChangeListener, ControlsFra
                                 awakenDeviceForAction()
                             }
                         }
+                        // keep the camera ready for the capture that follows a disarm
+                        if (state == AlarmUtils.STATE_DISARM) {
+                            cameraModule?.coolDown()
+                        } else {
+                            cameraModule?.warmUp()
+                        }
                     }
                 }, { error -> Timber.e("Unable to get message: " + error)}))
     }
@@ -164,6 +177,11 @@ class MainActivity : BaseActivity(), ViewPager.OnPageChangeListener, ControlsFra
         setViewPagerState()
     }
 
+    override fun onPause() {
+        super.onPause()
+        viewModel.flushMessages()
+    }
+
     override fun onDestroy() {
         super.onDestroy()
         try {
@@ -226,7 +244,7 @@ class MainActivity : BaseActivity(), ViewPager.OnPageChangeListener, ControlsFra
         if (mqttModule != null) {
             mqttModule?.publish(AlarmUtils.COMMAND_DISARM)
         }
-        Handler().postDelayed({ captureImage() }, 300)
+        captureBurst()
     }
 
     private val initializeOnBackground = Runnable {
@@ -239,7 +257,8 @@ class MainActivity : BaseActivity(), ViewPager.OnPageChangeListener, ControlsFra
         }
 
         if (mqttModule == null && mqttOptions.isValid) {
-            mqttModule = MQTTModule(this@MainActivity.applicationContext, mqttOptions,this@MainActivity)
+            mqttModule = MQTTModule(this@MainActivity.applicationContext, mqttOptions,this@MainActivity,
+                    MQTTDiscovery(this@MainActivity.applicationContext, mqttOptions, configuration), mqttWeatherProvider)
             runOnUiThread {
                 lifecycle.addObserver(mqttModule!!)
             }
@@ -250,11 +269,32 @@ class MainActivity : BaseActivity(), ViewPager.OnPageChangeListener, ControlsFra
             runOnUiThread {
                 lifecycle.addObserver(cameraModule!!)
             }
+            if (viewModel.getAlarmMode() != AlarmUtils.MODE_DISARM) {
+                cameraModule?.warmUp()
+            }
         }
 
-        if (motionSensorModule == null) {
-            motionSensorModule = MotionSensor(this, MotionSensor.MOTION_SENSOR_GPIO_PIN)
-            lifecycle.addObserver(motionSensorModule!!)
+        if (cameraModule != null && configuration.cameraMotion) {
+            cameraModule?.startMotionDetection(cameraMotionListener)
+        } else {
+            cameraModule?.stopMotionDetection()
+        }
+
+        // the sensors are set up again when their settings change
+        val sensorConfig = configuration.sensorInputs + ":" + configuration.sensorDebounceTime + ":" +
+                configuration.sensorReleaseTime + ":" + configuration.sensorHoldTime
+        if (motionSensorModule == null || sensorConfig != motionSensorConfig) {
+            val oldSensorModule = motionSensorModule
+            motionSensorConfig = sensorConfig
+            motionSensorModule = MotionSensor(this, configuration.getSensorInputMap(),
+                    configuration.getSensorSettings(), sensorZoneListener)
+            runOnUiThread {
+                if (oldSensorModule != null) {
+                    lifecycle.removeObserver(oldSensorModule)
+                    oldSensorModule.stop()
+                }
+                lifecycle.addObserver(motionSensorModule!!)
+            }
         }
     }
 
@@ -265,17 +305,15 @@ class MainActivity : BaseActivity(), ViewPager.OnPageChangeListener, ControlsFra
 
     override fun handleNetworkConnect() {
         Timber.d("handleNetworkConnect")
-        if (mqttModule != null && !hasNetworkConnectivity()) {
-            mqttModule?.restart()
+        if (mqttModule != null) {
+            mqttModule?.reconnect()
         }
         super.handleNetworkConnect()
     }
 
     override fun handleNetworkDisconnect() {
         Timber.d("handleNetworkDisconnect")
-        if (mqttModule != null && hasNetworkConnectivity()) {
-            mqttModule?.pause()
-        }
+        // the MQTT service keeps its queued commands and reconnects with backoff on its own
         super.handleNetworkDisconnect()
     }
 
@@ -291,29 +329,67 @@ class MainActivity : BaseActivity(), ViewPager.OnPageChangeListener, ControlsFra
         }
     }
 
+    // camera motion is reported on the camera thread
+    private val cameraMotionListener = object : MotionSensor.MotionListener {
+        override fun onMotionDetected() {
+            publishCameraMotion(MotionSensor.MOTION_ON)
+            runOnUiThread { this@MainActivity.onMotionDetected() }
+        }
+
+        override fun onMotionStopped() {
+            publishCameraMotion(MotionSensor.MOTION_OFF)
+            runOnUiThread { this@MainActivity.onMotionStopped() }
+        }
+    }
+
+    private fun publishCameraMotion(payload: String) {
+        val topic = mqttOptions.getMotionTopic()
+        if (!TextUtils.isEmpty(topic)) {
+            mqttModule?.publish(topic, payload, MotionSensor.MOTION_QOS, false)
+        }
+    }
+
+    // sensor zones are reported in batches on the sensor thread
+    private val sensorZoneListener = object : MotionSensor.ZoneListener {
+        override fun onZoneStates(states: Map<String, Boolean>) {
+            val topic = mqttOptions.getSensorPublishTopic()
+            if (TextUtils.isEmpty(topic)) return
+            for ((zone, active) in states) {
+                val payload = if (active) MotionSensor.MOTION_ON else MotionSensor.MOTION_OFF
+                mqttModule?.publish(topic + "/" + zone, payload, MotionSensor.MOTION_QOS, false)
+            }
+        }
+    }
+
     private fun captureImage() {
         if (cameraModule != null && viewModel.hasCamera()) {
             cameraModule?.takePicture(configuration.getCameraRotate()!!)
         }
     }
 
-    override fun onMQTTMessage(id: String, topic: String, payload: String) {
-        if(mqttOptions.getNotificationTopic() == topic) {
-            this@MainActivity.runOnUiThread {
-                awakenDeviceForAction()
-                if (viewModel.hasAlerts()) {
-                    dialogUtils.showAlertDialog(this@MainActivity, payload)
-                }
-                if (textToSpeechModule != null && viewModel.hasTss()) {
-                    textToSpeechModule!!.speakText(payload)
-                }
+    /**
+     * Frames from just before and after the disarm, the person at the keypad may have
+     * already turned away by the time a single photo is taken.
+     */
+    private fun captureBurst() {
+        if (cameraModule != null && viewModel.hasCamera()) {
+            cameraModule?.takeBurst(configuration.getCameraRotate()!!)
+        }
+    }
+
+    override fun onMQTTMessage(id: String, topic: String, type: String, payload: String) {
+        if(NOTIFICATION_TYPE == type) {
+            awakenDeviceForAction()
+            if (viewModel.hasAlerts()) {
+                dialogUtils.showAlertDialog(this@MainActivity, payload)
             }
-        } else if(mqttOptions.getCameraTopic() == topic) {
-            this@MainActivity.runOnUiThread {
-                captureImage()
+            if (textToSpeechModule != null && viewModel.hasTss()) {
+                textToSpeechModule!!.speakText(payload)
             }
+        } else if(IMAGE_CAPTURE_TYPE == type) {
+            captureImage()
         }
-       viewModel.insertMessage(id, topic, payload)
+       viewModel.insertMessage(id, topic, type, payload)
     }
 
     override fun onMQTTException(message: String) {
@@ -329,7 +405,7 @@ class MainActivity : BaseActivity(), ViewPager.OnPageChangeListener, ControlsFra
             if(hasNetworkConnectivity() ) {
                 dialogUtils.showAlertDialog(this@MainActivity, getString(R.string.error_mqtt_connection), DialogInterface.OnClickListener { _, _ ->
                     if (mqttModule != null) {
-                        mqttModule!!.restart()
+                        mqttModule!!.reconnect()
                     }
                 })
             }
@@ -342,8 +418,8 @@ class MainActivity : BaseActivity(), ViewPager.OnPageChangeListener, ControlsFra
         }
     }
 
-    override fun onCameraComplete(bitmap: Bitmap) {
-        viewModel.sendCapturedImage(bitmap)
+    override fun onCameraComplete(image: JpegImage) {
+        viewModel.sendCapturedImage(image)
     }
 
     override fun onPageScrolled(position: Int, positionOffset: Float, positionOffsetPixels: Int) {
@@ -1,19 +1,18 @@
 package com.thanksmister.iot.mqtt.alarmpanel.ui.adapters
 
-import android.support.v4.content.res.ResourcesCompat
 import android.support.v7.widget.RecyclerView
 import android.view.LayoutInflater
 import android.view.View
 import android.view.ViewGroup
 
 import com.thanksmister.iot.mqtt.alarmpanel.R
-import com.thanksmister.iot.mqtt.alarmpanel.network.model.Datum
+import com.thanksmister.iot.mqtt.alarmpanel.persistence.Forecast
 import com.thanksmister.iot.mqtt.alarmpanel.utils.DateUtils
 import com.thanksmister.iot.mqtt.alarmpanel.utils.WeatherUtils
 
 import kotlinx.android.synthetic.main.adapter_forcast_card.view.*
 
-class ForecastCardAdapter(private val items: List<Datum>?) : RecyclerView.Adapter<ForecastCardAdapter.ViewHolder>() {
+class ForecastCardAdapter(private val items: List<Forecast>?) : RecyclerView.Adapter<ForecastCardAdapter.ViewHolder>() {
 
     override fun onCreateViewHolder(parent: ViewGroup, viewType: Int): ForecastCardAdapter.ViewHolder {
         val v = LayoutInflater.from(parent.context).inflate(R.layout.adapter_forcast_card, parent, false)
@@ -30,14 +29,13 @@ class ForecastCardAdapter(private val items: List<Datum>?) : RecyclerView.Adapte
     }
 
     class ViewHolder(itemView: View) : RecyclerView.ViewHolder(itemView) {
-        fun bindItems(datum: Datum) {
-            val highTemp = Math.round(datum.apparentTemperatureMax!!).toString()
-            val lowTemp = Math.round(datum.apparentTemperatureMin!!).toString()
+        fun bindItems(forecast: Forecast) {
+            val highTemp = Math.round(forecast.apparentTemperatureMax).toString()
+            val lowTemp = Math.round(forecast.apparentTemperatureMin).toString()
             itemView.temperatureText.text = itemView.context.getString(R.string.text_temperature_range, highTemp, lowTemp)
-            itemView.dayText.text = DateUtils.dayOfWeek(datum.time!!)
-            itemView.outlookText.text = datum.summary
-            itemView.iconImage.setImageDrawable(ResourcesCompat.getDrawable(itemView.context.resources,
-                    WeatherUtils.getIconForWeatherCondition(datum.icon), itemView.context.theme))
+            itemView.dayText.text = DateUtils.dayOfWeek(forecast.day)
+            itemView.outlookText.text = forecast.summary
+            itemView.iconImage.setImageDrawable(WeatherUtils.getWeatherIcon(itemView.context, forecast.icon, false))
         }
     }
 }
\ No newline at end of file
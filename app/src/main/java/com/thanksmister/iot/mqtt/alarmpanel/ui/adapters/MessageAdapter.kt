@@ -16,6 +16,7 @@
 
 package com.thanksmister.iot.mqtt.alarmpanel.ui.adapters
 
+import android.support.v7.util.DiffUtil
 import android.support.v7.widget.RecyclerView
 import android.view.LayoutInflater
 import android.view.View
@@ -25,7 +26,14 @@ import com.thanksmister.iot.mqtt.alarmpanel.persistence.Message
 import com.thanksmister.iot.mqtt.alarmpanel.utils.DateUtils
 import kotlinx.android.synthetic.main.adapter_data_row.view.*
 
-class MessageAdapter(private val items: List<Message>?) : RecyclerView.Adapter<MessageAdapter.ViewHolder>() {
+class MessageAdapter(items: List<Message>?) : RecyclerView.Adapter<MessageAdapter.ViewHolder>() {
+
+    /**
+     * The changes from one list of messages to the next, worked out by [diff].
+     */
+    class Update(val oldItems: List<Message>, val newItems: List<Message>, val result: DiffUtil.DiffResult?)
+
+    private var items: List<Message> = items ?: emptyList()
 
     override fun onCreateViewHolder(parent: ViewGroup, viewType: Int): MessageAdapter.ViewHolder {
         val v = LayoutInflater.from(parent.context).inflate(R.layout.adapter_data_row, parent, false)
@@ -33,12 +41,39 @@ class MessageAdapter(private val items: List<Message>?) : RecyclerView.Adapter<M
     }
 
     override fun getItemCount(): Int {
-        if (items == null) return 0
-        return if (items.isNotEmpty()) items.size else 0
+        return items.size
+    }
+
+    /**
+     * The uid of the oldest message shown, the list is ordered newest first.
+     */
+    fun getOldestUid(): Int? {
+        return items.lastOrNull()?.uid
     }
 
     override fun onBindViewHolder(holder: MessageAdapter.ViewHolder, position: Int) {
-        holder.bindItems(items!![position])
+        holder.bindItems(items[position])
+    }
+
+    /**
+     * Replace the messages, all rows are rebound.
+     */
+    fun setItems(newItems: List<Message>) {
+        items = newItems
+        notifyDataSetChanged()
+    }
+
+    /**
+     * Apply changes worked out off the main thread, only the rows that changed are rebound.
+     * Falls back to rebinding everything if the messages shown aren't the ones diffed against.
+     */
+    fun setItems(update: Update) {
+        if (update.result == null || items !== update.oldItems) {
+            setItems(update.newItems)
+            return
+        }
+        items = update.newItems
+        update.result.dispatchUpdatesTo(this)
     }
 
     class ViewHolder(itemView: View) : RecyclerView.ViewHolder(itemView) {
@@ -46,7 +81,29 @@ class MessageAdapter(private val items: List<Message>?) : RecyclerView.Adapter<M
             itemView.typeText.text = item.type
             itemView.topicText.text = item.topic
             itemView.messageText.text = item.payload
-            itemView.dateText.text = DateUtils.parseCreatedAtDate(item.createdAt)
+            itemView.dateText.text = item.createdAtDisplay ?: DateUtils.parseCreatedAtDate(item.createdAt)
+        }
+    }
+
+    companion object {
+
+        /**
+         * Work out the changes between two lists of messages, call this off the main thread.
+         */
+        fun diff(oldItems: List<Message>, newItems: List<Message>): Update {
+            val result = DiffUtil.calculateDiff(object : DiffUtil.Callback() {
+                override fun getOldListSize(): Int = oldItems.size
+                override fun getNewListSize(): Int = newItems.size
+                override fun areItemsTheSame(oldPosition: Int, newPosition: Int): Boolean {
+                    return oldItems[oldPosition].uid == newItems[newPosition].uid
+                }
+                override fun areContentsTheSame(oldPosition: Int, newPosition: Int): Boolean {
+                    val oldItem = oldItems[oldPosition]
+                    val newItem = newItems[newPosition]
+                    return oldItem.payload == newItem.payload && oldItem.createdAt == newItem.createdAt
+                }
+            })
+            return Update(oldItems, newItems, result)
         }
     }
-}
\ No newline at end of file
+}
@@ -52,6 +52,8 @@ class CameraSettingsFragment : PreferenceFragmentCompat(), SharedPreferences.OnS
     private var telegramChatIdPreference: EditTextPreference? = null
     private var mqttImagePreference: CheckBoxPreference? = null
     private var mqttImageTopicPreference: EditTextPreference? = null
+    private var motionPreference: CheckBoxPreference? = null
+    private var motionTopicPreference: EditTextPreference? = null
     private var notesPreference: Preference? = null
 
     override fun onAttach(context: Context) {
@@ -87,6 +89,8 @@ class CameraSettingsFragment : PreferenceFragmentCompat(), SharedPreferences.OnS
 
         mqttImagePreference = findPreference(Configuration.PREF_MQTT_IMAGE) as CheckBoxPreference
         mqttImageTopicPreference = findPreference(Configuration.PREF_MQTT_IMAGE_TOPIC) as EditTextPreference
+        motionPreference = findPreference(Configuration.PREF_CAMERA_MOTION) as CheckBoxPreference
+        motionTopicPreference = findPreference(Configuration.PREF_CAMERA_MOTION_TOPIC) as EditTextPreference
         telegramChatIdPreference = findPreference(Configuration.PREF_TELEGRAM_CHAT_ID) as EditTextPreference
         telegramTokenPreference = findPreference(Configuration.PREF_TELEGRAM_TOKEN) as EditTextPreference
         tolPreference = findPreference(Configuration.PREF_MAIL_TO) as EditTextPreference
@@ -135,6 +139,12 @@ class CameraSettingsFragment : PreferenceFragmentCompat(), SharedPreferences.OnS
             mqttImageTopicPreference!!.summary = mqttOptions.getCameraTopic()
         }
 
+        if (!TextUtils.isEmpty(mqttOptions.getMotionTopic())) {
+            motionTopicPreference!!.text = mqttOptions.getMotionTopic()
+            motionTopicPreference!!.summary = mqttOptions.getMotionTopic()
+        }
+
+        motionPreference!!.isChecked = configuration.cameraMotion
         mqttImagePreference!!.isChecked = configuration.mqttImage
         rotatePreference!!.setDefaultValue(configuration.getCameraRotate())
         rotatePreference!!.value = configuration.getCameraRotate().toString()
@@ -200,6 +210,19 @@ class CameraSettingsFragment : PreferenceFragmentCompat(), SharedPreferences.OnS
                 mqttOptions!!.setCaptureTopic(value)
                 mqttImageTopicPreference!!.summary = value
             }
+            Configuration.PREF_CAMERA_MOTION -> {
+                val checked = motionPreference!!.isChecked
+                configuration.cameraMotion = checked
+            }
+            Configuration.PREF_CAMERA_MOTION_TOPIC -> {
+                val value = motionTopicPreference!!.text ?: ""
+                if (value.contains("+") || value.contains("#")) {
+                    dialogUtils.showAlertDialog(activity as BaseActivity, getString(R.string.text_error_invalid_publish_topic))
+                    return
+                }
+                mqttOptions.setMotionTopic(value)
+                motionTopicPreference!!.summary = if (TextUtils.isEmpty(value)) getString(R.string.preference_camera_motion_topic_summary) else value
+            }
         }
     }
 }
\ No newline at end of file
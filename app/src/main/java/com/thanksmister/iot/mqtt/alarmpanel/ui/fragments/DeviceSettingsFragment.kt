@@ -19,6 +19,7 @@ package com.thanksmister.iot.mqtt.alarmpanel.ui.fragments
 import android.os.Bundle
 import android.support.v14.preference.SwitchPreference
 import android.support.v7.preference.CheckBoxPreference
+import android.support.v7.preference.EditTextPreference
 import android.support.v7.preference.ListPreference
 import android.support.v7.preference.Preference
 import android.support.v7.preference.Preference.OnPreferenceClickListener
@@ -32,6 +33,7 @@ import com.google.android.things.update.UpdateManagerStatus
 import com.google.android.things.update.UpdatePolicy.POLICY_APPLY_AND_REBOOT
 import com.thanksmister.iot.mqtt.alarmpanel.BaseActivity
 import com.thanksmister.iot.mqtt.alarmpanel.R
+import com.thanksmister.iot.mqtt.alarmpanel.network.MQTTOptions
 import com.thanksmister.iot.mqtt.alarmpanel.ui.Configuration
 import com.thanksmister.iot.mqtt.alarmpanel.ui.Configuration.Companion.PREF_DAY_NIGHT_MODE
 import com.thanksmister.iot.mqtt.alarmpanel.ui.Configuration.Companion.PREF_DEVICE_SCREEN_BRIGHTNESS
@@ -39,6 +41,10 @@ import com.thanksmister.iot.mqtt.alarmpanel.ui.Configuration.Companion.PREF_DEVI
 import com.thanksmister.iot.mqtt.alarmpanel.ui.Configuration.Companion.PREF_DEVICE_TIME_FORMAT
 import com.thanksmister.iot.mqtt.alarmpanel.ui.Configuration.Companion.PREF_DEVICE_TIME_SERVER
 import com.thanksmister.iot.mqtt.alarmpanel.ui.Configuration.Companion.PREF_DEVICE_TIME_ZONE
+import com.thanksmister.iot.mqtt.alarmpanel.ui.Configuration.Companion.PREF_SENSOR_DEBOUNCE_TIME
+import com.thanksmister.iot.mqtt.alarmpanel.ui.Configuration.Companion.PREF_SENSOR_HOLD_TIME
+import com.thanksmister.iot.mqtt.alarmpanel.ui.Configuration.Companion.PREF_SENSOR_INPUTS
+import com.thanksmister.iot.mqtt.alarmpanel.ui.Configuration.Companion.PREF_SENSOR_RELEASE_TIME
 import com.thanksmister.iot.mqtt.alarmpanel.ui.views.NetworkSettingsView
 import com.thanksmister.iot.mqtt.alarmpanel.utils.DialogUtils
 import com.thanksmister.iot.mqtt.alarmpanel.utils.NetworkUtils
@@ -64,6 +70,7 @@ class DeviceSettingsFragment : PreferenceFragmentCompat(), SharedPreferences.OnS
 
     @Inject lateinit var configuration: Configuration
     @Inject lateinit var dialogUtils: DialogUtils
+    @Inject lateinit var mqttOptions: MQTTOptions
 
     private var portraitPreference: CheckBoxPreference? = null
     private var dayNightPreference: CheckBoxPreference? = null
@@ -76,6 +83,11 @@ class DeviceSettingsFragment : PreferenceFragmentCompat(), SharedPreferences.OnS
     private var endTimePreference: Preference? = null
     private var brightnessPreference: ListPreference? = null
     private var timeZonePreference: ListPreference? = null
+    private var sensorInputsPreference: EditTextPreference? = null
+    private var debouncePreference: EditTextPreference? = null
+    private var releasePreference: EditTextPreference? = null
+    private var holdPreference: EditTextPreference? = null
+    private var sensorTopicPreference: EditTextPreference? = null
     private val timeManager = TimeManager.getInstance()
     private var notConnectedMessageShown = false
     private var receiverRegistered = false
@@ -166,6 +178,28 @@ class DeviceSettingsFragment : PreferenceFragmentCompat(), SharedPreferences.OnS
             networkPreference?.summary = getString(R.string.pref_wifi_settings_summary_filled, prefix, currentNetworkName)
         }
 
+        sensorInputsPreference = findPreference(PREF_SENSOR_INPUTS) as EditTextPreference
+        sensorInputsPreference!!.text = configuration.sensorInputs
+        sensorInputsPreference!!.summary = getString(R.string.pref_sensor_inputs_summary, configuration.sensorInputs)
+
+        debouncePreference = findPreference(PREF_SENSOR_DEBOUNCE_TIME) as EditTextPreference
+        debouncePreference!!.text = configuration.sensorDebounceTime.toString()
+        debouncePreference!!.summary = getString(R.string.pref_sensor_debounce_summary, configuration.sensorDebounceTime.toString())
+
+        releasePreference = findPreference(PREF_SENSOR_RELEASE_TIME) as EditTextPreference
+        releasePreference!!.text = configuration.sensorReleaseTime.toString()
+        releasePreference!!.summary = getString(R.string.pref_sensor_release_summary, configuration.sensorReleaseTime.toString())
+
+        holdPreference = findPreference(PREF_SENSOR_HOLD_TIME) as EditTextPreference
+        holdPreference!!.text = configuration.sensorHoldTime.toString()
+        holdPreference!!.summary = getString(R.string.pref_sensor_hold_summary, configuration.sensorHoldTime.toString())
+
+        sensorTopicPreference = findPreference(MQTTOptions.PREF_SENSOR_PUBLISH_TOPIC) as EditTextPreference
+        if (!TextUtils.isEmpty(mqttOptions.getSensorPublishTopic())) {
+            sensorTopicPreference!!.text = mqttOptions.getSensorPublishTopic()
+            sensorTopicPreference!!.summary = mqttOptions.getSensorPublishTopic()
+        }
+
         timeZonePreference = findPreference(PREF_DEVICE_TIME_ZONE) as ListPreference
         timeZonePreference!!.setDefaultValue(configuration.timeZone)
         timeZonePreference!!.value = configuration.timeZone
@@ -263,7 +297,51 @@ class DeviceSettingsFragment : PreferenceFragmentCompat(), SharedPreferences.OnS
                 configuration.useNightDayMode = checked
                 configuration.nightModeChanged = true
             }
+            PREF_SENSOR_INPUTS -> {
+                val value = sensorInputsPreference!!.text ?: ""
+                configuration.sensorInputs = value
+                sensorInputsPreference!!.summary = getString(R.string.pref_sensor_inputs_summary, value)
+            }
+            PREF_SENSOR_DEBOUNCE_TIME -> {
+                val value = readTime(debouncePreference!!, configuration.sensorDebounceTime)
+                configuration.sensorDebounceTime = value
+                debouncePreference!!.summary = getString(R.string.pref_sensor_debounce_summary, value.toString())
+            }
+            PREF_SENSOR_RELEASE_TIME -> {
+                val value = readTime(releasePreference!!, configuration.sensorReleaseTime)
+                configuration.sensorReleaseTime = value
+                releasePreference!!.summary = getString(R.string.pref_sensor_release_summary, value.toString())
+            }
+            PREF_SENSOR_HOLD_TIME -> {
+                val value = readTime(holdPreference!!, configuration.sensorHoldTime)
+                configuration.sensorHoldTime = value
+                holdPreference!!.summary = getString(R.string.pref_sensor_hold_summary, value.toString())
+            }
+            MQTTOptions.PREF_SENSOR_PUBLISH_TOPIC -> {
+                val value = sensorTopicPreference!!.text ?: ""
+                if (value.contains("+") || value.contains("#")) {
+                    dialogUtils.showAlertDialog(activity as BaseActivity, getString(R.string.text_error_invalid_publish_topic))
+                    return
+                }
+                mqttOptions.setSensorPublishTopic(value)
+                sensorTopicPreference!!.summary = if (TextUtils.isEmpty(value)) getString(R.string.pref_sensor_publish_topic_summary) else value
+            }
+        }
+    }
+
+    /**
+     * The number of milliseconds entered, or the current value if it isn't a number.
+     */
+    private fun readTime(preference: EditTextPreference, current: Int): Int {
+        val value = preference.text ?: ""
+        if (value.matches("[0-9]+".toRegex())) {
+            return Integer.parseInt(value)
+        }
+        if (isAdded) {
+            Toast.makeText(activity, R.string.text_error_only_numbers, Toast.LENGTH_LONG).show()
         }
+        preference.text = current.toString()
+        return current
     }
 
     private fun showNetworkDialog() {
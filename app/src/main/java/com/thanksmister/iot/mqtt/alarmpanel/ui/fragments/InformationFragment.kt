@@ -23,7 +23,6 @@ import android.arch.lifecycle.ViewModelProviders
 import android.os.Bundle
 import android.os.Handler
 import android.os.Looper.getMainLooper
-import android.support.v4.content.res.ResourcesCompat
 import android.view.LayoutInflater
 import android.view.View
 import android.view.ViewGroup
@@ -31,7 +30,7 @@ import android.widget.Toast
 import com.thanksmister.iot.mqtt.alarmpanel.BaseActivity
 import com.thanksmister.iot.mqtt.alarmpanel.BaseFragment
 import com.thanksmister.iot.mqtt.alarmpanel.R
-import com.thanksmister.iot.mqtt.alarmpanel.network.model.Datum
+import com.thanksmister.iot.mqtt.alarmpanel.persistence.Forecast
 import com.thanksmister.iot.mqtt.alarmpanel.ui.Configuration
 import com.thanksmister.iot.mqtt.alarmpanel.utils.DialogUtils
 import com.thanksmister.iot.mqtt.alarmpanel.viewmodel.WeatherViewModel
@@ -41,9 +40,7 @@ import kotlinx.android.synthetic.main.fragment_information.*
 import java.text.DateFormat
 import java.util.*
 import javax.inject.Inject
-import com.google.gson.Gson
-import com.google.gson.reflect.TypeToken
-import com.thanksmister.iot.mqtt.alarmpanel.network.DarkSkyRequest
+import com.thanksmister.iot.mqtt.alarmpanel.network.DarkSkyOptions
 import com.thanksmister.iot.mqtt.alarmpanel.utils.WeatherUtils
 import timber.log.Timber
 
@@ -53,7 +50,7 @@ class InformationFragment : BaseFragment() {
     @Inject lateinit var dialogUtils: DialogUtils
     @Inject lateinit var weatherViewModel: WeatherViewModel
 
-    private var forecastList: List<Datum> = Collections.emptyList()
+    private var forecastList: List<Forecast> = Collections.emptyList()
     private var timeHandler: Handler? = null
 
     private val timeRunnable = object : Runnable {
@@ -96,14 +93,14 @@ class InformationFragment : BaseFragment() {
             connectWeatherModule()
             weatherLayout.visibility = View.VISIBLE
         } else {
-            weatherViewModel.onCleared()
+            weatherViewModel.stopForecastUpdates()
             weatherLayout.visibility = View.GONE
         }
     }
 
     override fun onPause() {
         super.onPause()
-        weatherViewModel.onCleared()
+        weatherViewModel.stopForecastUpdates()
     }
 
     override fun onDetach() {
@@ -131,27 +128,26 @@ class InformationFragment : BaseFragment() {
                                 (activity as BaseActivity).runOnUiThread {
                                     weatherLayout.visibility = View.VISIBLE
                                     outlookText.text = item.summary
-                                    val displayUnits = if (item.units == DarkSkyRequest.UNITS_US) getString(R.string.text_f) else getString(R.string.text_c)
+                                    val displayUnits = if (item.units == DarkSkyOptions.UNITS_US) getString(R.string.text_f) else getString(R.string.text_c)
                                     temperatureText.text = getString(R.string.text_temperature, item.apparentTemperature, displayUnits)
-                                    forecastList = Gson().fromJson(item.data, object : TypeToken<List<Datum>>(){}.type)
-                                    if (item.umbrella) {
-                                        conditionImage.setImageDrawable(ResourcesCompat.getDrawable(resources, R.drawable.ic_rain_umbrella, (activity as BaseActivity).theme))
-                                    } else {
-                                        conditionImage.setImageDrawable(ResourcesCompat.getDrawable(resources, WeatherUtils.getIconForWeatherCondition(item.icon), (activity as BaseActivity).theme))
-                                    }
+                                    conditionImage.setImageDrawable(WeatherUtils.getWeatherIcon(activity as BaseActivity, item.icon, item.umbrella))
                                 }
                             }
                         }
         )
+        disposable.add(
+                viewModel.getForecast()
+                        .subscribeOn(Schedulers.io())
+                        .observeOn(AndroidSchedulers.mainThread())
+                        .subscribe { items ->
+                            forecastList = items
+                        }
+        )
     }
 
     private fun connectWeatherModule() {
         Timber.d("connectWeatherModule")
-        val apiKey = readWeatherOptions().darkSkyKey
-        val units = readWeatherOptions().weatherUnits
-        val lat = readWeatherOptions().latitude
-        val lon = readWeatherOptions().longitude
-        weatherViewModel.getDarkSkyHourlyForecast(apiKey!!, units!!, lat!!, lon!!)
+        weatherViewModel.startForecastUpdates(readWeatherOptions())
     }
 
     companion object {
@@ -56,12 +56,24 @@ class LogFragment : BaseFragment() {
         observeViewModel(viewModel)
     }
 
+    private val messageAdapter = MessageAdapter(ArrayList<Message>())
+
     override fun onViewCreated(view: View, savedInstanceState: Bundle?) {
         super.onViewCreated(view, savedInstanceState)
         if (view is RecyclerView) {
             val context = view.getContext()
-            view.layoutManager = LinearLayoutManager(context)
-            view.adapter =  MessageAdapter(ArrayList<Message>())
+            val layoutManager = LinearLayoutManager(context)
+            view.layoutManager = layoutManager
+            view.adapter = messageAdapter
+            view.addOnScrollListener(object : RecyclerView.OnScrollListener() {
+                override fun onScrolled(recyclerView: RecyclerView, dx: Int, dy: Int) {
+                    val oldestUid = messageAdapter.getOldestUid()
+                    if (dy > 0 && oldestUid != null
+                            && layoutManager.findLastVisibleItemPosition() >= messageAdapter.itemCount - LOAD_MORE_THRESHOLD) {
+                        viewModel.loadMoreMessages(oldestUid)
+                    }
+                }
+            })
         }
     }
 
@@ -106,24 +118,29 @@ class LogFragment : BaseFragment() {
                         .subscribeOn(Schedulers.io())
                         .observeOn(AndroidSchedulers.mainThread())
                         .subscribe({
-                            logs_list.adapter = MessageAdapter(java.util.ArrayList<Message>())
-                            logs_list.invalidate()
+                            messageAdapter.setItems(java.util.ArrayList<Message>())
                         }, { error -> Timber.e("Unable to delete messages: " + error)}))
             })
         }
     }
 
     private fun observeViewModel(viewModel: MessageViewModel) {
+        // the diff against the previous list is worked out before reaching the main thread
         disposable.add(viewModel.getMessages()
+               .scan(MessageAdapter.Update(emptyList(), emptyList(), null), { previous, messages ->
+                   MessageAdapter.diff(previous.newItems, messages)
+               })
+               .skip(1)
                .subscribeOn(Schedulers.io())
                .observeOn(AndroidSchedulers.mainThread())
-               .subscribe({messages ->
-                   logs_list.adapter = MessageAdapter(messages)
-                   logs_list.invalidate()
+               .subscribe({update ->
+                   messageAdapter.setItems(update)
                }, { error -> Timber.e("Unable to get messages: " + error)}))
     }
 
     companion object {
+        const val LOAD_MORE_THRESHOLD: Int = 10
+
         /**
          * Use this factory method to create a new instance of
          * this fragment using the provided parameters.
@@ -23,6 +23,7 @@ import android.content.SharedPreferences
 import android.os.Bundle
 import android.support.v7.preference.CheckBoxPreference
 import android.support.v7.preference.EditTextPreference
+import android.support.v7.preference.ListPreference
 import android.support.v7.preference.PreferenceFragmentCompat
 import android.text.TextUtils
 import android.view.View
@@ -31,12 +32,19 @@ import com.thanksmister.iot.mqtt.alarmpanel.BaseActivity
 import com.thanksmister.iot.mqtt.alarmpanel.R
 import com.thanksmister.iot.mqtt.alarmpanel.network.MQTTOptions
 import com.thanksmister.iot.mqtt.alarmpanel.network.MQTTOptions.Companion.PREF_STATE_TOPIC
+import com.thanksmister.iot.mqtt.alarmpanel.network.MQTTOptions.Companion.PREF_SENSOR_TOPICS
+import com.thanksmister.iot.mqtt.alarmpanel.network.MQTTTopicRouter
 import com.thanksmister.iot.mqtt.alarmpanel.network.MQTTOptions.Companion.PREF_BROKER
+import com.thanksmister.iot.mqtt.alarmpanel.network.MQTTOptions.Companion.PREF_CAPTURE_QOS
+import com.thanksmister.iot.mqtt.alarmpanel.network.MQTTOptions.Companion.PREF_COMMAND_QOS
+import com.thanksmister.iot.mqtt.alarmpanel.network.MQTTOptions.Companion.PREF_NOTIFICATION_QOS
+import com.thanksmister.iot.mqtt.alarmpanel.network.MQTTOptions.Companion.PREF_STATE_QOS
 import com.thanksmister.iot.mqtt.alarmpanel.network.MQTTOptions.Companion.PREF_CLIENT_ID
 import com.thanksmister.iot.mqtt.alarmpanel.network.MQTTOptions.Companion.PREF_COMMAND_TOPIC
 import com.thanksmister.iot.mqtt.alarmpanel.network.MQTTOptions.Companion.PREF_PASSWORD
 import com.thanksmister.iot.mqtt.alarmpanel.network.MQTTOptions.Companion.PREF_PORT
 import com.thanksmister.iot.mqtt.alarmpanel.network.MQTTOptions.Companion.PREF_TLS_CONNECTION
+import com.thanksmister.iot.mqtt.alarmpanel.network.MQTTOptions.Companion.PREF_DISCOVERY
 import com.thanksmister.iot.mqtt.alarmpanel.network.MQTTOptions.Companion.PREF_USERNAME
 import com.thanksmister.iot.mqtt.alarmpanel.ui.Configuration
 import dagger.android.support.AndroidSupportInjection
@@ -52,9 +60,15 @@ class MqttSettingsFragment : PreferenceFragmentCompat(), SharedPreferences.OnSha
     private var portPreference: EditTextPreference? = null
     private var commandTopicPreference: EditTextPreference? = null
     private var stateTopicPreference: EditTextPreference? = null
+    private var sensorTopicsPreference: EditTextPreference? = null
     private var userNamePreference: EditTextPreference? = null
     private var sslPreference: CheckBoxPreference? = null
+    private var discoveryPreference: CheckBoxPreference? = null
     private var passwordPreference: EditTextPreference? = null
+    private var commandQosPreference: ListPreference? = null
+    private var stateQosPreference: ListPreference? = null
+    private var notificationQosPreference: ListPreference? = null
+    private var captureQosPreference: ListPreference? = null
 
 
     override fun onAttach(context: Context) {
@@ -93,18 +107,30 @@ class MqttSettingsFragment : PreferenceFragmentCompat(), SharedPreferences.OnSha
         portPreference = findPreference(PREF_PORT) as EditTextPreference
         commandTopicPreference = findPreference(PREF_COMMAND_TOPIC) as EditTextPreference
         stateTopicPreference = findPreference(PREF_STATE_TOPIC) as EditTextPreference
+        sensorTopicsPreference = findPreference(PREF_SENSOR_TOPICS) as EditTextPreference
         userNamePreference = findPreference(PREF_USERNAME) as EditTextPreference
         passwordPreference = findPreference(PREF_PASSWORD) as EditTextPreference
         sslPreference = findPreference(PREF_TLS_CONNECTION) as CheckBoxPreference
-        
+        discoveryPreference = findPreference(PREF_DISCOVERY) as CheckBoxPreference
+        commandQosPreference = findPreference(PREF_COMMAND_QOS) as ListPreference
+        stateQosPreference = findPreference(PREF_STATE_QOS) as ListPreference
+        notificationQosPreference = findPreference(PREF_NOTIFICATION_QOS) as ListPreference
+        captureQosPreference = findPreference(PREF_CAPTURE_QOS) as ListPreference
+
         brokerPreference!!.text = mqttOptions.getBroker()
         clientPreference!!.text = mqttOptions.getClientId()
         portPreference!!.text = mqttOptions.getPort().toString()
         commandTopicPreference!!.text = mqttOptions.getCommandTopic()
         stateTopicPreference!!.text = mqttOptions.getStateTopic()
+        sensorTopicsPreference!!.text = mqttOptions.getSensorTopicsValue()
         userNamePreference!!.text = mqttOptions.getUsername()
         passwordPreference!!.text = mqttOptions.getPassword()
         sslPreference!!.isChecked = mqttOptions.getTlsConnection()
+        discoveryPreference!!.isChecked = mqttOptions.getDiscovery()
+        setQosPreference(commandQosPreference!!, mqttOptions.getCommandQos())
+        setQosPreference(stateQosPreference!!, mqttOptions.getStateQos())
+        setQosPreference(notificationQosPreference!!, mqttOptions.getNotificationQos())
+        setQosPreference(captureQosPreference!!, mqttOptions.getCaptureQos())
 
         if (!TextUtils.isEmpty(mqttOptions.getBroker())) {
             brokerPreference!!.summary = mqttOptions.getBroker()
@@ -121,6 +147,9 @@ class MqttSettingsFragment : PreferenceFragmentCompat(), SharedPreferences.OnSha
         if (!TextUtils.isEmpty(mqttOptions.getStateTopic())) {
             stateTopicPreference!!.summary = mqttOptions.getStateTopic()
         }
+        if (!TextUtils.isEmpty(mqttOptions.getSensorTopicsValue())) {
+            sensorTopicsPreference!!.summary = mqttOptions.getSensorTopicsValue()
+        }
         if (!TextUtils.isEmpty(mqttOptions.getUsername())) {
             userNamePreference!!.summary = mqttOptions.getUsername()
         }
@@ -181,6 +210,17 @@ class MqttSettingsFragment : PreferenceFragmentCompat(), SharedPreferences.OnSha
                     stateTopicPreference!!.text = mqttOptions.getStateTopic()
                 }
             }
+            PREF_SENSOR_TOPICS -> {
+                value = sensorTopicsPreference!!.text
+                val topics = value.split(",").map { it.trim() }.filter { it.isNotEmpty() }
+                if (topics.all { MQTTTopicRouter.isValidFilter(it) }) {
+                    mqttOptions.setSensorTopics(topics.joinToString(","))
+                    sensorTopicsPreference!!.summary = if (topics.isEmpty()) getString(R.string.preference_summary_sensor_topics) else topics.joinToString(",")
+                } else if (isAdded) {
+                    Toast.makeText(activity, R.string.text_error_invalid_topic, Toast.LENGTH_LONG).show()
+                    sensorTopicsPreference!!.text = mqttOptions.getSensorTopicsValue()
+                }
+            }
             PREF_USERNAME -> {
                 value = userNamePreference!!.text
                 mqttOptions.setUsername(value)
@@ -195,9 +235,38 @@ class MqttSettingsFragment : PreferenceFragmentCompat(), SharedPreferences.OnSha
                 val checked = sslPreference!!.isChecked
                 mqttOptions.setTlsConnection(checked)
             }
+            PREF_DISCOVERY -> {
+                val checked = discoveryPreference!!.isChecked
+                mqttOptions.setDiscovery(checked)
+            }
+            PREF_COMMAND_QOS -> {
+                val qos = commandQosPreference!!.value.toInt()
+                mqttOptions.setCommandQos(qos)
+                commandQosPreference!!.summary = commandQosPreference!!.entry
+            }
+            PREF_STATE_QOS -> {
+                val qos = stateQosPreference!!.value.toInt()
+                mqttOptions.setStateQos(qos)
+                stateQosPreference!!.summary = stateQosPreference!!.entry
+            }
+            PREF_NOTIFICATION_QOS -> {
+                val qos = notificationQosPreference!!.value.toInt()
+                mqttOptions.setNotificationQos(qos)
+                notificationQosPreference!!.summary = notificationQosPreference!!.entry
+            }
+            PREF_CAPTURE_QOS -> {
+                val qos = captureQosPreference!!.value.toInt()
+                mqttOptions.setCaptureQos(qos)
+                captureQosPreference!!.summary = captureQosPreference!!.entry
+            }
         }
     }
 
+    private fun setQosPreference(preference: ListPreference, qos: Int) {
+        preference.value = qos.toString()
+        preference.summary = preference.entry
+    }
+
     private fun toStars(textToStars: String?): String {
         var text = textToStars
         val sb = StringBuilder()
@@ -32,14 +32,18 @@ import android.os.Handler
 import android.support.v7.app.AlertDialog
 import android.support.v7.preference.CheckBoxPreference
 import android.support.v7.preference.EditTextPreference
+import android.support.v7.preference.ListPreference
 import android.support.v7.preference.PreferenceFragmentCompat
 import android.text.TextUtils
 import android.view.View
+import android.webkit.URLUtil
 import android.widget.Toast
 
 import com.thanksmister.iot.mqtt.alarmpanel.BaseActivity
 import com.thanksmister.iot.mqtt.alarmpanel.R
 import com.thanksmister.iot.mqtt.alarmpanel.network.DarkSkyOptions
+import com.thanksmister.iot.mqtt.alarmpanel.network.MQTTOptions
+import com.thanksmister.iot.mqtt.alarmpanel.network.MQTTTopicRouter
 import com.thanksmister.iot.mqtt.alarmpanel.ui.Configuration
 import com.thanksmister.iot.mqtt.alarmpanel.utils.LocationUtils
 
@@ -52,8 +56,12 @@ import javax.inject.Inject
 class WeatherSettingsFragment : PreferenceFragmentCompat(), SharedPreferences.OnSharedPreferenceChangeListener {
 
     @Inject lateinit var configuration: Configuration
+    @Inject lateinit var mqttOptions: MQTTOptions
 
     private var weatherModulePreference: CheckBoxPreference? = null
+    private var weatherSourcePreference: ListPreference? = null
+    private var weatherServerPreference: EditTextPreference? = null
+    private var weatherTopicPreference: EditTextPreference? = null
     private var unitsPreference: CheckBoxPreference? = null
     private var weatherApiKeyPreference: EditTextPreference? = null
     private var weatherLatitude: EditTextPreference? = null
@@ -148,6 +156,9 @@ class WeatherSettingsFragment : PreferenceFragmentCompat(), SharedPreferences.On
         super.onViewCreated(view, savedInstanceState)
 
         weatherModulePreference = findPreference("pref_weather") as CheckBoxPreference
+        weatherSourcePreference = findPreference("pref_weather_source") as ListPreference
+        weatherServerPreference = findPreference("pref_weather_server") as EditTextPreference
+        weatherTopicPreference = findPreference(MQTTOptions.PREF_WEATHER_TOPIC) as EditTextPreference
         unitsPreference = findPreference("pref_units") as CheckBoxPreference
         weatherApiKeyPreference = findPreference("pref_weather_api_key") as EditTextPreference
         weatherLongitude = findPreference("pref_longitude") as EditTextPreference
@@ -157,6 +168,17 @@ class WeatherSettingsFragment : PreferenceFragmentCompat(), SharedPreferences.On
             weatherOptions = (activity as BaseActivity).readWeatherOptions()
         }
 
+        weatherSourcePreference!!.value = weatherOptions!!.weatherSource
+        weatherSourcePreference!!.summary = weatherSourcePreference!!.entry
+
+        weatherServerPreference!!.text = weatherOptions!!.serverUrl
+        weatherServerPreference!!.summary = weatherOptions!!.serverUrl
+
+        if (!TextUtils.isEmpty(mqttOptions.getWeatherTopic())) {
+            weatherTopicPreference!!.text = mqttOptions.getWeatherTopic()
+            weatherTopicPreference!!.summary = mqttOptions.getWeatherTopic()
+        }
+
         if (!TextUtils.isEmpty(weatherOptions!!.darkSkyKey)) {
             weatherApiKeyPreference!!.text = weatherOptions!!.darkSkyKey.toString()
             weatherApiKeyPreference!!.summary = weatherOptions!!.darkSkyKey.toString()
@@ -176,6 +198,9 @@ class WeatherSettingsFragment : PreferenceFragmentCompat(), SharedPreferences.On
 
         unitsPreference!!.isChecked = weatherOptions!!.getIsCelsius()
         unitsPreference!!.isEnabled = configuration.showWeatherModule()
+        weatherSourcePreference!!.isEnabled = configuration.showWeatherModule()
+        weatherServerPreference!!.isEnabled = configuration.showWeatherModule()
+        weatherTopicPreference!!.isEnabled = configuration.showWeatherModule()
         weatherApiKeyPreference!!.isEnabled = configuration.showWeatherModule()
         weatherLatitude!!.isEnabled = configuration.showWeatherModule()
         weatherLongitude!!.isEnabled = configuration.showWeatherModule()
@@ -187,6 +212,9 @@ class WeatherSettingsFragment : PreferenceFragmentCompat(), SharedPreferences.On
             "pref_weather" -> {
                 val checked = weatherModulePreference!!.isChecked
                 configuration.setShowWeatherModule(checked)
+                weatherSourcePreference!!.isEnabled = checked
+                weatherServerPreference!!.isEnabled = checked
+                weatherTopicPreference!!.isEnabled = checked
                 weatherApiKeyPreference!!.isEnabled = checked
                 weatherLatitude!!.isEnabled = checked
                 weatherLongitude!!.isEnabled = checked
@@ -195,6 +223,30 @@ class WeatherSettingsFragment : PreferenceFragmentCompat(), SharedPreferences.On
                     //setUpLocationMonitoring()
                 }
             }
+            "pref_weather_source" -> {
+                weatherOptions!!.setWeatherSource(weatherSourcePreference!!.value)
+                weatherSourcePreference!!.summary = weatherSourcePreference!!.entry
+            }
+            "pref_weather_server" -> {
+                val value = weatherServerPreference!!.text ?: ""
+                if (URLUtil.isNetworkUrl(value)) {
+                    weatherOptions!!.setServerUrl(value)
+                    weatherServerPreference!!.summary = value
+                } else if (isAdded) {
+                    Toast.makeText(activity, R.string.text_error_invalid_url, Toast.LENGTH_LONG).show()
+                    weatherServerPreference!!.text = weatherOptions!!.serverUrl
+                }
+            }
+            MQTTOptions.PREF_WEATHER_TOPIC -> {
+                val value = (weatherTopicPreference!!.text ?: "").trim()
+                if (value.isEmpty() || MQTTTopicRouter.isValidFilter(value)) {
+                    mqttOptions.setWeatherTopic(value)
+                    weatherTopicPreference!!.summary = if (value.isEmpty()) getString(R.string.preference_summary_weather_topic) else value
+                } else if (isAdded) {
+                    Toast.makeText(activity, R.string.text_error_invalid_topic, Toast.LENGTH_LONG).show()
+                    weatherTopicPreference!!.text = mqttOptions.getWeatherTopic()
+                }
+            }
             "pref_units" -> {
                 val useCelsius = unitsPreference!!.isChecked
                 weatherOptions!!.setIsCelsius(useCelsius)
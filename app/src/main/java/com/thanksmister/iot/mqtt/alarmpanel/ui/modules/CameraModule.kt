@@ -6,17 +6,18 @@ import android.arch.lifecycle.LifecycleObserver
 import android.arch.lifecycle.OnLifecycleEvent
 import android.content.Context
 import android.content.ContextWrapper
-import android.graphics.Bitmap
-import android.graphics.BitmapFactory
 import android.graphics.ImageFormat
-import android.graphics.Matrix
+import android.graphics.Rect
+import android.graphics.YuvImage
 import android.hardware.camera2.*
 import android.hardware.camera2.CameraAccessException.CAMERA_ERROR
 import android.media.ImageReader
 import android.os.Handler
+import android.os.SystemClock
 import android.view.SurfaceHolder
 import android.view.SurfaceView
 import com.thanksmister.iot.mqtt.alarmpanel.R
+import com.thanksmister.iot.mqtt.alarmpanel.utils.JpegImage
 import timber.log.Timber
 import android.hardware.camera2.CameraCharacteristics
 import android.hardware.camera2.CameraManager
@@ -25,18 +26,43 @@ import android.util.Rational
 
 /**
  * Module to take photo and email when alarm is disabled if camera available.
+ *
+ * While the alarm is armed the capture session can be kept warm with [warmUp], a repeating
+ * preview request into a small YUV reader keeps auto exposure and white balance converged
+ * so a still capture is a single request on an already configured session. All camera
+ * state is only touched on the background handler thread.
+ *
+ * While warm, preview frames are also kept in a [FrameRingBuffer] a few times a second,
+ * [takeBurst] hands on the frames from just before the event along with a few taken after.
+ *
+ * With [startMotionDetection] the preview also runs while disarmed, its luma plane is
+ * handed to a [MotionDetector] which reports through the same listener as the PIR sensor.
  */
 class CameraModule(base: Context?, private var backgroundHandler: Handler, private var callback: CallbackListener?) : ContextWrapper(base), LifecycleObserver {
 
     private var mImageReader: ImageReader? = null
+    private var mPreviewReader: ImageReader? = null
     private var mCameraDevice: CameraDevice? = null
     private var mCaptureSession: CameraCaptureSession? = null
     private var hasCamera:Boolean = false
     private var rotation:Float = 0f
     private var cameraId:String? = null
+    private var warm: Boolean = false
+    private var sessionPending: Boolean = false
+    private var capturePending: Boolean = false
+    private var captureRequestedTime: Long = 0
+    private var frameRing: FrameRingBuffer? = null
+    private var lastFrameTime: Long = 0
+    private var burstFramesRemaining = 0
+    private var motionDetector: MotionDetector? = null
+
+    // time from takePicture to the JPEG being available, in milliseconds
+    var lastCaptureLatency: Long = 0
+        private set
 
     interface CallbackListener {
-        fun onCameraComplete(bitmap: Bitmap)
+        // the receiver owns the image and must release it when done
+        fun onCameraComplete(image: JpegImage)
         fun onCameraException(message: String)
     }
 
@@ -64,6 +90,10 @@ class CameraModule(base: Context?, private var backgroundHandler: Handler, priva
                 ImageFormat.JPEG, MAX_IMAGES)
 
         mImageReader?.setOnImageAvailableListener(imageAvailableListener, backgroundHandler)
+        mPreviewReader = ImageReader.newInstance(PREVIEW_WIDTH, PREVIEW_HEIGHT,
+                ImageFormat.YUV_420_888, MAX_PREVIEW_IMAGES)
+        mPreviewReader?.setOnImageAvailableListener(previewAvailableListener, backgroundHandler)
+        frameRing = FrameRingBuffer(PREVIEW_WIDTH, PREVIEW_HEIGHT, BURST_FRAMES_BEFORE + BURST_FRAMES_AFTER)
         try {
             manager.openCamera(cameraId, mStateCallback, backgroundHandler)
             hasCamera = true;
@@ -77,41 +107,227 @@ class CameraModule(base: Context?, private var backgroundHandler: Handler, priva
     }
 
     private val imageAvailableListener = ImageReader.OnImageAvailableListener { reader ->
-        val image = reader.acquireLatestImage()
-        val imageBuffer = image.planes[0].buffer
-        val imageBytes = ByteArray(imageBuffer.remaining())
-        imageBuffer.get(imageBytes)
+        val image = reader.acquireLatestImage() ?: return@OnImageAvailableListener
+        if (captureRequestedTime > 0) {
+            lastCaptureLatency = SystemClock.elapsedRealtime() - captureRequestedTime
+            captureRequestedTime = 0
+            Timber.d("Capture latency: $lastCaptureLatency ms warm: $warm")
+        }
+        // the camera's JPEG is passed on as is, rotation only sets the EXIF orientation
+        val jpegImage = JpegImage.fromBuffer(image.planes[0].buffer, rotation)
+        image.close()
+        if (callback != null) {
+            callback?.onCameraComplete(jpegImage)
+        } else {
+            jpegImage.release()
+        }
+    }
+
+    // preview frames keep the 3A loops running, a few a second are kept for bursts
+    private val previewAvailableListener = ImageReader.OnImageAvailableListener { reader ->
+        val image = reader.acquireLatestImage() ?: return@OnImageAvailableListener
+        val now = SystemClock.elapsedRealtime()
+        val luma = image.planes[0]
+        motionDetector?.process(luma.buffer, luma.rowStride, now)
+        if (warm && frameRing != null && now - lastFrameTime >= BURST_INTERVAL) {
+            lastFrameTime = now
+            frameRing!!.write(image, image.timestamp)
+            if (burstFramesRemaining > 0) {
+                burstFramesRemaining--
+                if (burstFramesRemaining == 0) {
+                    deliverBurst()
+                }
+            }
+        }
         image.close()
-        val bitmap = getBitmapFromByteArray(imageBytes)
-        callback?.onCameraComplete(bitmap);
+    }
+
+    /**
+     * Hand on the buffered frames around this moment, falls back to a single still
+     * capture if the session isn't warm.
+     */
+    fun takeBurst(rotation: Float) {
+        captureRequestedTime = SystemClock.elapsedRealtime()
+        backgroundHandler.post {
+            if (!warm || frameRing == null || frameRing!!.size == 0) {
+                takePicture(rotation)
+            } else if (burstFramesRemaining == 0) {
+                this.rotation = rotation
+                burstFramesRemaining = BURST_FRAMES_AFTER
+            }
+        }
+    }
+
+    private fun deliverBurst() {
+        val ring = frameRing ?: return
+        burstFramesRemaining = 0
+        if (captureRequestedTime > 0) {
+            lastCaptureLatency = SystemClock.elapsedRealtime() - captureRequestedTime
+            captureRequestedTime = 0
+            Timber.d("Burst of ${ring.size} frames in $lastCaptureLatency ms")
+        }
+        val rect = Rect(0, 0, ring.width, ring.height)
+        for (i in 0 until ring.size) {
+            val writer = JpegImage.Writer(ring.width * ring.height / 2)
+            YuvImage(ring.getFrame(i), ImageFormat.NV21, ring.width, ring.height, null)
+                    .compressToJpeg(rect, JPEG_QUALITY, writer.outputStream)
+            val jpegImage = writer.finish(rotation)
+            if (callback != null) {
+                callback?.onCameraComplete(jpegImage)
+            } else {
+                jpegImage.release()
+            }
+        }
+        ring.clear()
     }
 
     fun takePicture(rotation: Float) {
-        this.rotation = rotation;
-        Timber.d("takePicture mCameraDevice" + mCameraDevice)
-        if(hasCamera) {
+        captureRequestedTime = SystemClock.elapsedRealtime()
+        backgroundHandler.post {
+            this.rotation = rotation
+            Timber.d("takePicture mCameraDevice" + mCameraDevice)
+            if (hasCamera) {
+                capturePending = true
+                if (mCaptureSession != null) {
+                    triggerImageCapture()
+                } else {
+                    createSession()
+                }
+            }
+        }
+    }
+
+    /**
+     * Keep a configured session with converged exposure so the next capture is fast,
+     * used while the alarm is armed or pending.
+     */
+    fun warmUp() {
+        backgroundHandler.removeCallbacks(coolDownRunnable)
+        backgroundHandler.post {
+            if (!warm) {
+                Timber.d("Warming up capture session")
+                warm = true
+                if (mCaptureSession != null) {
+                    startPreview()
+                } else {
+                    createSession()
+                }
+            }
+        }
+    }
+
+    /**
+     * Release the warm session after a short hold, so the capture that follows a disarm
+     * still finds the session ready.
+     */
+    fun coolDown() {
+        backgroundHandler.removeCallbacks(coolDownRunnable)
+        backgroundHandler.postDelayed(coolDownRunnable, WARM_HOLD_TIME)
+    }
+
+    /**
+     * Run the preview for motion detection, listener calls are made on the background
+     * handler thread.
+     */
+    fun startMotionDetection(listener: MotionSensor.MotionListener) {
+        backgroundHandler.post {
+            if (motionDetector == null) {
+                Timber.d("Starting motion detection")
+                motionDetector = MotionDetector(PREVIEW_WIDTH, PREVIEW_HEIGHT, listener)
+                if (mCaptureSession != null) {
+                    startPreview()
+                } else {
+                    createSession()
+                }
+            }
+        }
+    }
+
+    fun stopMotionDetection() {
+        backgroundHandler.post {
+            if (motionDetector != null) {
+                Timber.d("Stopping motion detection")
+                motionDetector?.reset()
+                motionDetector = null
+                if (!warm && !capturePending) {
+                    closeSession()
+                }
+            }
+        }
+    }
+
+    fun getMotionMetrics(): MotionDetector.Metrics? {
+        return motionDetector?.getMetrics()
+    }
+
+    private val coolDownRunnable = Runnable {
+        if (warm) {
+            Timber.d("Cooling down capture session")
+            if (burstFramesRemaining > 0) {
+                deliverBurst()
+            }
+            frameRing?.clear()
+            warm = false
+            if (!capturePending && motionDetector == null) {
+                closeSession()
+            }
+        }
+    }
+
+    private fun createSession() {
+        if (mCameraDevice == null || sessionPending) {
+            // the session is created once the camera has opened
+            return
+        }
+        sessionPending = true
+        try {
             mCameraDevice?.createCaptureSession(
-                    arrayListOf(mImageReader?.surface),
+                    arrayListOf(mImageReader?.surface, mPreviewReader?.surface),
                     mSessionCallback,
-                    null)
+                    backgroundHandler)
+        } catch (e: CameraAccessException) {
+            Timber.e("Unable to create capture session: " + e.message)
+            sessionPending = false
+        }
+    }
+
+    private fun startPreview() {
+        try {
+            val previewBuilder = mCameraDevice?.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW)
+            previewBuilder?.addTarget(mPreviewReader!!.surface)
+            previewBuilder?.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON)
+            previewBuilder?.set(CaptureRequest.CONTROL_AWB_MODE, CaptureRequest.CONTROL_AWB_MODE_AUTO)
+            mCaptureSession?.setRepeatingRequest(previewBuilder?.build(), null, backgroundHandler)
+        } catch (e: Exception) {
+            Timber.e("Unable to start preview: " + e.message)
         }
     }
 
-    // TODO this had to be moved to background thread
-    private fun getBitmapFromByteArray(imageBytes: ByteArray): Bitmap {
-        val bitmap = BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.size)
-        val matrix = Matrix()
-        matrix.postRotate(rotation)
-        return Bitmap.createBitmap(bitmap, 0, 0, bitmap.width, bitmap.height, matrix, true)
+    private fun closeSession() {
+        try {
+            mCaptureSession?.stopRepeating()
+        } catch (e: Exception) {
+            // session may already be closed
+        }
+        mCaptureSession?.close()
+        mCaptureSession = null
+        motionDetector?.reset()
+        Timber.d("Capture session closed")
     }
 
+
     private fun triggerImageCapture() {
         if(hasCamera) {
             val captureBuilder = mCameraDevice?.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE)
             captureBuilder?.addTarget(mImageReader!!.surface)
             captureBuilder?.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON)
             captureBuilder?.set(CaptureRequest.CONTROL_AWB_MODE, CaptureRequest.CONTROL_AWB_MODE_AUTO)
-            mCaptureSession?.capture(captureBuilder?.build(), mCaptureCallback, null)
+            try {
+                mCaptureSession?.capture(captureBuilder?.build(), mCaptureCallback, backgroundHandler)
+            } catch (e: Exception) {
+                Timber.e("Unable to capture: " + e.message)
+                capturePending = false
+            }
         }
     }
 
@@ -123,30 +339,40 @@ class CameraModule(base: Context?, private var backgroundHandler: Handler, priva
 
         override fun onCaptureFailed(session: CameraCaptureSession?, request: CaptureRequest?, failure: CaptureFailure?) {
             Timber.d("Capture session failed")
+            capturePending = false
             if(callback != null) {
                 callback!!.onCameraException(getString(R.string.text_camera_failed_session));
             }
         }
 
         override fun onCaptureCompleted(session: CameraCaptureSession?, request: CaptureRequest?, result: TotalCaptureResult?) {
-            session?.close()
-            mCaptureSession = null
-            Timber.d("Capture session closed")
+            capturePending = false
+            if (!warm && motionDetector == null) {
+                closeSession()
+            }
         }
     }
 
     private val mSessionCallback = object : CameraCaptureSession.StateCallback() {
         override fun onConfigureFailed(cameraCaptureSession: CameraCaptureSession?) {
             Timber.d("Failed to configure camera")
+            sessionPending = false
+            capturePending = false
             callback!!.onCameraException(getString(R.string.text_camera_failed_configuration));
         }
 
         override fun onConfigured(cameraCaptureSession: CameraCaptureSession?) {
+            sessionPending = false
             if (mCameraDevice == null) {
                 return
             }
             mCaptureSession = cameraCaptureSession
-            triggerImageCapture()
+            if (warm || motionDetector != null) {
+                startPreview()
+            }
+            if (capturePending) {
+                triggerImageCapture()
+            }
         }
     }
 
@@ -160,6 +386,9 @@ class CameraModule(base: Context?, private var backgroundHandler: Handler, priva
         override fun onOpened(cameraDevice: CameraDevice) {
             Timber.d("Opened camera.")
             mCameraDevice = cameraDevice
+            if (warm || capturePending || motionDetector != null) {
+                createSession()
+            }
         }
 
         override fun onDisconnected(cameraDevice: CameraDevice) {
@@ -170,17 +399,33 @@ class CameraModule(base: Context?, private var backgroundHandler: Handler, priva
         override fun onClosed(camera: CameraDevice) {
             Timber.d("Closed camera, releasing")
             mCameraDevice = null
+            mCaptureSession = null
+            sessionPending = false
         }
     }
 
     @OnLifecycleEvent(Lifecycle.Event.ON_DESTROY)
     fun stop() {
+        backgroundHandler.removeCallbacks(coolDownRunnable)
+        warm = false
+        motionDetector = null
+        mCaptureSession?.close()
+        mCaptureSession = null
         mCameraDevice?.close()
+        mPreviewReader?.close()
     }
 
     companion object InstanceHolder {
         val IMAGE_WIDTH = 640
         val IMAGE_HEIGHT = 480
         val MAX_IMAGES = 1
+        val PREVIEW_WIDTH = 640
+        val PREVIEW_HEIGHT = 480
+        val MAX_PREVIEW_IMAGES = 2
+        val WARM_HOLD_TIME: Long = 5000 // keep the session after disarm for the capture that follows
+        val BURST_INTERVAL: Long = 500
+        val BURST_FRAMES_BEFORE = 3
+        val BURST_FRAMES_AFTER = 2
+        val JPEG_QUALITY = 90
     }
 }
\ No newline at end of file
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2018 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.mqtt.alarmpanel.ui.modules
+
+import android.media.Image
+
+/**
+ * Fixed number of preallocated NV21 frame buffers, the newest frame overwrites the
+ * oldest. Buffers are allocated once and reused, so keeping a few seconds of frames
+ * while the alarm is armed doesn't allocate per frame.
+ */
+class FrameRingBuffer(val width: Int, val height: Int, val capacity: Int) {
+
+    private val frames = Array(capacity) { ByteArray(width * height * 3 / 2) }
+    private val timestamps = LongArray(capacity)
+    private var head = 0
+
+    var size = 0
+        private set
+
+    /**
+     * Copy a YUV_420_888 image into the next buffer as NV21.
+     */
+    fun write(image: Image, timestamp: Long) {
+        val index = (head + size) % capacity
+        copyToNv21(image, frames[index])
+        timestamps[index] = timestamp
+        if (size < capacity) {
+            size++
+        } else {
+            head = (head + 1) % capacity
+        }
+    }
+
+    /**
+     * The buffer for the frame at [position], 0 being the oldest. The buffer is reused
+     * once it is overwritten so it must be consumed before more frames are written.
+     */
+    fun getFrame(position: Int): ByteArray {
+        return frames[(head + position) % capacity]
+    }
+
+    fun getTimestamp(position: Int): Long {
+        return timestamps[(head + position) % capacity]
+    }
+
+    fun clear() {
+        head = 0
+        size = 0
+    }
+
+    private fun copyToNv21(image: Image, output: ByteArray) {
+        val planes = image.planes
+        val yPlane = planes[0]
+        val yBuffer = yPlane.buffer
+        var offset = 0
+        for (row in 0 until height) {
+            yBuffer.position(row * yPlane.rowStride)
+            yBuffer.get(output, offset, width)
+            offset += width
+        }
+        // NV21 interleaves the chroma planes as V then U
+        val uPlane = planes[1]
+        val vPlane = planes[2]
+        val uBuffer = uPlane.buffer
+        val vBuffer = vPlane.buffer
+        val chromaHeight = height / 2
+        val chromaWidth = width / 2
+        for (row in 0 until chromaHeight) {
+            for (col in 0 until chromaWidth) {
+                output[offset++] = vBuffer.get(row * vPlane.rowStride + col * vPlane.pixelStride)
+                output[offset++] = uBuffer.get(row * uPlane.rowStride + col * uPlane.pixelStride)
+            }
+        }
+    }
+}
@@ -21,18 +21,40 @@ import android.arch.lifecycle.LifecycleObserver
 import android.arch.lifecycle.OnLifecycleEvent
 import android.content.Context
 import android.content.ContextWrapper
+import android.os.Looper
+import com.thanksmister.iot.mqtt.alarmpanel.network.MQTTDiscovery
+import com.thanksmister.iot.mqtt.alarmpanel.network.MQTTDispatcher
 import com.thanksmister.iot.mqtt.alarmpanel.network.MQTTOptions
+import com.thanksmister.iot.mqtt.alarmpanel.network.MQTTPublisher
 import com.thanksmister.iot.mqtt.alarmpanel.network.MQTTService
-import com.thanksmister.iot.mqtt.alarmpanel.utils.AlarmUtils
+import com.thanksmister.iot.mqtt.alarmpanel.network.weather.MQTTWeatherProvider
+import com.thanksmister.iot.mqtt.alarmpanel.utils.ComponentUtils.WEATHER_TYPE
 import org.eclipse.paho.client.mqttv3.MqttException
 import timber.log.Timber
 
-class MQTTModule (base: Context?, var mqttOptions: MQTTOptions, private val listener: MQTTListener) : ContextWrapper(base),
+class MQTTModule (base: Context?, var mqttOptions: MQTTOptions, private val listener: MQTTListener,
+                  private val discovery: MQTTDiscovery? = null,
+                  private val weather: MQTTWeatherProvider? = null) : ContextWrapper(base),
         LifecycleObserver,
         MQTTService.MqttManagerListener {
 
     private var mqttService: MQTTService? = null
 
+    // messages arrive on the MQTT threads and are handed to the listener on the main thread
+    private val dispatcher = MQTTDispatcher(Looper.getMainLooper(), object : MQTTDispatcher.Consumer {
+        override fun onMessage(id: String, topic: String, type: String, payload: String) {
+            listener.onMQTTMessage(id, topic, type, payload)
+        }
+    })
+
+    // state from local peripherals is batched and sent over the same connection
+    private val publisher = MQTTPublisher(object : MQTTPublisher.Sender {
+        override fun send(topic: String, payload: String, qos: Int, retain: Boolean,
+                          callback: MQTTPublisher.DeliveryCallback): Int {
+            return mqttService?.publish(topic, payload, qos, retain, callback) ?: MQTTPublisher.SEND_NOT_CONNECTED
+        }
+    })
+
     init {
     }
 
@@ -69,6 +91,15 @@ class MQTTModule (base: Context?, var mqttOptions: MQTTOptions, private val list
             }
             mqttService = null
         }
+        dispatcher.clear()
+    }
+
+    fun getDispatchMetrics(): MQTTDispatcher.Metrics {
+        return dispatcher.getMetrics()
+    }
+
+    fun getPublishMetrics(): MQTTPublisher.Metrics {
+        return publisher.getMetrics()
     }
 
     fun restart() {
@@ -77,6 +108,19 @@ class MQTTModule (base: Context?, var mqttOptions: MQTTOptions, private val list
         start()
     }
 
+    /**
+     * Reconnect the existing service without tearing it down, the service backs off
+     * on its own so this only shortcuts the wait when we know the network is back.
+     */
+    fun reconnect() {
+        Timber.d("reconnect")
+        if (mqttService == null) {
+            start()
+        } else {
+            mqttService!!.reconnect()
+        }
+    }
+
     //@OnLifecycleEvent(Lifecycle.Event.ON_PAUSE)
     fun pause() {
         Timber.d("pause")
@@ -90,6 +134,14 @@ class MQTTModule (base: Context?, var mqttOptions: MQTTOptions, private val list
         }
     }
 
+    /**
+     * Publish state to any topic, safe to call from any thread. Returns false if the
+     * message was refused because too many messages are waiting to be sent.
+     */
+    fun publish(topic: String, payload: String, qos: Int, retain: Boolean): Boolean {
+        return publisher.publish(topic, payload, qos, retain)
+    }
+
     @Deprecated("No longer needed because restarting on lifecycle events")
     fun resetMQttOptions(mqttOptions: MQTTOptions) {
         this.mqttOptions = mqttOptions
@@ -105,15 +157,17 @@ class MQTTModule (base: Context?, var mqttOptions: MQTTOptions, private val list
         }
     }
 
-    override fun subscriptionMessage(id: String, topic: String, payload: String) {
-        Timber.d("topic: " + topic)
-        if (mqttOptions.getNotificationTopic() == topic
-                || mqttOptions.getCameraTopic() == topic
-                || (mqttOptions.getStateTopic() == topic && AlarmUtils.hasSupportedStates(payload))) {
-            listener.onMQTTMessage(id, topic, payload)
-        } else {
-            Timber.e("We received some bad info: topic: $topic payload: $payload");
+    /**
+     * Messages arrive already classified by [com.thanksmister.iot.mqtt.alarmpanel.network.MQTTTopicRouter]
+     * on the executor for their type, unknown topics and unsupported states never make it this far.
+     * Weather is handled on its executor and never reaches the main thread.
+     */
+    override fun subscriptionMessage(id: String, topic: String, type: String, payload: String) {
+        if (type == WEATHER_TYPE) {
+            weather?.onMessage(payload)
+            return
         }
+        dispatcher.dispatch(id, topic, type, payload)
     }
 
     override fun handleMqttException(errorMessage: String) {
@@ -124,9 +178,16 @@ class MQTTModule (base: Context?, var mqttOptions: MQTTOptions, private val list
         listener.onMQTTDisconnect()
     }
 
+    override fun handleMqttConnected() {
+        dispatcher.resetDelivered()
+        discovery?.announce(publisher)
+        publisher.flushNow()
+    }
+
     interface MQTTListener {
         fun onMQTTDisconnect()
         fun onMQTTException(message : String)
-        fun onMQTTMessage(id: String, topic: String, payload: String)
+        // called on the main thread
+        fun onMQTTMessage(id: String, topic: String, type: String, payload: String)
     }
 }
\ No newline at end of file
@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2018 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.mqtt.alarmpanel.ui.modules
+
+import java.nio.ByteBuffer
+
+/**
+ * Detects motion by differencing the luma of successive camera frames. Each frame is
+ * downsampled into a grid of cell averages held in two reused arrays, and a frame counts
+ * as motion when enough cells changed by more than a threshold. A change in overall
+ * brightness, like a light being switched on, is subtracted out first.
+ *
+ * Frames are analyzed at most [MAX_FPS] times a second, and less often if analysis takes
+ * more than [cpuBudget] of one core. Motion is reported through the same listener as the
+ * PIR sensor. No Android classes are used so recorded frames can be replayed in JVM tests.
+ */
+class MotionDetector(private val width: Int, private val height: Int,
+                     private val listener: MotionSensor.MotionListener,
+                     private val cpuBudget: Float = CPU_BUDGET) {
+
+    class Metrics(val processed: Long, val skipped: Long, val events: Long, val lastScore: Float,
+                  val averageProcessTime: Long, val measuredFps: Float, val frameInterval: Long)
+
+    private val columns = width / CELL_SIZE
+    private val rows = height / CELL_SIZE
+    private var current = IntArray(columns * rows)
+    private var previous = IntArray(columns * rows)
+    private var hasPrevious = false
+
+    private var motion = false
+    private var motionFrames = 0
+    private var lastMotionTime: Long = 0
+    private var lastFrameTime: Long = 0
+    private var frameInterval: Long = MIN_FRAME_INTERVAL
+
+    private var processed: Long = 0
+    private var skipped: Long = 0
+    private var events: Long = 0
+    private var lastScore = 0f
+    private var averageProcessNanos: Long = 0
+    private var fpsWindowStart: Long = 0
+    private var fpsWindowFrames = 0
+    private var measuredFps = 0f
+
+    /**
+     * Analyze the luma plane of a frame taken at [timestamp] in milliseconds, frames that
+     * arrive faster than the current frame interval are skipped. Returns true if the frame
+     * was analyzed.
+     */
+    @Synchronized
+    fun process(luma: ByteBuffer, rowStride: Int, timestamp: Long): Boolean {
+        if (hasPrevious && timestamp - lastFrameTime < frameInterval) {
+            skipped++
+            return false
+        }
+        val startTime = System.nanoTime()
+        lastFrameTime = timestamp
+        downsample(luma, rowStride, current)
+        if (hasPrevious) {
+            lastScore = score(current, previous)
+            update(lastScore >= AREA_THRESHOLD, timestamp)
+        }
+        val swap = previous
+        previous = current
+        current = swap
+        hasPrevious = true
+        processed++
+        updateBudget(System.nanoTime() - startTime, timestamp)
+        return true
+    }
+
+    /**
+     * Forget the last frame, used when frames stop arriving so the next frame isn't
+     * compared against a stale one. Motion in progress is reported as stopped.
+     */
+    @Synchronized
+    fun reset() {
+        hasPrevious = false
+        motionFrames = 0
+        if (motion) {
+            motion = false
+            listener.onMotionStopped()
+        }
+    }
+
+    @Synchronized
+    fun getMetrics(): Metrics {
+        return Metrics(processed, skipped, events, lastScore, averageProcessNanos / 1000, measuredFps, frameInterval)
+    }
+
+    private fun downsample(luma: ByteBuffer, rowStride: Int, output: IntArray) {
+        val samples = (CELL_SIZE / SAMPLE_STEP) * (CELL_SIZE / SAMPLE_STEP)
+        var cell = 0
+        for (row in 0 until rows) {
+            for (column in 0 until columns) {
+                var sum = 0
+                val top = row * CELL_SIZE
+                val left = column * CELL_SIZE
+                var y = top
+                while (y < top + CELL_SIZE) {
+                    val offset = y * rowStride
+                    var x = left
+                    while (x < left + CELL_SIZE) {
+                        sum += luma.get(offset + x).toInt() and 0xFF
+                        x += SAMPLE_STEP
+                    }
+                    y += SAMPLE_STEP
+                }
+                output[cell++] = sum / samples
+            }
+        }
+    }
+
+    /**
+     * Fraction of cells that changed, after taking out the change in mean brightness.
+     */
+    private fun score(current: IntArray, previous: IntArray): Float {
+        var currentSum = 0
+        var previousSum = 0
+        for (i in current.indices) {
+            currentSum += current[i]
+            previousSum += previous[i]
+        }
+        val shift = (currentSum - previousSum) / current.size
+        var changed = 0
+        for (i in current.indices) {
+            if (Math.abs(current[i] - previous[i] - shift) > PIXEL_THRESHOLD) {
+                changed++
+            }
+        }
+        return changed.toFloat() / current.size
+    }
+
+    private fun update(moving: Boolean, timestamp: Long) {
+        if (moving) {
+            motionFrames++
+            lastMotionTime = timestamp
+            // a single changed frame is more likely noise or the auto exposure settling
+            if (!motion && motionFrames >= MIN_MOTION_FRAMES) {
+                motion = true
+                events++
+                listener.onMotionDetected()
+            }
+        } else {
+            motionFrames = 0
+            if (motion && timestamp - lastMotionTime >= QUIET_TIME) {
+                motion = false
+                listener.onMotionStopped()
+            }
+        }
+    }
+
+    /**
+     * Stretch the frame interval so the average analysis time stays within the budget.
+     */
+    private fun updateBudget(elapsedNanos: Long, timestamp: Long) {
+        averageProcessNanos = if (averageProcessNanos == 0L) elapsedNanos else (averageProcessNanos * 7 + elapsedNanos) / 8
+        val budgetInterval = (averageProcessNanos / 1000000f / cpuBudget).toLong()
+        frameInterval = Math.max(MIN_FRAME_INTERVAL, budgetInterval)
+        fpsWindowFrames++
+        if (fpsWindowFrames == 1) {
+            fpsWindowStart = timestamp
+        } else if (timestamp - fpsWindowStart >= 1000) {
+            measuredFps = (fpsWindowFrames - 1) * 1000f / (timestamp - fpsWindowStart)
+            fpsWindowStart = timestamp
+            fpsWindowFrames = 1
+        }
+    }
+
+    companion object {
+        const val CELL_SIZE = 8
+        const val SAMPLE_STEP = 2
+        const val PIXEL_THRESHOLD = 20 // change in a cell's average luma
+        const val AREA_THRESHOLD = 0.02f // fraction of cells that must change
+        const val MIN_MOTION_FRAMES = 2
+        const val QUIET_TIME: Long = 3000
+        const val MAX_FPS = 5
+        const val MIN_FRAME_INTERVAL: Long = 1000L / MAX_FPS
+        const val CPU_BUDGET = 0.1f // fraction of one core
+    }
+}
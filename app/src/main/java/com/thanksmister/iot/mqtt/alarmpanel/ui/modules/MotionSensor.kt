@@ -19,46 +19,115 @@ package com.thanksmister.iot.mqtt.alarmpanel.ui.modules
 import android.arch.lifecycle.Lifecycle
 import android.arch.lifecycle.LifecycleObserver
 import android.arch.lifecycle.OnLifecycleEvent
+import android.os.Handler
+import android.os.HandlerThread
+import android.os.Looper
 import com.google.android.things.pio.Gpio
 import com.google.android.things.pio.GpioCallback
 import com.google.android.things.pio.PeripheralManager
+import timber.log.Timber
+import java.io.IOException
 
 /**
  * Modified by Michael Ritchie 2018
+ *
+ * Reads the motion sensor and any other GPIO inputs, keyed by pin name to the zone they
+ * belong to. Edges are handled on a background thread by a [SensorPipeline] so a noisy
+ * sensor doesn't reach the main thread, only changes of the [ZONE_MOTION] zone are passed
+ * to the [MotionListener] on the main thread. Batches of zone changes for publishing are
+ * passed to the [ZoneListener] on the background thread.
  */
-class MotionSensor(private val motionListener: MotionListener, private val motionSensorPinNumber: String) : LifecycleObserver {
+class MotionSensor(private val motionListener: MotionListener, private val inputs: Map<String, String>,
+                   private val settings: SensorPipeline.Settings, private val zoneListener: ZoneListener?) : LifecycleObserver {
 
-    private var motionSensorGpioPin: Gpio? = null
+    private val gpioPins = ArrayList<Gpio>()
+    private val mainHandler = Handler(Looper.getMainLooper())
+    private var sensorThread: HandlerThread? = null
+    private var pipeline: SensorPipeline? = null
 
     @OnLifecycleEvent(Lifecycle.Event.ON_CREATE)
     fun start() {
-        motionSensorGpioPin = PeripheralManager.getInstance().openGpio(motionSensorPinNumber)
-        //Receive data from the sensor - DIRECTION_IN
-        motionSensorGpioPin!!.setDirection(Gpio.DIRECTION_IN)
-        //High voltage means movement has been detected
-        motionSensorGpioPin!!.setActiveType(Gpio.ACTIVE_HIGH)
-        //We don't want to receive both low and high triggers so EDGE_RISING
-        motionSensorGpioPin!!.setEdgeTriggerType(Gpio.EDGE_BOTH)
-        motionSensorGpioPin!!.registerGpioCallback(gpiCallback)
+        if (sensorThread != null) return
+        sensorThread = HandlerThread("SensorThread")
+        sensorThread!!.start()
+        val handler = Handler(sensorThread!!.looper)
+        pipeline = SensorPipeline(handler, settings, pipelineListener)
+        for ((pinName, zone) in inputs) {
+            try {
+                val gpio = PeripheralManager.getInstance().openGpio(pinName)
+                //Receive data from the sensor - DIRECTION_IN
+                gpio.setDirection(Gpio.DIRECTION_IN)
+                //High voltage means movement has been detected
+                gpio.setActiveType(Gpio.ACTIVE_HIGH)
+                //Both edges, the pipeline decides when the input has settled
+                gpio.setEdgeTriggerType(Gpio.EDGE_BOTH)
+                pipeline!!.addInput(pinName, zone)
+                gpio.registerGpioCallback(handler, gpioCallback)
+                gpioPins.add(gpio)
+                // an input already active doesn't produce an edge, pass its level on the sensor thread
+                handler.post {
+                    try {
+                        pipeline?.onEdge(pinName, gpio.value)
+                    } catch (e: IOException) {
+                        Timber.e("Unable to read sensor pin $pinName: " + e.message)
+                    }
+                }
+            } catch (e: IOException) {
+                Timber.e("Unable to open sensor pin $pinName: " + e.message)
+            }
+        }
+    }
+
+    private val gpioCallback = object : GpioCallback {
+        override fun onGpioEdge(gpio: Gpio?): Boolean {
+            if (gpio != null) {
+                try {
+                    pipeline?.onEdge(gpio.name, gpio.value)
+                } catch (e: IOException) {
+                    Timber.e("Unable to read sensor pin: " + e.message)
+                }
+            }
+            return true
+        }
     }
 
-    private val gpiCallback = GpioCallback { gpio ->
-        if (gpio != null) {
-            if (gpio.value) {
-                motionListener.onMotionDetected()
-            } else {
-                motionListener.onMotionStopped()
+    private val pipelineListener = object : SensorPipeline.Listener {
+        override fun onZoneChanged(zone: String, active: Boolean) {
+            if (zone == ZONE_MOTION) {
+                mainHandler.post {
+                    if (active) {
+                        motionListener.onMotionDetected()
+                    } else {
+                        motionListener.onMotionStopped()
+                    }
+                }
             }
         }
-        true
+
+        override fun onZoneBatch(states: Map<String, Boolean>) {
+            zoneListener?.onZoneStates(states)
+        }
+    }
+
+    fun getMetrics(): SensorPipeline.Metrics? {
+        return pipeline?.getMetrics()
     }
 
     @OnLifecycleEvent(Lifecycle.Event.ON_DESTROY)
     fun stop() {
-        if(motionSensorGpioPin != null) {
-            motionSensorGpioPin!!.close()
-            motionSensorGpioPin!!.unregisterGpioCallback(gpiCallback)
+        for (gpio in gpioPins) {
+            gpio.unregisterGpioCallback(gpioCallback)
+            try {
+                gpio.close()
+            } catch (e: IOException) {
+                Timber.e("Unable to close sensor pin: " + e.message)
+            }
         }
+        gpioPins.clear()
+        pipeline?.clear()
+        pipeline = null
+        sensorThread?.quitSafely()
+        sensorThread = null
     }
 
     interface MotionListener {
@@ -66,7 +135,16 @@ class MotionSensor(private val motionListener: MotionListener, private val motio
         fun onMotionStopped()
     }
 
+    interface ZoneListener {
+        // called on the sensor thread
+        fun onZoneStates(states: Map<String, Boolean>)
+    }
+
     companion object {
         const val MOTION_SENSOR_GPIO_PIN = "BCM27"
+        const val ZONE_MOTION = "motion"
+        const val MOTION_ON = "ON"
+        const val MOTION_OFF = "OFF"
+        const val MOTION_QOS = 1
     }
-}
\ No newline at end of file
+}
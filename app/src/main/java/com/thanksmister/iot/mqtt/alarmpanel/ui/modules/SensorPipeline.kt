@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2018 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.mqtt.alarmpanel.ui.modules
+
+import android.os.Handler
+import android.os.SystemClock
+import java.util.*
+
+/**
+ * Turns raw GPIO edges into zone events. An input only becomes active once it has been
+ * high for the debounce time, and only becomes inactive once it has been low for the
+ * release time and active for at least the hold time, so a noisy sensor produces one
+ * event instead of a burst. Inputs are grouped into zones, a zone is active while any of
+ * its inputs is. Zone changes are reported straight away and also collected into batches
+ * so publishing them doesn't follow every change. Everything runs on the handler thread.
+ */
+class SensorPipeline(private val handler: Handler, private val settings: Settings, private val listener: Listener) {
+
+    class Settings(val debounceTime: Long, val releaseTime: Long, val holdTime: Long)
+
+    class Metrics(val edges: Long, val suppressed: Long, val events: Long, val batches: Long)
+
+    interface Listener {
+        fun onZoneChanged(zone: String, active: Boolean)
+        // latest state of every zone that changed since the last batch
+        fun onZoneBatch(states: Map<String, Boolean>)
+    }
+
+    private inner class Input(val zone: String) {
+        var raw = false
+        var active = false
+        var activeSince: Long = 0
+        var target = false
+        val settleRunnable = Runnable { settle(this) }
+    }
+
+    private val inputs = HashMap<String, Input>()
+    private val zones = HashMap<String, Boolean>()
+    private val batch = LinkedHashMap<String, Boolean>()
+    private var batchPosted = false
+
+    private var edges: Long = 0
+    private var accepted: Long = 0
+    private var events: Long = 0
+    private var batches: Long = 0
+
+    private val flushRunnable = Runnable { flush() }
+
+    fun addInput(name: String, zone: String) {
+        inputs[name] = Input(zone)
+        if (!zones.containsKey(zone)) {
+            zones[zone] = false
+        }
+    }
+
+    /**
+     * Called for every edge on the input, the new state is only accepted once it has
+     * settled.
+     */
+    fun onEdge(name: String, value: Boolean) {
+        val input = inputs[name] ?: return
+        synchronized(this) {
+            edges++
+        }
+        input.raw = value
+        handler.removeCallbacks(input.settleRunnable)
+        if (value == input.active) {
+            // bounced back before settling
+            return
+        }
+        input.target = value
+        val delay = if (value) {
+            settings.debounceTime
+        } else {
+            val held = SystemClock.elapsedRealtime() - input.activeSince
+            Math.max(settings.releaseTime, settings.holdTime - held)
+        }
+        handler.postDelayed(input.settleRunnable, delay)
+    }
+
+    @Synchronized
+    fun getMetrics(): Metrics {
+        return Metrics(edges, edges - accepted, events, batches)
+    }
+
+    fun clear() {
+        for (input in inputs.values) {
+            handler.removeCallbacks(input.settleRunnable)
+        }
+        handler.removeCallbacks(flushRunnable)
+        batch.clear()
+        batchPosted = false
+    }
+
+    private fun settle(input: Input) {
+        if (input.raw != input.target || input.active == input.target) {
+            return
+        }
+        synchronized(this) {
+            accepted++
+        }
+        input.active = input.target
+        if (input.active) {
+            input.activeSince = SystemClock.elapsedRealtime()
+        }
+        val zoneActive = inputs.values.any { it.zone == input.zone && it.active }
+        if (zones[input.zone] == zoneActive) {
+            return
+        }
+        zones[input.zone] = zoneActive
+        synchronized(this) {
+            events++
+        }
+        listener.onZoneChanged(input.zone, zoneActive)
+        batch[input.zone] = zoneActive
+        if (!batchPosted) {
+            batchPosted = true
+            handler.postDelayed(flushRunnable, BATCH_INTERVAL)
+        }
+    }
+
+    private fun flush() {
+        batchPosted = false
+        if (batch.isEmpty()) return
+        val states = LinkedHashMap(batch)
+        batch.clear()
+        synchronized(this) {
+            batches++
+        }
+        listener.onZoneBatch(states)
+    }
+
+    companion object {
+        const val BATCH_INTERVAL: Long = 1000
+        const val DEFAULT_DEBOUNCE_TIME: Long = 50
+        const val DEFAULT_RELEASE_TIME: Long = 2000
+        const val DEFAULT_HOLD_TIME: Long = 5000
+    }
+}
@@ -23,8 +23,7 @@ import android.support.v7.widget.LinearLayoutManager
 import android.util.AttributeSet
 import android.widget.FrameLayout
 
-import com.thanksmister.iot.mqtt.alarmpanel.network.model.Daily
-import com.thanksmister.iot.mqtt.alarmpanel.network.model.Datum
+import com.thanksmister.iot.mqtt.alarmpanel.persistence.Forecast
 import com.thanksmister.iot.mqtt.alarmpanel.ui.adapters.ForecastCardAdapter
 
 import kotlinx.android.synthetic.main.dialog_extended_forecast.view.*
@@ -39,7 +38,7 @@ class ExtendedForecastView : FrameLayout {
         super.onFinishInflate()
     }
 
-    fun setExtendedForecast(data: List<Datum>) {
+    fun setExtendedForecast(data: List<Forecast>) {
         recycleView.setHasFixedSize(true)
         val linearLayoutManager = LinearLayoutManager(context)
         linearLayoutManager.orientation = LinearLayoutManager.HORIZONTAL
@@ -20,47 +20,39 @@ package com.thanksmister.iot.mqtt.alarmpanel.ui.views
 
 import android.content.Context
 import android.content.res.Configuration
+import android.graphics.Bitmap
 import android.os.Handler
-import android.support.v4.content.res.ResourcesCompat
 import android.util.AttributeSet
 import android.util.TypedValue
 import android.view.View
+import android.widget.ImageView
 import android.widget.RelativeLayout
-import android.widget.Toast
-import com.squareup.picasso.Picasso
 import com.thanksmister.iot.mqtt.alarmpanel.R
-import com.thanksmister.iot.mqtt.alarmpanel.network.DarkSkyRequest
-import com.thanksmister.iot.mqtt.alarmpanel.network.ImageApi
+import com.thanksmister.iot.mqtt.alarmpanel.network.DarkSkyOptions
+import com.thanksmister.iot.mqtt.alarmpanel.network.ImageCache
 import com.thanksmister.iot.mqtt.alarmpanel.network.ImageOptions
-import com.thanksmister.iot.mqtt.alarmpanel.network.fetchers.ImageFetcher
-import com.thanksmister.iot.mqtt.alarmpanel.network.model.ImageResponse
-import com.thanksmister.iot.mqtt.alarmpanel.network.model.Item
 import com.thanksmister.iot.mqtt.alarmpanel.persistence.DarkSkyDao
-import com.thanksmister.iot.mqtt.alarmpanel.tasks.ImageTask
-import com.thanksmister.iot.mqtt.alarmpanel.tasks.NetworkTask
 import com.thanksmister.iot.mqtt.alarmpanel.utils.WeatherUtils
 import io.reactivex.android.schedulers.AndroidSchedulers
 import io.reactivex.schedulers.Schedulers
 import kotlinx.android.synthetic.main.dialog_screen_saver.view.*
-import retrofit2.Response
 import timber.log.Timber
 import java.text.DateFormat
 import java.util.*
 
 class ScreenSaverView : RelativeLayout {
 
-    private var task: ImageTask? = null
     private var rotationHandler: Handler? = null
     private var timeHandler: Handler? = null
-    private var picasso: Picasso? = null
-    private var itemList: List<Item>? = null
-    private var imageUrl: String? = null
     private var rotationInterval: Long = 0
     private var options:ImageOptions? = null
 
     private var saverContext: Context? = null
     private var dataSource: DarkSkyDao? = null
     private var useImageSaver: Boolean = false
+    private var imageCache: ImageCache? = null
+    private var shownImage: Bitmap? = null
+    private var replacedImage: Bitmap? = null
     private var hasWeather: Boolean = false
 
     private val delayRotationRunnable = object : Runnable {
@@ -91,16 +83,11 @@ class ScreenSaverView : RelativeLayout {
 
     override fun onDetachedFromWindow() {
         super.onDetachedFromWindow()
-        if (task != null) {
-            task!!.cancel(true)
-            task = null
-        }
-
-        if (picasso != null) {
-            picasso!!.invalidate(imageUrl!!)
-            picasso!!.cancelRequest(screenSaverImage)
-            picasso = null
+        if (useImageSaver && imageCache != null) {
+            imageCache!!.stop()
         }
+        shownImage = null
+        replacedImage = null
 
         if (rotationHandler != null) {
             rotationHandler!!.removeCallbacks(delayRotationRunnable)
@@ -148,9 +135,7 @@ class ScreenSaverView : RelativeLayout {
     // TODO move this to view model?
     private fun setWeatherDataOnView() {
         if(dataSource != null) {
-            dataSource!!.getItems()
-                    .filter { items -> items.isNotEmpty() }
-                    .map { items -> items[items.size - 1] }
+            dataSource!!.getCurrent()
                     .doOnError { error ->
                         Timber.e(error.message)
                     }
@@ -158,32 +143,14 @@ class ScreenSaverView : RelativeLayout {
                     .observeOn(AndroidSchedulers.mainThread())
                     .subscribe { item ->
                         if (item != null) {
-                            val displayUnits = if (item.units == DarkSkyRequest.UNITS_US) saverContext!!.getString(R.string.text_f) else saverContext!!.getString(R.string.text_c)
+                            val displayUnits = if (item.units == DarkSkyOptions.UNITS_US) saverContext!!.getString(R.string.text_f) else saverContext!!.getString(R.string.text_c)
                             try {
                                 if (useImageSaver) {
                                     temperatureTextSmall.text = saverContext!!.getString(R.string.text_temperature, item.apparentTemperature, displayUnits)
-                                    try {
-                                        if (item.umbrella) {
-                                            conditionImageSmall.setImageDrawable(ResourcesCompat.getDrawable(resources, R.drawable.ic_rain_umbrella, saverContext!!.applicationContext.theme))
-                                        } else {
-                                            conditionImageSmall.setImageDrawable(ResourcesCompat.getDrawable(resources, WeatherUtils.getIconForWeatherCondition(item.icon), saverContext!!.applicationContext.theme))
-                                        }
-                                    } catch (e : Exception) {
-                                        Timber.e(e.message)
-                                        Toast.makeText(context, e.message, Toast.LENGTH_LONG).show()
-                                    }
+                                    conditionImageSmall.setImageDrawable(WeatherUtils.getWeatherIcon(saverContext!!, item.icon, item.umbrella))
                                 } else {
                                     temperatureText.text = saverContext!!.getString(R.string.text_temperature, item.apparentTemperature, displayUnits)
-                                    try {
-                                        if (item.umbrella) {
-                                            conditionImage.setImageDrawable(ResourcesCompat.getDrawable(resources, R.drawable.ic_rain_umbrella, saverContext!!.applicationContext.theme))
-                                        } else {
-                                            conditionImage.setImageDrawable(ResourcesCompat.getDrawable(resources, WeatherUtils.getIconForWeatherCondition(item.icon), saverContext!!.applicationContext.theme))
-                                        }
-                                    } catch (e : Exception) {
-                                        Timber.e(e.message)
-                                        Toast.makeText(context, e.message, Toast.LENGTH_LONG).show()
-                                    }
+                                    conditionImage.setImageDrawable(WeatherUtils.getWeatherIcon(saverContext!!, item.icon, item.umbrella))
                                 }
                             }catch (e: Exception) {
                                 Timber.e(e.message)
@@ -193,7 +160,9 @@ class ScreenSaverView : RelativeLayout {
         }
     }
 
-    fun setScreenSaver(useImageScreenSaver: Boolean,  options:ImageOptions, dataSource: DarkSkyDao, hasWeather: Boolean) {
+    fun setScreenSaver(useImageScreenSaver: Boolean,  options:ImageOptions, dataSource: DarkSkyDao, hasWeather: Boolean,
+                       imageCache: ImageCache) {
+        this.imageCache = imageCache
         this.dataSource = dataSource
         this.options = options
         this.rotationInterval = (options.getRotation() * 60 * 1000).toLong() // convert to milliseconds
@@ -208,74 +177,35 @@ class ScreenSaverView : RelativeLayout {
     }
 
     private fun startImageScreenSavor() {
-        if (itemList == null || itemList!!.isEmpty()) {
-            fetchMediaData()
-        } else {
+        // wait for the layout so images are prefetched at the size they are shown
+        screenSaverImage.post {
+            imageCache!!.start(options!!, screenSaverImage.width, screenSaverImage.height)
             startImageRotation()
         }
     }
 
     private fun startImageRotation() {
-        if (picasso == null) {
-            picasso = Picasso.with(context)
+        if (rotationHandler == null) {
+            rotationHandler = Handler()
         }
-        if (itemList != null && !itemList!!.isEmpty()) {
-            val min = 0
-            val max = itemList!!.size - 1
-            val random = Random().nextInt(max - min + 1) + min
-            val item = itemList!![random]
-            if(item.images !=  null) {
-                val minImage = 0
-                val maxImage = item.images.size - 1
-                val randomImage = Random().nextInt(maxImage - minImage + 1) + minImage
-                val image = item.images[randomImage]
-                imageUrl = image.link
-                if (options!!.imageFitScreen) {
-                    picasso!!.load(imageUrl)
-                            .placeholder(R.color.black)
-                            .resize(screenSaverImage.width, screenSaverImage.height)
-                            .centerCrop()
-                            .error(R.color.black)
-                            .into(screenSaverImage)
-                } else {
-                    picasso!!.load(imageUrl)
-                            .placeholder(R.color.black)
-                            .resize(screenSaverImage.width, screenSaverImage.height)
-                            .centerInside()
-                            .error(R.color.black)
-                            .into(screenSaverImage)
-                }
-                if (rotationHandler == null) {
-                    rotationHandler = Handler()
-                }
-                rotationHandler!!.postDelayed(delayRotationRunnable, rotationInterval)
-            } else {
-                startImageRotation()
+        val bitmap = imageCache!!.next()
+        if (bitmap != null) {
+            screenSaverImage.scaleType = if (options!!.imageFitScreen) ImageView.ScaleType.CENTER_CROP else ImageView.ScaleType.FIT_CENTER
+            screenSaverImage.setImageBitmap(bitmap)
+            // the image replaced last time is certainly no longer drawn, it can be reused now
+            if (replacedImage != null) {
+                imageCache!!.release(replacedImage!!)
             }
+            replacedImage = shownImage
+            shownImage = bitmap
+            rotationHandler!!.postDelayed(delayRotationRunnable, rotationInterval)
+        } else {
+            // nothing prefetched yet, look again shortly
+            rotationHandler!!.postDelayed(delayRotationRunnable, PREFETCH_WAIT)
         }
     }
 
-    // TODO move to RxJava
-    private fun fetchMediaData() {
-        if (task == null || task!!.isCancelled) {
-            val api = ImageApi()
-            val fetcher = ImageFetcher(api)
-            task = ImageTask(fetcher)
-            task!!.setOnExceptionListener(object :   NetworkTask.OnExceptionListener {
-                override fun onException(paramException: Exception) {
-                    Timber.e("Imgur Exception: " + paramException.message)
-                }
-            })
-            task!!.setOnCompleteListener(object : NetworkTask.OnCompleteListener<Response<ImageResponse>> {
-                override fun onComplete(paramResult: Response<ImageResponse>) {
-                    val instagramResponse = paramResult.body()
-                    if (instagramResponse != null) {
-                        itemList = instagramResponse.items
-                        startImageRotation()
-                    }
-                }
-            })
-            task!!.execute(options!!.imageClientId, options!!.getTag())
-        }
+    companion object {
+        const val PREFETCH_WAIT: Long = 2000
     }
-}
\ No newline at end of file
+}
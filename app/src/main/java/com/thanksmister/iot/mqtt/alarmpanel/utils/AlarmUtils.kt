@@ -22,7 +22,8 @@ import android.support.annotation.StringDef
 
 import java.lang.annotation.Retention
 import java.lang.annotation.RetentionPolicy
-import java.util.ArrayList
+import java.util.HashSet
+import java.util.LinkedHashSet
 
 /**
  * Just a utility class to work with the specific settings of the Home Assistant
@@ -72,8 +73,14 @@ class AlarmUtils {
         @JvmField val DELAY_AWAY_TIME = 30
         @JvmField val DISABLE_TIME = 30
 
-        private val supportedCommands = ArrayList<String>()
-        private val supportedStates = ArrayList<String>()
+        private val supportedCommands = HashSet<String>()
+        private val states = LinkedHashSet<String>()
+
+        /**
+         * The alarm states the panel understands, used to build the MQTT ingest lookup table.
+         */
+        val supportedStates: Set<String>
+            get() = states
 
         init {
             supportedCommands.add(COMMAND_ARM_HOME)
@@ -82,11 +89,11 @@ class AlarmUtils {
         }
 
         init {
-            supportedStates.add(STATE_DISARM)
-            supportedStates.add(STATE_ARM_AWAY)
-            supportedStates.add(STATE_ARM_HOME)
-            supportedStates.add(STATE_PENDING)
-            supportedStates.add(STATE_TRIGGERED)
+            states.add(STATE_DISARM)
+            states.add(STATE_ARM_AWAY)
+            states.add(STATE_ARM_HOME)
+            states.add(STATE_PENDING)
+            states.add(STATE_TRIGGERED)
         }
 
         /**
@@ -106,7 +113,7 @@ class AlarmUtils {
          */
         @AlarmStates
         fun hasSupportedStates(state: String): Boolean {
-            return supportedStates.contains(state)
+            return states.contains(state)
         }
     }
 }
\ No newline at end of file
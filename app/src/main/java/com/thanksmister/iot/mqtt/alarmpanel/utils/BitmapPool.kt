@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2018 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.mqtt.alarmpanel.utils
+
+import android.graphics.Bitmap
+import java.util.*
+
+/**
+ * Bitmaps that are no longer shown, kept up to a byte budget so a later decode can reuse
+ * one through inBitmap instead of allocating a new one. Any mutable bitmap with enough
+ * room can be reused whatever its size or config, the oldest are dropped first.
+ */
+class BitmapPool(private val budget: Int) {
+
+    private val bitmaps = ArrayList<Bitmap>()
+    private var size = 0
+
+    @Synchronized
+    fun put(bitmap: Bitmap) {
+        if (!bitmap.isMutable || bitmap.isRecycled || bitmap.allocationByteCount > budget || bitmaps.contains(bitmap)) {
+            return
+        }
+        bitmaps.add(bitmap)
+        size += bitmap.allocationByteCount
+        while (size > budget) {
+            size -= bitmaps.removeAt(0).allocationByteCount
+        }
+    }
+
+    /**
+     * Takes the smallest bitmap with room for the given number of bytes, or null if there
+     * is none.
+     */
+    @Synchronized
+    fun get(byteCount: Int): Bitmap? {
+        var best: Bitmap? = null
+        for (bitmap in bitmaps) {
+            if (bitmap.allocationByteCount >= byteCount && (best == null || bitmap.allocationByteCount < best.allocationByteCount)) {
+                best = bitmap
+            }
+        }
+        if (best != null) {
+            bitmaps.remove(best)
+            size -= best.allocationByteCount
+        }
+        return best
+    }
+
+    @Synchronized
+    fun clear() {
+        bitmaps.clear()
+        size = 0
+    }
+}
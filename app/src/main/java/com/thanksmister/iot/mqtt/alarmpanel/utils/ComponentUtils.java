@@ -32,6 +32,8 @@ public class ComponentUtils {
     public static final String IMAGE_CAPTURE_STATE_TOPIC = "home/capture";
     public static final String NOTIFICATION_TYPE = "NOTIFICATION";
     public static final String IMAGE_CAPTURE_TYPE = "CAPTURE";
+    public static final String SENSOR_TYPE = "SENSOR";
+    public static final String WEATHER_TYPE = "WEATHER";
 
     public ComponentUtils(){
     }
@@ -75,9 +75,27 @@ object DateUtils {
         return dateTime.toLocalDateTime().toString(fmt)
     }
 
+    /**
+     * Format the date the same way as [parseCreatedAtDate] without parsing.
+     */
+    fun formatDisplayDate(date: Date): String {
+        return DateTimeFormat.forStyle("SS").withLocale(Locale.getDefault()).print(date.time)
+    }
+
     fun generateCreatedAtDate(): String {
-        val dateFormat = SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ", Locale.US)
-        return dateFormat.format(Date())
+        return generateCreatedAtDate(createdAtDateFormat(), Date())
+    }
+
+    /**
+     * Format the date with a reusable format from [createdAtDateFormat], the
+     * format is not thread safe so callers must not share it across threads.
+     */
+    fun generateCreatedAtDate(dateFormat: DateFormat, date: Date): String {
+        return dateFormat.format(date)
+    }
+
+    fun createdAtDateFormat(): DateFormat {
+        return SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ", Locale.US)
     }
 
     /**
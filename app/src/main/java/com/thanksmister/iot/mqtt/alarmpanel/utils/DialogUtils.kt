@@ -37,13 +37,13 @@ import android.view.WindowManager
 import android.widget.TextView
 
 import com.thanksmister.iot.mqtt.alarmpanel.R
+import com.thanksmister.iot.mqtt.alarmpanel.network.ImageCache
 import com.thanksmister.iot.mqtt.alarmpanel.network.ImageOptions
-import com.thanksmister.iot.mqtt.alarmpanel.network.model.Daily
 import com.thanksmister.iot.mqtt.alarmpanel.ui.views.*
 import timber.log.Timber
 import android.widget.EditText
-import com.thanksmister.iot.mqtt.alarmpanel.network.model.Datum
 import com.thanksmister.iot.mqtt.alarmpanel.persistence.DarkSkyDao
+import com.thanksmister.iot.mqtt.alarmpanel.persistence.Forecast
 
 
 /**
@@ -248,7 +248,7 @@ class DialogUtils(base: Context?) : ContextWrapper(base), LifecycleObserver {
         dialog!!.setOnCancelListener(onCancelListener)
     }
 
-    fun showExtendedForecastDialog(activity: AppCompatActivity, data: List<Datum>) {
+    fun showExtendedForecastDialog(activity: AppCompatActivity, data: List<Forecast>) {
         clearDialogs()
         val inflater = activity.getSystemService(Context.LAYOUT_INFLATER_SERVICE) as LayoutInflater
         val view = inflater.inflate(R.layout.dialog_extended_forecast, null, false)
@@ -276,7 +276,8 @@ class DialogUtils(base: Context?) : ContextWrapper(base), LifecycleObserver {
      * with the alarm disabled because the disable time will be longer than this.
      */
     fun showScreenSaver(activity: AppCompatActivity, showPhotoScreenSaver: Boolean, options:ImageOptions, screenBrightness: Float,
-                        onClickListener: View.OnClickListener, dataSource: DarkSkyDao, hasWeather: Boolean) {
+                        onClickListener: View.OnClickListener, dataSource: DarkSkyDao, hasWeather: Boolean,
+                        imageCache: ImageCache) {
         if (screenSaverDialog != null && screenSaverDialog!!.isShowing) {
             return
         }
@@ -285,7 +286,7 @@ class DialogUtils(base: Context?) : ContextWrapper(base), LifecycleObserver {
         val view = inflater.inflate(R.layout.dialog_screen_saver, null, false)
         val screenSaverView = view.findViewById<ScreenSaverView>(R.id.screenSaverView)
         screenSaverView.setDataSource(dataSource)
-        screenSaverView.setScreenSaver(showPhotoScreenSaver, options, dataSource, hasWeather)
+        screenSaverView.setScreenSaver(showPhotoScreenSaver, options, dataSource, hasWeather, imageCache)
         screenSaverView.setOnClickListener(onClickListener)
         screenSaverDialog = buildImmersiveDialog(activity, true, screenSaverView, true)
         if (screenSaverDialog != null){
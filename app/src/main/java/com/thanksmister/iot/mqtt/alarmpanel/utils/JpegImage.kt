@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2018 ThanksMister LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thanksmister.iot.mqtt.alarmpanel.utils
+
+import java.io.ByteArrayOutputStream
+import java.nio.ByteBuffer
+import java.util.*
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Encoded JPEG held in a pooled byte array, the image is the [length] bytes from [offset].
+ * Rotation is written as an EXIF orientation segment right after the start of image
+ * marker instead of rotating the pixels, so camera frames are never decoded on the way
+ * to the upload. The buffer goes back to the pool when the last reference is released.
+ */
+class JpegImage private constructor(val data: ByteArray, val offset: Int, val length: Int) {
+
+    private val references = AtomicInteger(1)
+
+    fun retain(): JpegImage {
+        references.incrementAndGet()
+        return this
+    }
+
+    fun release() {
+        if (references.decrementAndGet() == 0) {
+            releaseBuffer(data)
+        }
+    }
+
+    /**
+     * Output stream that writes straight into a pooled buffer, growing it only when
+     * the encoder produces more than expected.
+     */
+    private class PooledOutputStream(buffer: ByteArray) : ByteArrayOutputStream(0) {
+        init {
+            buf = buffer
+        }
+
+        fun buffer(): ByteArray = buf
+
+        fun setCount(value: Int) {
+            count = value
+        }
+    }
+
+    /**
+     * Collects the encoder output in a pooled buffer, leaving room for the EXIF segment.
+     */
+    class Writer(expectedSize: Int) {
+
+        private val stream = PooledOutputStream(acquireBuffer(expectedSize + EXIF_SEGMENT_SIZE))
+
+        init {
+            stream.setCount(EXIF_SEGMENT_SIZE)
+        }
+
+        val outputStream: java.io.OutputStream
+            get() = stream
+
+        fun finish(rotation: Float): JpegImage {
+            return wrap(stream.buffer(), stream.size() - EXIF_SEGMENT_SIZE, rotation)
+        }
+    }
+
+    companion object {
+
+        // the APP1 segment holding a single orientation entry, it is written after our
+        // own SOI marker so it ends where the encoder's SOI did
+        private const val EXIF_SEGMENT_SIZE = 36
+        private const val MARKER_SIZE = 2
+        private const val MAX_POOLED = 6
+
+        private val pool = ArrayList<ByteArray>()
+
+        /**
+         * Copy the camera's JPEG into a pooled buffer with the EXIF orientation added.
+         */
+        @JvmStatic
+        fun fromBuffer(jpeg: ByteBuffer, rotation: Float): JpegImage {
+            val size = jpeg.remaining()
+            val data = acquireBuffer(size + EXIF_SEGMENT_SIZE)
+            jpeg.get(data, EXIF_SEGMENT_SIZE, size)
+            return wrap(data, size, rotation)
+        }
+
+        /**
+         * The encoded JPEG of [size] bytes starts at [EXIF_SEGMENT_SIZE]. Its SOI marker is
+         * replaced by a new SOI and the EXIF segment written in front of it, unless the
+         * encoder already wrote an APP1 segment, or it isn't a JPEG, when it is left as is.
+         */
+        private fun wrap(data: ByteArray, size: Int, rotation: Float): JpegImage {
+            if (size < MARKER_SIZE * 2 || !isMarker(data, EXIF_SEGMENT_SIZE, 0xD8)
+                    || isMarker(data, EXIF_SEGMENT_SIZE + MARKER_SIZE, 0xE1)) {
+                return JpegImage(data, EXIF_SEGMENT_SIZE, size)
+            }
+            writeExifSegment(data, getExifOrientation(rotation))
+            return JpegImage(data, 0, EXIF_SEGMENT_SIZE + size)
+        }
+
+        private fun isMarker(data: ByteArray, index: Int, marker: Int): Boolean {
+            return data[index] == 0xFF.toByte() && data[index + 1] == marker.toByte()
+        }
+
+        @JvmStatic
+        fun getExifOrientation(rotation: Float): Int {
+            val degrees = ((Math.round(rotation / 90f) * 90) % 360 + 360) % 360
+            return when (degrees) {
+                90 -> 6
+                180 -> 3
+                270 -> 8
+                else -> 1
+            }
+        }
+
+        private fun writeExifSegment(data: ByteArray, orientation: Int) {
+            val segment = byteArrayOf(
+                    0xFF.toByte(), 0xD8.toByte(), // SOI
+                    0xFF.toByte(), 0xE1.toByte(), 0x00, 0x22, // APP1 and its length
+                    'E'.toByte(), 'x'.toByte(), 'i'.toByte(), 'f'.toByte(), 0x00, 0x00,
+                    'M'.toByte(), 'M'.toByte(), 0x00, 0x2A, 0x00, 0x00, 0x00, 0x08, // big endian TIFF header
+                    0x00, 0x01, // one IFD entry
+                    0x01, 0x12, 0x00, 0x03, 0x00, 0x00, 0x00, 0x01, // orientation, SHORT, count 1
+                    0x00, orientation.toByte(), 0x00, 0x00,
+                    0x00, 0x00, 0x00, 0x00) // no next IFD
+            System.arraycopy(segment, 0, data, 0, segment.size)
+        }
+
+        private fun acquireBuffer(size: Int): ByteArray {
+            synchronized(pool) {
+                val iterator = pool.iterator()
+                while (iterator.hasNext()) {
+                    val buffer = iterator.next()
+                    if (buffer.size >= size) {
+                        iterator.remove()
+                        return buffer
+                    }
+                }
+            }
+            return ByteArray(size)
+        }
+
+        private fun releaseBuffer(buffer: ByteArray) {
+            synchronized(pool) {
+                if (pool.size < MAX_POOLED) {
+                    pool.add(buffer)
+                }
+            }
+        }
+    }
+}
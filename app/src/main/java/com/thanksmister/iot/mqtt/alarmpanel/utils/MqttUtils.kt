@@ -21,7 +21,7 @@ package com.thanksmister.iot.mqtt.alarmpanel.utils
 import android.content.Context
 import android.text.TextUtils
 
-import com.thanksmister.iot.mqtt.alarmpanel.network.MQTTService
+import com.thanksmister.iot.mqtt.alarmpanel.network.MQTTTopicRouter
 
 import org.eclipse.paho.android.service.MqttAndroidClient
 import org.eclipse.paho.client.mqttv3.IMqttMessageListener
@@ -29,8 +29,6 @@ import org.eclipse.paho.client.mqttv3.MqttCallbackExtended
 import org.eclipse.paho.client.mqttv3.MqttConnectOptions
 import org.eclipse.paho.client.mqttv3.MqttMessage
 
-import timber.log.Timber
-
 class MqttUtils {
     companion object {
 
@@ -67,34 +65,20 @@ class MqttUtils {
         }
 
         /**
-         * We need to make an array of listeners to pass to the subscribe topics.
+         * We need to make an array of listeners to pass to the subscribe topics. All topics
+         * share one listener that hands the raw message to the topic router.
          * @param length
          * @return
          */
-        fun getMqttMessageListeners(length: Int, listener: MQTTService.MqttManagerListener?): Array<IMqttMessageListener?> {
+        fun getMqttMessageListeners(length: Int, router: MQTTTopicRouter): Array<IMqttMessageListener?> {
+            val mqttMessageListener = IMqttMessageListener { topic, message ->
+                router.route(topic, message)
+            }
             val mqttMessageListeners = arrayOfNulls<IMqttMessageListener>(length)
             for (i in 0 until length) {
-                val mqttMessageListener = IMqttMessageListener { topic, message ->
-                    Timber.i("Subscribe Topic: " + topic + "  Payload: " + String(message.payload))
-                    Timber.i("Subscribe Topic Listener: " + listener!!)
-                    listener.subscriptionMessage(message.id.toString(), topic, String(message.payload))
-                }
                 mqttMessageListeners[i] = mqttMessageListener
             }
             return mqttMessageListeners
         }
-
-        /**
-         * Generate an array of QOS values for subscribing to multiple topics.
-         * @param length
-         * @return
-         */
-        fun getQos(length: Int): IntArray {
-            val qos = IntArray(length)
-            for (i in 0 until length) {
-                qos[i] = 0
-            }
-            return qos
-        }
     }
 }
@@ -18,6 +18,12 @@
 
 package com.thanksmister.iot.mqtt.alarmpanel.utils;
 
+import android.content.Context;
+import android.graphics.drawable.Drawable;
+import android.support.annotation.Nullable;
+import android.support.v4.content.res.ResourcesCompat;
+import android.util.SparseArray;
+
 import com.thanksmister.iot.mqtt.alarmpanel.R;
 
 /**
@@ -25,6 +31,31 @@ import com.thanksmister.iot.mqtt.alarmpanel.R;
  */
 public class WeatherUtils {
 
+    // loaded icons by resource id, only used from the main thread
+    private static final SparseArray<Drawable.ConstantState> iconCache = new SparseArray<>();
+
+    /**
+     * Icon for the condition, or the umbrella when rain is likely. Each icon is only loaded
+     * once, later calls get a new drawable sharing its state so weather updates don't load
+     * the icon again.
+     */
+    @Nullable
+    public static Drawable getWeatherIcon(Context context, String condition, boolean umbrella) {
+        int resId = umbrella ? R.drawable.ic_rain_umbrella : getIconForWeatherCondition(condition);
+        if (resId == 0) {
+            return null;
+        }
+        Drawable.ConstantState state = iconCache.get(resId);
+        if (state != null) {
+            return state.newDrawable(context.getResources());
+        }
+        Drawable drawable = ResourcesCompat.getDrawable(context.getResources(), resId, context.getTheme());
+        if (drawable != null && drawable.getConstantState() != null) {
+            iconCache.put(resId, drawable.getConstantState());
+        }
+        return drawable;
+    }
+
     public static int getIconForWeatherCondition(String condition) {
         switch (condition) {
             case "clear-day":
@@ -5,23 +5,20 @@ import android.arch.lifecycle.AndroidViewModel
 import android.arch.lifecycle.LiveData
 import android.arch.lifecycle.MutableLiveData
 import android.arch.lifecycle.Observer
-import android.graphics.Bitmap
 import android.support.v7.app.AppCompatDelegate
 import android.text.TextUtils
-import android.widget.Toast
 import androidx.work.PeriodicWorkRequest
 import androidx.work.WorkManager
 import androidx.work.WorkStatus
 import androidx.work.Worker
 import com.thanksmister.iot.mqtt.alarmpanel.BaseActivity
 import com.thanksmister.iot.mqtt.alarmpanel.BaseApplication
-import com.thanksmister.iot.mqtt.alarmpanel.R
 import com.thanksmister.iot.mqtt.alarmpanel.network.MQTTOptions
+import com.thanksmister.iot.mqtt.alarmpanel.network.UploadQueue
 import com.thanksmister.iot.mqtt.alarmpanel.persistence.Message
 import com.thanksmister.iot.mqtt.alarmpanel.persistence.MessageDao
+import com.thanksmister.iot.mqtt.alarmpanel.persistence.MessageWriter
 import com.thanksmister.iot.mqtt.alarmpanel.ui.Configuration
-import com.thanksmister.iot.mqtt.alarmpanel.ui.modules.MailGunModule
-import com.thanksmister.iot.mqtt.alarmpanel.ui.modules.TelegramModule
 import com.thanksmister.iot.mqtt.alarmpanel.utils.AlarmUtils
 import com.thanksmister.iot.mqtt.alarmpanel.utils.AlarmUtils.Companion.ALARM_STATE_TOPIC
 import com.thanksmister.iot.mqtt.alarmpanel.utils.AlarmUtils.Companion.ALARM_TYPE
@@ -33,17 +30,12 @@ import com.thanksmister.iot.mqtt.alarmpanel.utils.AlarmUtils.Companion.MODE_AWAY
 import com.thanksmister.iot.mqtt.alarmpanel.utils.AlarmUtils.Companion.MODE_HOME_TRIGGERED_PENDING
 import com.thanksmister.iot.mqtt.alarmpanel.utils.AlarmUtils.Companion.MODE_TRIGGERED
 import com.thanksmister.iot.mqtt.alarmpanel.utils.AlarmUtils.Companion.MODE_TRIGGERED_PENDING
-import com.thanksmister.iot.mqtt.alarmpanel.utils.ComponentUtils.IMAGE_CAPTURE_TYPE
-import com.thanksmister.iot.mqtt.alarmpanel.utils.ComponentUtils.NOTIFICATION_TYPE
 import com.thanksmister.iot.mqtt.alarmpanel.utils.DateUtils
+import com.thanksmister.iot.mqtt.alarmpanel.utils.JpegImage
 import io.reactivex.Completable
 import io.reactivex.Flowable
-import io.reactivex.Observable
-import io.reactivex.ObservableEmitter
-import io.reactivex.android.schedulers.AndroidSchedulers
 import io.reactivex.disposables.CompositeDisposable
 import io.reactivex.disposables.Disposable
-import io.reactivex.schedulers.Schedulers
 import timber.log.Timber
 import java.util.*
 import java.util.concurrent.TimeUnit
@@ -51,11 +43,12 @@ import javax.inject.Inject
 
 class MainViewModel @Inject
 constructor(application: Application, private val dataSource: MessageDao, private val configuration: Configuration,
-            private val mqttOptions: MQTTOptions) : AndroidViewModel(application) {
+            private val mqttOptions: MQTTOptions, private val uploadQueue: UploadQueue) : AndroidViewModel(application) {
 
     private val workManager = WorkManager.getInstance();
     private val disposable = CompositeDisposable()
     private val isNight = MutableLiveData<Boolean>()
+    private val messageWriter = MessageWriter(dataSource)
 
     @AlarmUtils.AlarmStates
     private fun setAlarmModeFromState(state: String) {
@@ -106,14 +99,18 @@ constructor(application: Application, private val dataSource: MessageDao, privat
         configuration.alarmMode = value
     }
 
+    /**
+     * Get the latest alarm state, only emits when the state changes.
+     */
     fun getAlarmState():Flowable<String> {
-        return dataSource.getMessages(ALARM_TYPE)
-                .filter {messages -> messages.isNotEmpty()}
-                .map {messages -> messages[messages.size - 1]}
-                .map {message ->
-                    Timber.d("state: " + message.payload)
-                    setAlarmModeFromState(message.payload!!)
-                    message.payload
+        return dataSource.getLastMessage(ALARM_TYPE)
+                .filter {message -> message.payload != null}
+                .map {message -> message.payload!!}
+                .distinctUntilChanged()
+                .map {state ->
+                    Timber.d("state: " + state)
+                    setAlarmModeFromState(state)
+                    state
                 }
     }
 
@@ -121,84 +118,30 @@ constructor(application: Application, private val dataSource: MessageDao, privat
     }
 
     /**
-     * Insert new message into the database.
+     * Insert new message into the database. Messages are buffered and written in
+     * batches by the [MessageWriter].
      */
-    fun insertMessage(messageId: String, topic: String, payload: String) {
-        val type = when (topic) {
-            mqttOptions.getCameraTopic() -> IMAGE_CAPTURE_TYPE
-            mqttOptions.getNotificationTopic() -> NOTIFICATION_TYPE
-            else -> ALARM_TYPE
-        }
-        disposable.add(Completable.fromAction {
-            val createdAt = DateUtils.generateCreatedAtDate()
-            val message = Message()
-            message.type = type
-            message.topic = topic
-            message.payload = payload
-            message.messageId = messageId
-            message.createdAt = createdAt
-            dataSource.insertMessage(message)
-        } .subscribeOn(Schedulers.computation())
-                .observeOn(AndroidSchedulers.mainThread())
-                .subscribe({
-                }, { error -> Timber.e("Database error" + error.message) }))
-    }
-
-    fun sendCapturedImage(bitmap: Bitmap) {
-        if(configuration.hasMailGunCredentials()) {
-            emailImage(bitmap)
-        }
-        if(configuration.hasTelegramCredentials()) {
-            sendTelegram(bitmap)
-        }
+    fun insertMessage(messageId: String, topic: String, type: String, payload: String) {
+        val message = Message()
+        message.type = type
+        message.topic = topic
+        message.payload = payload
+        message.messageId = messageId
+        messageWriter.insertMessage(message)
     }
 
-    private fun sendTelegram(bitmap: Bitmap) {
-        val token = configuration.telegramToken
-        val chatId = configuration.telegramChatId
-        val observable = Observable.create { emitter: ObservableEmitter<Any> ->
-            val module = TelegramModule(getApplication())
-            module.emailImage(token, chatId, bitmap, object : TelegramModule.CallbackListener {
-                override fun onComplete() {
-                    emitter.onNext(true)  // Pass on the data to subscriber
-                }
-                override fun onException(message: String?) {
-                    emitter.onError(Throwable(message))
-                }
-            })
-        }
-        disposable.add(observable
-                .subscribeOn(Schedulers.newThread())
-                .observeOn(AndroidSchedulers.mainThread())
-                .doOnNext { Timber.d("Telegram Message posted successfully!"); }
-                .doOnError({ throwable -> Timber.e("Telegram Message error: " + throwable.message); })
-                .subscribe( ))
-    }
-
-    private fun emailImage(bitmap: Bitmap) {
-        val domain = configuration.getMailGunUrl()
-        val key = configuration.getMailGunApiKey()
-        val from = configuration.getMailFrom()
-        val to = configuration.getMailTo()
-        val observable = Observable.create { emitter: ObservableEmitter<Any> ->
-            val mailGunModule = MailGunModule(getApplication())
-            val fromSubject = getApplication<Application>().getString(R.string.text_camera_image_subject, "<$from>")
-            mailGunModule.emailImage(domain!!, key!!, fromSubject, to!!, bitmap, object : MailGunModule.CallbackListener {
-                override fun onComplete() {
-                    emitter.onNext(true)  // Pass on the data to subscriber
-                }
-                override fun onException(message: String?) {
-                    emitter.onError(Throwable(message))
-                }
-            })
-        }
-        disposable.add(observable
-                .subscribeOn(Schedulers.newThread())
-                .observeOn(AndroidSchedulers.mainThread())
-                .doOnNext { Timber.d("Image posted successfully!"); }
-                .doOnError({ throwable -> Timber.e("Image error: " + throwable.message); })
-                .onErrorReturn { Toast.makeText(getApplication<Application>(), R.string.error_mailgun_credentials, Toast.LENGTH_LONG).show() }
-                .subscribe( ))
+    /**
+     * Write any buffered messages to the database now.
+     */
+    fun flushMessages() {
+        messageWriter.flushMessages()
+    }
+
+    /**
+     * Hand the image to the upload queue, which takes over the caller's reference.
+     */
+    fun sendCapturedImage(image: JpegImage) {
+        uploadQueue.enqueue(image)
     }
 
     public override fun onCleared() {
@@ -206,6 +149,7 @@ constructor(application: Application, private val dataSource: MessageDao, privat
         if (!disposable.isDisposed) {
             disposable.clear()
         }
+        messageWriter.close()
         workManager.cancelAllWorkByTag(DAY_NIGHT_WORK_NAME);
     }
 
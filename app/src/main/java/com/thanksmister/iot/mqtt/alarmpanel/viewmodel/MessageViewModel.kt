@@ -33,8 +33,6 @@ import com.thanksmister.iot.mqtt.alarmpanel.network.MQTTOptions
 import com.thanksmister.iot.mqtt.alarmpanel.persistence.Message
 import com.thanksmister.iot.mqtt.alarmpanel.persistence.MessageDao
 import com.thanksmister.iot.mqtt.alarmpanel.ui.Configuration
-import com.thanksmister.iot.mqtt.alarmpanel.ui.modules.MailGunModule
-import com.thanksmister.iot.mqtt.alarmpanel.ui.modules.TelegramModule
 import com.thanksmister.iot.mqtt.alarmpanel.utils.AlarmUtils
 import com.thanksmister.iot.mqtt.alarmpanel.utils.AlarmUtils.Companion.ALARM_STATE_TOPIC
 import com.thanksmister.iot.mqtt.alarmpanel.utils.AlarmUtils.Companion.ALARM_TYPE
@@ -53,9 +51,11 @@ import io.reactivex.Completable
 import io.reactivex.Flowable
 import io.reactivex.Observable
 import io.reactivex.ObservableEmitter
+import io.reactivex.Single
 import io.reactivex.android.schedulers.AndroidSchedulers
 import io.reactivex.disposables.CompositeDisposable
 import io.reactivex.disposables.Disposable
+import io.reactivex.processors.BehaviorProcessor
 import io.reactivex.schedulers.Schedulers
 import timber.log.Timber
 import java.util.concurrent.TimeUnit
@@ -67,6 +67,8 @@ constructor(application: Application, private val messageDataSource: MessageDao,
 
     private var armed: Boolean = false
     private val disposable = CompositeDisposable()
+    private val messageFloor = BehaviorProcessor.create<Int>()
+    private var loadingMore = false
 
     @AlarmUtils.AlarmStates
     private fun setAlarmModeFromState(state: String) {
@@ -132,22 +134,56 @@ constructor(application: Application, private val messageDataSource: MessageDao,
     }
 
     /**
-     * Get the messages.
+     * Get the newest page of messages, older pages are added as [loadMoreMessages] is called.
      * @return a [Flowable] that will emit every time the messages have been updated.
      */
     fun getMessages():Flowable<List<Message>> {
-        return dataSource.getMessages()
+        return Completable.fromAction {
+                    if (!messageFloor.hasValue()) {
+                        messageFloor.onNext(dataSource.getPageFloor(Int.MAX_VALUE, PAGE_SIZE) ?: 0)
+                    }
+                }
+                .andThen(messageFloor)
+                .distinctUntilChanged()
+                .switchMap { floor -> dataSource.getMessagesFrom(floor) }
                 .filter {messages -> messages.isNotEmpty()}
     }
 
+    /**
+     * Add the page of messages written before the oldest one shown.
+     * @param oldestUid the uid of the oldest message currently shown
+     */
+    fun loadMoreMessages(oldestUid: Int) {
+        if (loadingMore) {
+            return
+        }
+        loadingMore = true
+        disposable.add(Single.fromCallable { dataSource.getPageFloor(oldestUid, PAGE_SIZE) ?: oldestUid }
+                .subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe({ floor ->
+                    loadingMore = false
+                    if (floor < (messageFloor.value ?: 0)) {
+                        messageFloor.onNext(floor)
+                    }
+                }, { error ->
+                    loadingMore = false
+                    Timber.e("Unable to load more messages: " + error)
+                }))
+    }
+
+    /**
+     * Get the latest alarm state, only emits when the state changes.
+     */
     fun getAlarmState():Flowable<String> {
-        return dataSource.getMessages(ALARM_TYPE)
-                .filter {messages -> messages.isNotEmpty()}
-                .map {messages -> messages[messages.size - 1]}
-                .map {message ->
-                    Timber.d("state: " + message.payload)
-                    setAlarmModeFromState(message.payload!!)
-                    message.payload
+        return dataSource.getLastMessage(ALARM_TYPE)
+                .filter {message -> message.payload != null}
+                .map {message -> message.payload!!}
+                .distinctUntilChanged()
+                .map {state ->
+                    Timber.d("state: " + state)
+                    setAlarmModeFromState(state)
+                    state
                 }
     }
 
@@ -161,4 +197,8 @@ constructor(application: Application, private val messageDataSource: MessageDao,
             disposable.clear()
         }
     }
+
+    companion object {
+        const val PAGE_SIZE: Int = 50
+    }
 }
\ No newline at end of file
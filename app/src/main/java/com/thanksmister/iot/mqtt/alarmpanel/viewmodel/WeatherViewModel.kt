@@ -19,31 +19,26 @@ package com.thanksmister.iot.mqtt.alarmpanel.viewmodel
 import android.app.Application
 import android.arch.lifecycle.AndroidViewModel
 import android.text.TextUtils
-import com.google.gson.Gson
-import com.thanksmister.iot.mqtt.alarmpanel.network.DarkSkyApi
-import com.thanksmister.iot.mqtt.alarmpanel.network.fetchers.DarkSkyFetcher
+import com.thanksmister.iot.mqtt.alarmpanel.network.DarkSkyOptions
 import com.thanksmister.iot.mqtt.alarmpanel.persistence.DarkSky
-import com.thanksmister.iot.mqtt.alarmpanel.persistence.DarkSkyDao
+import com.thanksmister.iot.mqtt.alarmpanel.persistence.Forecast
+import com.thanksmister.iot.mqtt.alarmpanel.persistence.WeatherRepository
 import com.thanksmister.iot.mqtt.alarmpanel.ui.Configuration
-import com.thanksmister.iot.mqtt.alarmpanel.utils.DateUtils
-import io.reactivex.Completable
 import io.reactivex.Flowable
 import io.reactivex.Observable
-import io.reactivex.android.schedulers.AndroidSchedulers
-import io.reactivex.disposables.CompositeDisposable
+import io.reactivex.disposables.Disposable
 import io.reactivex.schedulers.Schedulers
 import timber.log.Timber
-import java.lang.Math.round
 import java.util.concurrent.TimeUnit
 import javax.inject.Inject
 
 
 class WeatherViewModel @Inject
-constructor(application: Application, private val dataSource: DarkSkyDao, private val configuration: Configuration) : AndroidViewModel(application) {
+constructor(application: Application, private val repository: WeatherRepository, private val configuration: Configuration) : AndroidViewModel(application) {
 
     private val toastText = ToastMessage()
     private val alertText = AlertMessage()
-    private val disposable = CompositeDisposable()
+    private var updates: Disposable? = null
 
     fun hasWeatherModule(): Boolean {
         return (configuration.showWeatherModule())
@@ -62,151 +57,73 @@ constructor(application: Application, private val dataSource: DarkSkyDao, privat
 
     private fun showAlertMessage(message: String?) {
         Timber.d("showAlertMessage")
-        alertText.value = message
+        alertText.postValue(message)
     }
 
     private fun showToastMessage(message: String?) {
         Timber.d("showToastMessage")
-        toastText.value = message
+        toastText.postValue(message)
     }
 
     /**
-     * Get the items.
-     * @return a [Flowable] that will emit every time the messages have been updated.
-     */
-    fun getItems(): Flowable<List<DarkSky>> {
-        return dataSource.getItems()
-                .filter { items -> items.isNotEmpty() }
-    }
-
-    /**
-     * Get the last item.
-     * @return a [Flowable] that will emit every time the messages have been updated.
+     * Get the current conditions.
+     * @return a [Flowable] that will emit every time the conditions have been updated.
      */
     fun getLatestItem(): Flowable<DarkSky> {
-        return dataSource.getItems()
-                .filter { items -> items.isNotEmpty() }
-                .map { items -> items[items.size - 1] }
+        return repository.getCurrent()
     }
 
     /**
-     * Insert new items into the database.
+     * Get the extended forecast.
+     * @return a [Flowable] that will emit every time the forecast has been updated.
      */
-    private fun insertNetworkResponse(icon: String, temp: String, precip: String, units: String, summary: String, data: String, umbrella: Boolean) {
-        Timber.d("insertNetworkResponse")
-        disposable.add(Completable.fromAction {
-            val createdAt = DateUtils.generateCreatedAtDate()
-            val item = DarkSky()
-            item.icon = icon
-            item.summary = summary
-            item.apparentTemperature = temp
-            item.precipProbability = precip
-            item.data = data
-            item.units = units
-            item.umbrella = umbrella
-            item.createdAt = createdAt
-            dataSource.insertItem(item)
-        }
-                .subscribeOn(Schedulers.computation())
-                .observeOn(AndroidSchedulers.mainThread())
-                .subscribe({
-                }, { error -> Timber.e("Database error" + error.message) }))
+    fun getForecast(): Flowable<List<Forecast>> {
+        return repository.getForecast()
+                .filter { items -> items.isNotEmpty() }
     }
 
     public override fun onCleared() {
-        //prevents memory leaks by disposing pending observable objects
-        if (!disposable.isDisposed) {
-            disposable.clear()
-        }
+        stopForecastUpdates()
     }
 
     /**
-     * @param key The api key for the DarkSky weather api
-     * @param units SI or US
-     * @param lat Location latitude
-     * @param lon Location longitude
-     * @param callback A nice little listener to wrap up the response
+     * Keep the stored forecast up to date while the weather is shown. The stored forecast
+     * is checked straight away and then every [CHECK_INTERVAL], the network is only used
+     * once it has expired so starting again on every resume is cheap.
+     * @param options The weather options used to select the provider
      */
-    fun getDarkSkyHourlyForecast(key: String, units: String, lat: String, lon: String) {
-        if(disposable.size() > 0) {
+    fun startForecastUpdates(options: DarkSkyOptions) {
+        if (updates != null) {
             return
         }
-        Timber.d("getDarkSkyHourlyForecast")
-        Timber.d("lat $lat")
-        Timber.d("lon $lon")
-        Timber.d("key $key")
-
-        val api = DarkSkyApi()
-        val fetcher = DarkSkyFetcher(api)
-        disposable.add(Observable.interval(LOAD_INTERVAL, TimeUnit.MINUTES)
-                .startWith(0L)
-                .subscribeOn(Schedulers.io())
-                .doOnError { error ->
-                    var errorMessage: String? = "Error retrieving Dark Sky data."
-                    if (!TextUtils.isEmpty(error.message)) {
-                        errorMessage = "Dark Sky Error " + error.message
-                    }
-                    Timber.e("Dark Sky Error: " + errorMessage);
-                    Observable.just(true)
-                            .observeOn(AndroidSchedulers.mainThread())
-                            .subscribe { _ ->
+        Timber.d("startForecastUpdates")
+        repository.setOptions(options)
+        updates = Observable.interval(0, CHECK_INTERVAL, TimeUnit.MINUTES, Schedulers.io())
+                .flatMapSingle { _ ->
+                    repository.refresh()
+                            .onErrorReturn { error ->
+                                var errorMessage: String? = "Error retrieving weather data."
+                                if (!TextUtils.isEmpty(error.message)) {
+                                    errorMessage = "Weather Error " + error.message
+                                }
+                                Timber.e("Weather Error: " + errorMessage)
                                 showAlertMessage(errorMessage)
+                                false
                             }
                 }
-                .flatMap { _ -> fetcher.getExtendedFeedData(key, units, lat, lon) }
-                .doOnNext { darkSkyResponse ->
-                    Timber.d("response received")
-                    var umbrella = false
-                    var icon = ""
-                    var temperature = ""
-                    var precipitation = ""
-                    var summary = ""
-                    var data = ""
-                    // current weather
-                    if (darkSkyResponse.currently != null) {
-                        icon = darkSkyResponse.currently.icon
-                        temperature = round(darkSkyResponse.currently.apparentTemperature).toString()
-                        precipitation = darkSkyResponse.currently.precipProbability.toString()
-                        summary = darkSkyResponse.currently.summary
-                    }
-                    // should we take an umbrella today?
-                    if (darkSkyResponse.currently != null && darkSkyResponse.currently.precipProbability != null) {
-                        umbrella = shouldTakeUmbrellaToday(darkSkyResponse.currently.precipProbability!!)
-                    }
-                    // extended forecast
-                    if (darkSkyResponse.daily != null) {
-                        data = Gson().toJson(darkSkyResponse.daily.data)
-                    }
-
-                    insertNetworkResponse(icon, temperature, precipitation, units, summary, data, umbrella)
-                }
-                .doOnComplete {
-                    Timber.d("complete")
-                }
-                .distinct()
-                .observeOn(AndroidSchedulers.mainThread())
-                .subscribe({
+                .subscribe({ updated ->
+                    Timber.d("forecast updated: $updated")
                 }, { error ->
-                    Timber.e("Dark Sky error" + error.message)
-                }))
+                    Timber.e("Weather error" + error.message)
+                })
     }
 
-    /**
-     * Determines if today is a good day to take your umbrella
-     * Adapted from https://github.com/HannahMitt/HomeMirror/.
-     * @return
-     */
-    private fun shouldTakeUmbrellaToday(precipProbability: Double): Boolean {
-        return precipProbability > 0.3
+    fun stopForecastUpdates() {
+        updates?.dispose()
+        updates = null
     }
 
-    /**
-     * Network connectivity receiver to notify client of the network disconnect issues and
-     * to clear any network notifications when reconnected. It is easy for network connectivity
-     * to run amok that is why we only notify the user once for network disconnect with
-     * a boolean flag.
-     */
     companion object {
-        const val LOAD_INTERVAL: Long = 30 // in minutes
+        const val CHECK_INTERVAL: Long = 5 // in minutes
     }
-}
\ No newline at end of file
+}
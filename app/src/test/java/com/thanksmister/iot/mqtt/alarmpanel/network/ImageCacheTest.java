@@ -0,0 +1,35 @@
+package com.thanksmister.iot.mqtt.alarmpanel.network;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the screen saver images are decoded no larger than they are shown.
+ */
+public class ImageCacheTest {
+
+    @Test
+    public void sampleSizeKeepsCroppedImageFillingView() {
+        assertEquals(2, ImageCache.getSampleSize(4000, 3000, 1920, 1080, true));
+        assertEquals(1, ImageCache.getSampleSize(3000, 1500, 1920, 1080, true));
+    }
+
+    @Test
+    public void sampleSizeKeepsFittedImageAtViewSize() {
+        assertEquals(2, ImageCache.getSampleSize(4000, 3000, 1920, 1080, false));
+        assertEquals(4, ImageCache.getSampleSize(8000, 2000, 1920, 1080, false));
+    }
+
+    @Test
+    public void sampleSizeIgnoresViewWithoutSize() {
+        assertEquals(1, ImageCache.getSampleSize(4000, 3000, 0, 0, true));
+    }
+
+    @Test
+    public void scaleNeverEnlarges() {
+        assertEquals(0.96f, ImageCache.getScale(2000, 1500, 1920, 1080, true), 0.001f);
+        assertEquals(0.72f, ImageCache.getScale(2000, 1500, 1920, 1080, false), 0.001f);
+        assertEquals(1f, ImageCache.getScale(800, 600, 1920, 1080, true), 0.001f);
+    }
+}
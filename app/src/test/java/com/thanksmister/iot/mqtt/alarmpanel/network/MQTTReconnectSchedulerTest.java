@@ -0,0 +1,69 @@
+package com.thanksmister.iot.mqtt.alarmpanel.network;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks only one connect attempt is in flight and that reporting back frees the scheduler.
+ */
+public class MQTTReconnectSchedulerTest {
+
+    private final Semaphore attempts = new Semaphore(0);
+    private MQTTReconnectScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        scheduler = new MQTTReconnectScheduler(new Runnable() {
+            @Override
+            public void run() {
+                attempts.release();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.close();
+    }
+
+    @Test
+    public void attemptStaysInFlightUntilReported() throws InterruptedException {
+        scheduler.reconnectNow();
+        assertTrue(attempts.tryAcquire(3, TimeUnit.SECONDS));
+        assertTrue(scheduler.isInFlight());
+
+        scheduler.schedule();
+        assertFalse(attempts.tryAcquire(2500, TimeUnit.MILLISECONDS));
+
+        scheduler.onConnectFailed();
+        assertFalse(scheduler.isInFlight());
+        assertTrue(attempts.tryAcquire(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void alreadyConnectedClearsInFlight() throws InterruptedException {
+        scheduler.reconnectNow();
+        assertTrue(attempts.tryAcquire(3, TimeUnit.SECONDS));
+        scheduler.onConnected();
+        assertFalse(scheduler.isInFlight());
+
+        scheduler.schedule();
+        assertTrue(attempts.tryAcquire(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void skippedAttemptClearsInFlightWithoutRetrying() throws InterruptedException {
+        scheduler.reconnectNow();
+        assertTrue(attempts.tryAcquire(3, TimeUnit.SECONDS));
+        scheduler.onAttemptSkipped();
+        assertFalse(scheduler.isInFlight());
+        assertFalse(attempts.tryAcquire(2500, TimeUnit.MILLISECONDS));
+    }
+}
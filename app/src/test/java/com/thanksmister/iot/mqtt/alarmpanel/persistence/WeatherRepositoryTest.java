@@ -0,0 +1,220 @@
+package com.thanksmister.iot.mqtt.alarmpanel.persistence;
+
+import com.thanksmister.iot.mqtt.alarmpanel.network.weather.DarkSkyProvider;
+import com.thanksmister.iot.mqtt.alarmpanel.network.weather.MQTTWeatherProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.reactivex.Flowable;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs the weather repository against a local server with an in-memory store.
+ */
+public class WeatherRepositoryTest {
+
+    private static final String FORECAST = "{\"currently\":{\"icon\":\"rain\",\"summary\":\"Rain\","
+            + "\"apparentTemperature\":11.6,\"precipProbability\":0.8},"
+            + "\"daily\":{\"data\":["
+            + "{\"time\":1539734400,\"icon\":\"rain\",\"summary\":\"Rain\",\"apparentTemperatureMin\":8.2,\"apparentTemperatureMax\":12.5},"
+            + "{\"time\":1539820800,\"icon\":\"cloudy\",\"summary\":\"Cloudy\",\"apparentTemperatureMin\":7.1,\"apparentTemperatureMax\":13.0}]}}";
+
+    private static final String HOME_ASSISTANT = "{\"state\":\"rainy\",\"attributes\":{\"temperature\":52.3,"
+            + "\"temperature_unit\":\"\u00b0F\",\"friendly_name\":\"Home\",\"forecast\":["
+            + "{\"datetime\":\"2018-10-17T00:00:00+00:00\",\"condition\":\"pouring\",\"temperature\":55,\"templow\":47,\"precipitation_probability\":90},"
+            + "{\"datetime\":1539820800000,\"condition\":\"partlycloudy\",\"temperature\":58,\"templow\":45}]}}";
+
+    private MockWebServer server;
+    private OkHttpClient client;
+    private MemoryDao dao;
+    private MQTTWeatherProvider mqttProvider;
+    private WeatherRepository repository;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        client = new OkHttpClient();
+        dao = new MemoryDao();
+        mqttProvider = new MQTTWeatherProvider();
+        repository = new WeatherRepository(dao, client, mqttProvider);
+        repository.setProvider(server("1.0", "2.0"));
+    }
+
+    private DarkSkyProvider server(String lat, String lon) {
+        return new DarkSkyProvider(client, server.url("/").toString(), "key", "si", lat, lon);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void firstRefresh_storesConditionsAndForecast() {
+        server.enqueue(new MockResponse().setBody(FORECAST));
+        assertTrue(repository.refreshNow());
+        assertEquals(1, server.getRequestCount());
+        assertNotNull(dao.current);
+        assertEquals("12", dao.current.getApparentTemperature());
+        assertTrue(dao.current.getUmbrella());
+        assertEquals(2, dao.forecast.size());
+    }
+
+    @Test
+    public void freshData_notRequestedAgain() {
+        server.enqueue(new MockResponse().setBody(FORECAST));
+        repository.refreshNow();
+        assertFalse(repository.refreshNow());
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void serverMaxAge_extendsExpiry() {
+        server.enqueue(new MockResponse().setBody(FORECAST).setHeader("Cache-Control", "max-age=7200"));
+        long start = System.currentTimeMillis();
+        repository.refreshNow();
+        assertTrue(dao.current.getExpiresAt() >= start + 7200 * 1000L);
+    }
+
+    @Test
+    public void expiredOrMovedData_requestedAgain() {
+        server.enqueue(new MockResponse().setBody(FORECAST));
+        server.enqueue(new MockResponse().setBody(FORECAST));
+        server.enqueue(new MockResponse().setBody(FORECAST));
+        repository.refreshNow();
+        dao.current.setExpiresAt(0);
+        assertTrue(repository.refreshNow());
+        repository.setProvider(server("3.0", "4.0"));
+        assertTrue(repository.refreshNow());
+        assertEquals(3, server.getRequestCount());
+    }
+
+    @Test
+    public void failedRefresh_keepsStoredData() {
+        server.enqueue(new MockResponse().setBody(FORECAST));
+        server.enqueue(new MockResponse().setResponseCode(500));
+        repository.refreshNow();
+        dao.current.setExpiresAt(0);
+        assertFalse(repository.refreshNow());
+        assertEquals("12", dao.current.getApparentTemperature());
+        assertEquals(2, dao.forecast.size());
+    }
+
+    @Test
+    public void failedRefresh_withoutStoredData_throws() {
+        server.enqueue(new MockResponse().setResponseCode(500));
+        try {
+            repository.refreshNow();
+            fail("expected the error to be passed on");
+        } catch (Exception e) {
+            assertTrue(e instanceof IOException);
+        }
+    }
+
+    @Test
+    public void serverRequest_usesForecastPath() throws InterruptedException {
+        server.enqueue(new MockResponse().setBody(FORECAST));
+        repository.refreshNow();
+        assertTrue(server.takeRequest().getPath().startsWith("/forecast/key/1.0,2.0?exclude="));
+    }
+
+    @Test
+    public void pushedReport_storedWhenReceived() {
+        repository.setProvider(mqttProvider);
+        mqttProvider.onMessage(HOME_ASSISTANT);
+        assertEquals(0, server.getRequestCount());
+        assertEquals("us", dao.current.getUnits());
+        assertEquals("rain", dao.current.getIcon());
+        assertEquals("Rainy", dao.current.getSummary());
+        assertEquals("52", dao.current.getApparentTemperature());
+        assertTrue(dao.current.getUmbrella());
+        assertEquals(2, dao.forecast.size());
+        Forecast second = dao.forecast.get(1539820800L);
+        assertNotNull(second);
+        assertEquals("partly-cloudy-day", second.getIcon());
+        assertEquals(45.0, second.getApparentTemperatureMin(), 0.01);
+        assertEquals(58.0, second.getApparentTemperatureMax(), 0.01);
+    }
+
+    @Test
+    public void pushedReport_beforeSelected_pickedUpByRefresh() {
+        mqttProvider.onMessage(HOME_ASSISTANT);
+        assertEquals(null, dao.current);
+        repository.setProvider(mqttProvider);
+        assertTrue(repository.refreshNow());
+        assertEquals("rain", dao.current.getIcon());
+        assertFalse(repository.refreshNow());
+    }
+
+    @Test
+    public void invalidPushedReport_ignored() {
+        repository.setProvider(mqttProvider);
+        mqttProvider.onMessage("not json");
+        assertEquals(null, dao.current);
+    }
+
+    private static class MemoryDao extends DarkSkyDao {
+
+        DarkSky current;
+        final Map<Long, Forecast> forecast = new LinkedHashMap<>();
+
+        @Override
+        public Flowable<DarkSky> getCurrent() {
+            return Flowable.just(current);
+        }
+
+        @Override
+        public DarkSky getCurrentItem() {
+            return current;
+        }
+
+        @Override
+        public Flowable<List<Forecast>> getForecast() {
+            return Flowable.<List<Forecast>>just(new ArrayList<>(forecast.values()));
+        }
+
+        @Override
+        public void insertCurrent(DarkSky item) {
+            current = item;
+        }
+
+        @Override
+        public void insertForecast(List<Forecast> items) {
+            for (Forecast item : items) {
+                forecast.put(item.getDay(), item);
+            }
+        }
+
+        @Override
+        public void deleteForecastExcept(List<Long> days) {
+            forecast.keySet().retainAll(days);
+        }
+
+        @Override
+        public void deleteAllItems() {
+            current = null;
+        }
+
+        @Override
+        public void deleteAllForecast() {
+            forecast.clear();
+        }
+    }
+}
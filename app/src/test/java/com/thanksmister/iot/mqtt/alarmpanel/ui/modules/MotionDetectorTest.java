@@ -0,0 +1,118 @@
+package com.thanksmister.iot.mqtt.alarmpanel.ui.modules;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays generated frame sequences through the motion detector on the JVM.
+ */
+public class MotionDetectorTest {
+
+    private static final int WIDTH = 160;
+    private static final int HEIGHT = 120;
+    private static final long FRAME_TIME = 1000 / 30;
+
+    private int detected;
+    private int stopped;
+    private MotionDetector detector;
+
+    @Before
+    public void setUp() {
+        detected = 0;
+        stopped = 0;
+        // a generous budget so timing on the build machine doesn't change the frame rate
+        detector = new MotionDetector(WIDTH, HEIGHT, new MotionSensor.MotionListener() {
+            @Override
+            public void onMotionDetected() {
+                detected++;
+            }
+
+            @Override
+            public void onMotionStopped() {
+                stopped++;
+            }
+        }, 1f);
+    }
+
+    @Test
+    public void staticScene_noMotion() {
+        long time = play(0, 90, -1, 100);
+        assertEquals(0, detected);
+        assertTrue(detector.getMetrics().getProcessed() > 0);
+        assertTrue(time > 0);
+    }
+
+    @Test
+    public void brightnessChange_noMotion() {
+        long time = play(0, 30, -1, 80);
+        play(time, 30, -1, 160);
+        assertEquals(0, detected);
+    }
+
+    @Test
+    public void movingObject_detectedThenStopped() {
+        long time = play(0, 30, -1, 100);
+        time = playMoving(time, 60);
+        assertEquals(1, detected);
+        assertEquals(0, stopped);
+        play(time, (int) (2 * MotionDetector.QUIET_TIME / FRAME_TIME), -1, 100);
+        assertEquals(1, detected);
+        assertEquals(1, stopped);
+    }
+
+    @Test
+    public void singleChangedFrame_ignored() {
+        long time = play(0, 30, -1, 100);
+        time = play(time, 1, 40, 100);
+        play(time, 30, 40, 100);
+        assertEquals(0, detected);
+    }
+
+    @Test
+    public void frameRate_capped() {
+        play(0, 300, -1, 100); // ten seconds at 30 fps
+        MotionDetector.Metrics metrics = detector.getMetrics();
+        assertTrue(metrics.getProcessed() <= 10 * MotionDetector.MAX_FPS + 1);
+        assertTrue(metrics.getMeasuredFps() <= MotionDetector.MAX_FPS + 0.5f);
+        assertEquals(300, metrics.getProcessed() + metrics.getSkipped());
+    }
+
+    /**
+     * Play frames of a flat scene, with a bright square at column [square] if it isn't -1.
+     */
+    private long play(long time, int frames, int square, int brightness) {
+        ByteBuffer frame = ByteBuffer.allocate(WIDTH * HEIGHT);
+        fill(frame, square, brightness);
+        for (int i = 0; i < frames; i++) {
+            detector.process(frame, WIDTH, time);
+            time += FRAME_TIME;
+        }
+        return time;
+    }
+
+    private long playMoving(long time, int frames) {
+        ByteBuffer frame = ByteBuffer.allocate(WIDTH * HEIGHT);
+        for (int i = 0; i < frames; i++) {
+            fill(frame, (i * 4) % (WIDTH - 32), 100);
+            detector.process(frame, WIDTH, time);
+            time += FRAME_TIME;
+        }
+        return time;
+    }
+
+    private void fill(ByteBuffer frame, int square, int brightness) {
+        byte[] data = frame.array();
+        Arrays.fill(data, (byte) brightness);
+        if (square >= 0) {
+            for (int y = 40; y < 72; y++) {
+                Arrays.fill(data, y * WIDTH + square, y * WIDTH + square + 32, (byte) 250);
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.thanksmister.iot.mqtt.alarmpanel.utils;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the EXIF orientation segment replaces the camera's start of image marker.
+ */
+public class JpegImageTest {
+
+    private static final byte[] JFIF = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0, 0x00, 0x02, (byte) 0xFF, (byte) 0xD9};
+    private static final byte[] EXIF = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE1, 0x00, 0x02, (byte) 0xFF, (byte) 0xD9};
+
+    @Test
+    public void orientationReplacesCameraStartOfImage() {
+        JpegImage image = JpegImage.fromBuffer(ByteBuffer.wrap(JFIF), 90f);
+        byte[] jpeg = Arrays.copyOfRange(image.getData(), image.getOffset(), image.getOffset() + image.getLength());
+        assertEquals(JFIF.length + 36, jpeg.length);
+        assertEquals(1, countMarkers(jpeg, 0xD8));
+        assertEquals(1, countMarkers(jpeg, 0xE1));
+        assertEquals(6, jpeg[31]);
+        assertArrayEquals(Arrays.copyOfRange(JFIF, 2, JFIF.length), Arrays.copyOfRange(jpeg, 38, jpeg.length));
+        image.release();
+    }
+
+    @Test
+    public void cameraExifIsLeftAsIs() {
+        JpegImage image = JpegImage.fromBuffer(ByteBuffer.wrap(EXIF), 90f);
+        byte[] jpeg = Arrays.copyOfRange(image.getData(), image.getOffset(), image.getOffset() + image.getLength());
+        assertArrayEquals(EXIF, jpeg);
+        image.release();
+    }
+
+    private static int countMarkers(byte[] data, int marker) {
+        int count = 0;
+        for (int i = 0; i + 1 < data.length; i++) {
+            if (data[i] == (byte) 0xFF && data[i + 1] == (byte) marker) {
+                count++;
+            }
+        }
+        return count;
+    }
+}